@@ -0,0 +1,159 @@
+/**
+ * JMH benchmark of Reed-Solomon encoding, checking and decoding.
+ */
+
+package org.bitkernel.reedsolomon;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark of Reed-Solomon encoding, checking and decoding.
+ *
+ * This replaces the fixed timer in ReedSolomonBenchmark with JMH
+ * warmup and measurement iterations, so the numbers include the
+ * effects of the JIT compiler and can be compared between runs.
+ *
+ * Each benchmark is run for every coding loop, shard shape, and
+ * shard size in the parameters below.  Besides ops/s, the "bytes"
+ * counter reports the data bytes processed per second (divide by
+ * 1,000,000 for MB/s), and running with "-prof gc" (which main()
+ * does) reports the allocation rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ReedSolomonJmhBenchmark {
+
+    /**
+     * The simple name of the CodingLoop class to use.
+     */
+    @Param({
+            "ByteInputOutputExpCodingLoop",
+            "ByteInputOutputTableCodingLoop",
+            "ByteOutputInputExpCodingLoop",
+            "ByteOutputInputTableCodingLoop",
+            "InputByteOutputExpCodingLoop",
+            "InputByteOutputTableCodingLoop",
+            "InputOutputByteExpCodingLoop",
+            "InputOutputByteTableCodingLoop",
+            "OutputByteInputExpCodingLoop",
+            "OutputByteInputTableCodingLoop",
+            "OutputInputByteExpCodingLoop",
+            "OutputInputByteTableCodingLoop",
+            "InputOutputLongSwarCodingLoop",
+    })
+    public String codingLoop;
+
+    /**
+     * Data and parity shard counts, as "data+parity".  4+2 is what
+     * DataBlock uses; 17+3 is what ReedSolomonBenchmark uses.
+     */
+    @Param({"4+2", "17+3"})
+    public String shape;
+
+    /**
+     * The number of bytes in each shard.
+     */
+    @Param({"64", "4096", "200000"})
+    public int shardSize;
+
+    private ReedSolomon codec;
+    private int dataCount;
+    private byte [] [] shards;
+    private byte [] tempBuffer;
+    private boolean [] shardPresent;
+
+    /**
+     * Counts the bytes of data processed, so JMH reports bytes per second
+     * next to ops/s.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class ByteCounter {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws ReflectiveOperationException {
+        String [] counts = shape.split("\\+");
+        dataCount = Integer.parseInt(counts[0]);
+        int parityCount = Integer.parseInt(counts[1]);
+        CodingLoop loop = (CodingLoop) Class.forName("org.bitkernel.reedsolomon." + codingLoop)
+                .getDeclaredConstructor().newInstance();
+        codec = new ReedSolomon(dataCount, parityCount, loop);
+
+        Random random = new Random(0);
+        shards = new byte [dataCount + parityCount] [shardSize];
+        for (int i = 0; i < dataCount; i++) {
+            random.nextBytes(shards[i]);
+        }
+        codec.encodeParity(shards, 0, shardSize);
+        tempBuffer = new byte [shardSize];
+
+        // Lose the first data shard and the last parity shard, which is
+        // the usual case of one storage node being down.
+        shardPresent = new boolean [dataCount + parityCount];
+        for (int i = 0; i < shardPresent.length; i++) {
+            shardPresent[i] = true;
+        }
+        shardPresent[0] = false;
+        shardPresent[shardPresent.length - 1] = false;
+    }
+
+    @Benchmark
+    public byte [] [] encodeParity(ByteCounter counter) {
+        codec.encodeParity(shards, 0, shardSize);
+        counter.bytes += (long) dataCount * shardSize;
+        return shards;
+    }
+
+    @Benchmark
+    public boolean isParityCorrect(ByteCounter counter) {
+        boolean result = codec.isParityCorrect(shards, 0, shardSize, tempBuffer);
+        counter.bytes += (long) dataCount * shardSize;
+        return result;
+    }
+
+    @Benchmark
+    public byte [] [] decodeMissing(ByteCounter counter) {
+        codec.decodeMissing(shards, shardPresent, 0, shardSize);
+        counter.bytes += (long) dataCount * shardSize;
+        return shards;
+    }
+
+    public static void main(String [] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ReedSolomonJmhBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
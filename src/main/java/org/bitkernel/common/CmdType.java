@@ -30,6 +30,10 @@ public enum CmdType {
     PUT_PRI_KEY_BLOCK("-ppkb2", "", "-ppkb2@groupUuid:userName:block"),
     GET_PUB_KEY_BLOCKS("-gpkb1", "", "-gpkb1@groupUuid"),
     GET_PRI_KEY_BLOCKS("-gpkb2", "", "-gpkb2@groupUuid:userName"),
+    PUT_PUB_KEY_BATCH("-ppkbb1", "", "-ppkbb1@ :[hashKey:blocks]..."),
+    PUT_PRI_KEY_BATCH("-ppkbb2", "", "-ppkbb2@ :[hashKey:blocks]..."),
+    GET_PUB_KEY_BATCH("-gpkbb1", "", "-gpkbb1@ :[hashKey]..."),
+    GET_PRI_KEY_BATCH("-gpkbb2", "", "-gpkbb2@ :[hashKey]..."),
     REMOVE_PUB_KEY("-rpk1", "", "-rpk1@groupUuid"),
     REMOVE_PRI_KEY("-rpk2", "", "-rpk2@groupUuid"),
 
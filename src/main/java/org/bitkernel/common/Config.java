@@ -32,6 +32,20 @@ public class Config {
     @Getter
     private static int storage3Port;
     @Getter
+    private static String storageCodec;
+    @Getter
+    private static boolean storageChecksum;
+    @Getter
+    private static String storageDataDir;
+    @Getter
+    private static long storageSegmentSize;
+    @Getter
+    private static long storageSyncWindowMs;
+    @Getter
+    private static int storageSyncBatchSize;
+    @Getter
+    private static int storageWorkers;
+    @Getter
     private static String signServerIp;
     @Getter
     private static int signServerPort;
@@ -87,6 +101,14 @@ public class Config {
         storage3Ip = properties.getProperty("storage3Ip");
         storage3Port = Integer.parseInt(properties.getProperty("storage3Port"));
 
+        storageCodec = properties.getProperty("storageCodec", "rs");
+        storageChecksum = Boolean.parseBoolean(properties.getProperty("storageChecksum", "false"));
+        storageDataDir = properties.getProperty("storageDataDir", "storage-data");
+        storageSegmentSize = Long.parseLong(properties.getProperty("storageSegmentSize", "4194304"));
+        storageSyncWindowMs = Long.parseLong(properties.getProperty("storageSyncWindowMs", "0"));
+        storageSyncBatchSize = Integer.parseInt(properties.getProperty("storageSyncBatchSize", "64"));
+        storageWorkers = Integer.parseInt(properties.getProperty("storageWorkers", "0"));
+
         signServerIp = properties.getProperty("signServerIp");
         signServerPort = Integer.parseInt(properties.getProperty("signServerPort"));
 
@@ -13,7 +13,8 @@ import java.net.SocketException;
 
 @Slf4j
 public class Udp {
-    private static final int BUFF_LEN = 4096;
+    /** the longest packet that can be received */
+    public static final int BUFF_LEN = 4096;
     @Getter
     private int port;
     @Getter
@@ -70,6 +71,17 @@ public class Udp {
         }
     }
 
+    public void send(@NotNull DatagramPacket pkt,
+                     @NotNull byte[] bytes) {
+        DatagramPacket packet = new DatagramPacket(bytes, 0, bytes.length, pkt.getSocketAddress());
+        try {
+            socket.send(packet);
+            logger.debug("UDP send {} bytes to {} success", bytes.length, pkt.getSocketAddress());
+        } catch (IOException e) {
+            logger.debug("UDP send {} bytes to {} failed", bytes.length, pkt.getSocketAddress());
+        }
+    }
+
     @Nullable
     public DatagramPacket receivePkt() {
         try {
@@ -217,13 +217,22 @@ public class MPCMain {
                              @NotNull String groupUuid,
                              @NotNull PrivateKey privateKey) {
         List<byte[]> subPriKeys = getPriKeySlicing(privateKey, group.size());
+        List<List<DataBlock>> dataBlockLists = DataBlock.generateDataBlocks(subPriKeys);
+        // hash key -> data blocks of the members, stored in one batch
+        Map<String, List<DataBlock>> keyedBlocks = new LinkedHashMap<>();
+        Map<String, String> hashKeyToUser = new HashMap<>();
         for (int i = 0; i < subPriKeys.size(); i++) {
             String userName = group.get(i).trim();
-            List<DataBlock> dataBlocks = DataBlock.generateDataBlocks(i, subPriKeys.get(i));
             String hashKey = generateHashKey(groupUuid, userName);
-            storageGateway.storePriKeyBlock(hashKey, dataBlocks);
+            keyedBlocks.put(hashKey, dataBlockLists.get(i));
+            hashKeyToUser.put(hashKey, userName);
             logger.debug("\n[{}]'s sub-private key is {}", userName, new String(subPriKeys.get(i)));
         }
+        storageGateway.storePriKeyBlocks(keyedBlocks).forEach((hashKey, stored) -> {
+            if (!stored) {
+                logger.error("Store [{}]'s sub-private key failed", hashKeyToUser.get(hashKey));
+            }
+        });
     }
 
     /**
@@ -381,15 +390,18 @@ public class MPCMain {
                                        @NotNull String groupUuid,
                                        @NotNull PrivateKey privateKey) {
         List<byte[]> subPriKeys = getPriKeySlicing(privateKey, group.size());
+        List<List<DataBlock>> dataBlockLists = DataBlock.generateDataBlocks(subPriKeys);
         boolean res = true;
 
+        List<String> hashKeys = group.stream().map(userName -> generateHashKey(groupUuid, userName.trim()))
+                .collect(Collectors.toList());
+        Map<String, List<DataBlock>> keyedBlocks = storageGateway.getSubPriKeyBlocks(hashKeys);
         for (int i = 0; i < group.size(); i++) {
             String userName = group.get(i).trim();
-            String hashKey = generateHashKey(groupUuid, userName);
-            List<DataBlock> remainBlocks = storageGateway.getSubPriKeyBlocks(hashKey);
+            List<DataBlock> remainBlocks = storageGateway.unsealBlocks(keyedBlocks.get(hashKeys.get(i)));
             String sliceStr = new String(DataBlock.combine(remainBlocks));
 
-            List<DataBlock> dataBlocks = DataBlock.generateDataBlocks(i, subPriKeys.get(i));
+            List<DataBlock> dataBlocks = dataBlockLists.get(i);
             String subKeyStr = new String(DataBlock.combine(dataBlocks));
             if (subKeyStr.contains(sliceStr)) {
                 logger.debug("The {}'s sub-private key recover successfully", userName);
@@ -405,7 +417,7 @@ public class MPCMain {
                                        @NotNull PublicKey pubKey) {
         // get the remaining data block string
         String pubHashKey = generateHashKey(groupUuid, groupMap.get(groupUuid).getGroupName());
-        List<DataBlock> remainBlocks = storageGateway.getPubKeyBlocks(pubHashKey);
+        List<DataBlock> remainBlocks = storageGateway.unsealBlocks(storageGateway.getPubKeyBlocks(pubHashKey));
         String sliceStr = new String(DataBlock.combine(remainBlocks));
 
         // get the all data blocks string combination of public key
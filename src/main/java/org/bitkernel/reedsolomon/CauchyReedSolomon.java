@@ -0,0 +1,477 @@
+/**
+ * Reed-Solomon coding with a Cauchy bit matrix, using only XOR.
+ */
+
+package org.bitkernel.reedsolomon;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.BitSet;
+
+/**
+ * Reed-Solomon coding with a Cauchy bit matrix, using only XOR.
+ *
+ * This is a second coding engine with the same shard layout and the
+ * same encodeParity / isParityCorrect / decodeMissing methods as
+ * ReedSolomon, in the style of Jerasure's Cauchy Reed-Solomon codes.
+ *
+ * The coding matrix is an identity on top of a Cauchy matrix over
+ * GF(2^8).  Any square subset of its rows is invertible, so any
+ * dataShardCount shards can re-create the rest.  Each element e of the
+ * matrix is turned into an 8x8 matrix of bits, where bit (r, c) is bit
+ * r of e * 2^c.  Multiplying by e is then a choice of which of eight
+ * inputs to XOR into each of eight outputs.
+ *
+ * To use that, each shard is cut into blocks of 8 * packetSize bytes,
+ * and each block into eight packets.  Packet c of a block holds bit c
+ * of every symbol in that block, so coding is done by XORing whole
+ * packets together, with no multiplication at all.
+ *
+ * Bytes at the end of a shard that don't fill a whole block are coded
+ * one byte at a time with the same matrix and the multiplication
+ * table.  Because the blocks start at the beginning of each shard,
+ * the offset passed to the public methods must be a multiple of the
+ * block size, and the byte count must be too unless the range runs to
+ * the end of the shards.  Shards encoded by this class must be decoded
+ * by it, with the same packet size.
+ */
+public class CauchyReedSolomon {
+
+    public static final int DEFAULT_PACKET_SIZE = 1024;
+
+    private static final int BITS_IN_BYTE = 8;
+    private static final int BYTES_IN_LONG = 8;
+
+    /**
+     * The most erasure patterns to keep decode matrices for.
+     */
+    private static final int DECODE_CACHE_SIZE = 256;
+
+    private final int dataShardCount;
+    private final int parityShardCount;
+    private final int totalShardCount;
+    private final int packetSize;
+    private final int blockSize;
+    private final Matrix matrix;
+
+    /**
+     * Rows from the matrix for encoding parity.
+     */
+    private final byte [] [] parityRows;
+
+    /**
+     * The same rows as bit matrices; see bitRow().
+     */
+    private final byte [] [] parityBitRows;
+
+    /**
+     * Codes the bytes at the end of a shard that don't fill a block.
+     */
+    private final CodingLoop tailCodingLoop = new InputOutputByteTableCodingLoop();
+
+    private final DecodeMatrixCache<byte [] []> decodeMatrixCache =
+            new DecodeMatrixCache<byte [] []>(DECODE_CACHE_SIZE);
+
+    /**
+     * Creates a codec with the default packet size.
+     */
+    public static CauchyReedSolomon create(int dataShardCount, int parityShardCount) {
+        return new CauchyReedSolomon(dataShardCount, parityShardCount, DEFAULT_PACKET_SIZE);
+    }
+
+    /**
+     * Initializes a new encoder/decoder.
+     *
+     * @param packetSize The number of bytes in each of the eight packets
+     *                   of a block, which must be a multiple of 8.
+     */
+    public CauchyReedSolomon(int dataShardCount, int parityShardCount, int packetSize) {
+        // The Cauchy matrix needs a distinct field element for each shard.
+        if (256 < dataShardCount + parityShardCount) {
+            throw new IllegalArgumentException("too many shards - max is 256");
+        }
+        // Packets are XORed a long at a time.
+        if (packetSize <= 0 || packetSize % BYTES_IN_LONG != 0) {
+            throw new IllegalArgumentException("packetSize is not a positive multiple of 8: " + packetSize);
+        }
+
+        this.dataShardCount = dataShardCount;
+        this.parityShardCount = parityShardCount;
+        this.totalShardCount = dataShardCount + parityShardCount;
+        this.packetSize = packetSize;
+        this.blockSize = BITS_IN_BYTE * packetSize;
+        matrix = buildMatrix(dataShardCount, totalShardCount);
+        parityRows = new byte [parityShardCount] [];
+        parityBitRows = new byte [parityShardCount] [];
+        for (int i = 0; i < parityShardCount; i++) {
+            parityRows[i] = matrix.getRow(dataShardCount + i);
+            parityBitRows[i] = bitRow(parityRows[i]);
+        }
+    }
+
+    /**
+     * Returns the number of data shards.
+     */
+    public int getDataShardCount() {
+        return dataShardCount;
+    }
+
+    /**
+     * Returns the number of parity shards.
+     */
+    public int getParityShardCount() {
+        return parityShardCount;
+    }
+
+    /**
+     * Returns the total number of shards.
+     */
+    public int getTotalShardCount() {
+        return totalShardCount;
+    }
+
+    /**
+     * Returns the number of bytes in a block, which offsets must be a
+     * multiple of.
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Encodes parity for a set of data shards.
+     *
+     * @param shards An array containing data shards followed by parity shards.
+     *               Each shard is a byte array, and they must all be the same
+     *               size.
+     * @param offset The index of the first byte in each shard to encode.
+     * @param byteCount The number of bytes to encode in each shard.
+     */
+    public void encodeParity(byte [] [] shards, int offset, int byteCount) {
+        checkBuffersAndSizes(shards, offset, byteCount);
+
+        byte [] [] outputs = new byte [parityShardCount] [];
+        System.arraycopy(shards, dataShardCount, outputs, 0, parityShardCount);
+
+        codeSomeShards(
+                parityRows, parityBitRows,
+                shards, dataShardCount,
+                outputs, parityShardCount,
+                offset, byteCount);
+    }
+
+    /**
+     * Returns true if the parity shards contain the right data.
+     *
+     * @param shards An array containing data shards followed by parity shards.
+     *               Each shard is a byte array, and they must all be the same
+     *               size.
+     * @param firstByte The index of the first byte in each shard to check.
+     * @param byteCount The number of bytes to check in each shard.
+     */
+    public boolean isParityCorrect(byte [] [] shards, int firstByte, int byteCount) {
+        checkBuffersAndSizes(shards, firstByte, byteCount);
+
+        // Code one block at a time into temporary buffers, and compare.
+        byte [] [] temp = new byte [parityShardCount] [blockSize];
+        ByteBuffer [] inputBuffers = wrap(shards, dataShardCount);
+        ByteBuffer [] tempBuffers = wrap(temp, parityShardCount);
+        int end = firstByte + byteCount;
+        int blockStart = firstByte;
+        for (; blockStart + blockSize <= end; blockStart += blockSize) {
+            codeBlock(parityBitRows, inputBuffers, dataShardCount, blockStart,
+                    tempBuffers, parityShardCount, 0);
+            for (int iParity = 0; iParity < parityShardCount; iParity++) {
+                byte [] parityShard = shards[dataShardCount + iParity];
+                byte [] computed = temp[iParity];
+                for (int i = 0; i < blockSize; i++) {
+                    if (computed[i] != parityShard[blockStart + i]) {
+                        return false;
+                    }
+                }
+            }
+        }
+
+        byte [] [] toCheck = new byte [parityShardCount] [];
+        System.arraycopy(shards, dataShardCount, toCheck, 0, parityShardCount);
+        return tailCodingLoop.checkSomeShards(
+                parityRows,
+                shards, dataShardCount,
+                toCheck, parityShardCount,
+                blockStart, end - blockStart,
+                null);
+    }
+
+    /**
+     * Given a list of shards, some of which contain data, fills in the
+     * ones that don't have data.
+     *
+     * Quickly does nothing if all of the shards are present.
+     *
+     * If any shards are missing (based on the flags in shardsPresent),
+     * the data in those shards is recomputed and filled in.
+     */
+    public void decodeMissing(byte [] [] shards,
+                              boolean [] shardPresent,
+                              final int offset,
+                              final int byteCount) {
+        checkBuffersAndSizes(shards, offset, byteCount);
+
+        int numberPresent = 0;
+        for (int i = 0; i < totalShardCount; i++) {
+            if (shardPresent[i]) {
+                numberPresent += 1;
+            }
+        }
+        if (numberPresent == totalShardCount) {
+            return;
+        }
+        if (numberPresent < dataShardCount) {
+            throw new IllegalArgumentException("Not enough shards present");
+        }
+
+        byte [] [] dataDecodeRows = dataDecodeRows(shardPresent);
+        byte [] [] subShards = new byte [dataShardCount] [];
+        {
+            int subMatrixRow = 0;
+            for (int matrixRow = 0; matrixRow < totalShardCount && subMatrixRow < dataShardCount; matrixRow++) {
+                if (shardPresent[matrixRow]) {
+                    subShards[subMatrixRow] = shards[matrixRow];
+                    subMatrixRow += 1;
+                }
+            }
+        }
+
+        // Re-create any data shards that were missing.
+        byte [] [] outputs = new byte [parityShardCount] [];
+        byte [] [] matrixRows = new byte [parityShardCount] [];
+        byte [] [] bitRows = new byte [parityShardCount] [];
+        int outputCount = 0;
+        for (int iShard = 0; iShard < dataShardCount; iShard++) {
+            if (!shardPresent[iShard]) {
+                outputs[outputCount] = shards[iShard];
+                matrixRows[outputCount] = dataDecodeRows[iShard];
+                bitRows[outputCount] = bitRow(dataDecodeRows[iShard]);
+                outputCount += 1;
+            }
+        }
+        codeSomeShards(
+                matrixRows, bitRows,
+                subShards, dataShardCount,
+                outputs, outputCount,
+                offset, byteCount);
+
+        // Now that all of the data shards are intact, compute any of
+        // the parity that is missing.
+        outputCount = 0;
+        for (int iShard = dataShardCount; iShard < totalShardCount; iShard++) {
+            if (!shardPresent[iShard]) {
+                outputs[outputCount] = shards[iShard];
+                matrixRows[outputCount] = parityRows[iShard - dataShardCount];
+                bitRows[outputCount] = parityBitRows[iShard - dataShardCount];
+                outputCount += 1;
+            }
+        }
+        codeSomeShards(
+                matrixRows, bitRows,
+                shards, dataShardCount,
+                outputs, outputCount,
+                offset, byteCount);
+    }
+
+    /**
+     * Codes the whole blocks in the range with XOR, and the rest with
+     * the multiplication table.
+     */
+    private void codeSomeShards(byte [] [] matrixRows, byte [] [] bitRows,
+                                byte [] [] inputs, int inputCount,
+                                byte [] [] outputs, int outputCount,
+                                int offset, int byteCount) {
+        if (outputCount == 0) {
+            return;
+        }
+        ByteBuffer [] inputBuffers = wrap(inputs, inputCount);
+        ByteBuffer [] outputBuffers = wrap(outputs, outputCount);
+        int end = offset + byteCount;
+        int blockStart = offset;
+        for (; blockStart + blockSize <= end; blockStart += blockSize) {
+            codeBlock(bitRows, inputBuffers, inputCount, blockStart,
+                    outputBuffers, outputCount, blockStart);
+        }
+        tailCodingLoop.codeSomeShards(
+                matrixRows,
+                inputs, inputCount,
+                outputs, outputCount,
+                blockStart, end - blockStart);
+    }
+
+    /**
+     * Codes one block.  This is the inner loop.
+     *
+     * Output packet r of each output is the XOR of input packet c of
+     * input j, for every (j, c) whose bit is set in row r of the bit
+     * matrix.  The packets are XORed a long at a time through
+     * ByteBuffer views of the shards, which is several times faster
+     * than a byte loop.
+     *
+     * @param inputStart The index of the block in the inputs.
+     * @param outputStart The index in the outputs to write the block to.
+     */
+    private void codeBlock(byte [] [] bitRows,
+                           ByteBuffer [] inputs, int inputCount, int inputStart,
+                           ByteBuffer [] outputs, int outputCount, int outputStart) {
+        for (int iOutput = 0; iOutput < outputCount; iOutput++) {
+            final ByteBuffer outputShard = outputs[iOutput];
+            final byte [] bitRow = bitRows[iOutput];
+            for (int r = 0; r < BITS_IN_BYTE; r++) {
+                final int outputPos = outputStart + r * packetSize;
+                boolean first = true;
+                for (int iInput = 0; iInput < inputCount; iInput++) {
+                    final ByteBuffer inputShard = inputs[iInput];
+                    final int mask = bitRow[iInput * BITS_IN_BYTE + r] & 0xFF;
+                    for (int c = 0; c < BITS_IN_BYTE; c++) {
+                        if ((mask & (1 << c)) == 0) {
+                            continue;
+                        }
+                        final int inputPos = inputStart + c * packetSize;
+                        if (first) {
+                            for (int i = 0; i < packetSize; i += BYTES_IN_LONG) {
+                                outputShard.putLong(outputPos + i, inputShard.getLong(inputPos + i));
+                            }
+                            first = false;
+                        } else {
+                            for (int i = 0; i < packetSize; i += BYTES_IN_LONG) {
+                                outputShard.putLong(outputPos + i,
+                                        outputShard.getLong(outputPos + i) ^ inputShard.getLong(inputPos + i));
+                            }
+                        }
+                    }
+                }
+                if (first) {
+                    for (int i = 0; i < packetSize; i += BYTES_IN_LONG) {
+                        outputShard.putLong(outputPos + i, 0L);
+                    }
+                }
+            }
+        }
+    }
+
+    private static ByteBuffer [] wrap(byte [] [] shards, int count) {
+        ByteBuffer [] result = new ByteBuffer [count];
+        for (int i = 0; i < count; i++) {
+            result[i] = ByteBuffer.wrap(shards[i]).order(ByteOrder.nativeOrder());
+        }
+        return result;
+    }
+
+    /**
+     * Returns the rows of the matrix that re-create each data shard from
+     * the first dataShardCount shards that are present.
+     */
+    private byte [] [] dataDecodeRows(boolean [] shardPresent) {
+        BitSet pattern = new BitSet(totalShardCount);
+        for (int i = 0; i < totalShardCount; i++) {
+            if (shardPresent[i]) {
+                pattern.set(i);
+            }
+        }
+        byte [] [] rows = decodeMatrixCache.get(pattern);
+        if (rows == null) {
+            Matrix subMatrix = new Matrix(dataShardCount, dataShardCount);
+            int subMatrixRow = 0;
+            for (int matrixRow = 0; matrixRow < totalShardCount && subMatrixRow < dataShardCount; matrixRow++) {
+                if (shardPresent[matrixRow]) {
+                    for (int c = 0; c < dataShardCount; c++) {
+                        subMatrix.set(subMatrixRow, c, matrix.get(matrixRow, c));
+                    }
+                    subMatrixRow += 1;
+                }
+            }
+            subMatrix.invertInPlace();
+            Matrix dataDecodeMatrix = subMatrix;
+            rows = new byte [dataShardCount] [];
+            for (int r = 0; r < dataShardCount; r++) {
+                rows[r] = dataDecodeMatrix.getRow(r);
+            }
+            decodeMatrixCache.put(pattern, rows);
+        }
+        return rows;
+    }
+
+    /**
+     * Turns one row of the matrix into a row of bit matrices.
+     *
+     * For the element in column j, result[j * 8 + r] has bit c set when
+     * bit r of (element * 2^c) is set, so output bit r is the XOR of the
+     * input bits c that are set in it.
+     */
+    private static byte [] bitRow(byte [] matrixRow) {
+        byte [] result = new byte [matrixRow.length * BITS_IN_BYTE];
+        for (int j = 0; j < matrixRow.length; j++) {
+            for (int c = 0; c < BITS_IN_BYTE; c++) {
+                int product = Galois.multiply(matrixRow[j], (byte) (1 << c)) & 0xFF;
+                for (int r = 0; r < BITS_IN_BYTE; r++) {
+                    if ((product & (1 << r)) != 0) {
+                        result[j * BITS_IN_BYTE + r] |= (byte) (1 << c);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks the consistency of arguments passed to public methods.
+     */
+    private void checkBuffersAndSizes(byte [] [] shards, int offset, int byteCount) {
+        if (shards.length != totalShardCount) {
+            throw new IllegalArgumentException("wrong number of shards: " + shards.length);
+        }
+
+        int shardLength = shards[0].length;
+        for (int i = 1; i < shards.length; i++) {
+            if (shards[i].length != shardLength) {
+                throw new IllegalArgumentException("Shards are different sizes");
+            }
+        }
+
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset is negative: " + offset);
+        }
+        if (byteCount < 0) {
+            throw new IllegalArgumentException("byteCount is negative: " + byteCount);
+        }
+        if (shardLength < offset + byteCount) {
+            throw new IllegalArgumentException("buffers to small: " + byteCount + offset);
+        }
+
+        // The blocks must line up the same way every time.
+        if (offset % blockSize != 0) {
+            throw new IllegalArgumentException("offset is not a multiple of the block size: " + offset);
+        }
+        if (byteCount % blockSize != 0 && offset + byteCount != shardLength) {
+            throw new IllegalArgumentException(
+                    "byteCount is not a multiple of the block size and does not reach the end of the shards");
+        }
+    }
+
+    /**
+     * Creates the coding matrix: an identity matrix for the data shards,
+     * followed by a Cauchy matrix for the parity shards.
+     *
+     * Element (i, j) of the Cauchy part is 1 / (x_i + y_j), with
+     * x_i = dataShards + i and y_j = j, which are all distinct.
+     */
+    private static Matrix buildMatrix(int dataShards, int totalShards) {
+        Matrix result = new Matrix(totalShards, dataShards);
+        for (int r = 0; r < dataShards; r++) {
+            result.set(r, r, (byte) 1);
+        }
+        for (int r = dataShards; r < totalShards; r++) {
+            for (int c = 0; c < dataShards; c++) {
+                result.set(r, c, Galois.divide((byte) 1, (byte) (r ^ c)));
+            }
+        }
+        return result;
+    }
+}
@@ -6,6 +6,8 @@
 
 package org.bitkernel.reedsolomon;
 
+import java.nio.ByteBuffer;
+
 public interface CodingLoop {
 
     /**
@@ -23,15 +25,24 @@ public interface CodingLoop {
      *
      *    "output"  - Which output shard is being computed.  (3 parity shards)
      *
+     *    "long"   - Index of an eight-byte word within shard.  (25,000 words
+     *               in each shard)
+     *
      * And the naming for multiplication method is:
      *
      *    "table"  - Use the multiplication table.
      *
      *    "exp"    - Use the logarithm/exponent table.
      *
+     *    "swar"   - Multiply all eight bytes of a long at once, using
+     *               masks built from each bit of the input bytes.
+     *
      * The ReedSolomonBenchmark class compares the performance of the different
      * loops, which will depend on the specific processor you're running on.
      *
+     * VectorNibbleCodingLoop, which uses SIMD shuffles, is not in this list
+     * because it needs Java 17; VectorCodingLoops returns it when it can run.
+     *
      * This is the inner loop.  It needs to be fast.  Be careful
      * if you change it.
      *
@@ -53,6 +64,7 @@ public interface CodingLoop {
                     new OutputByteInputTableCodingLoop(),
                     new OutputInputByteExpCodingLoop(),
                     new OutputInputByteTableCodingLoop(),
+                    new InputOutputLongSwarCodingLoop(),
             };
 
     /**
@@ -115,4 +127,51 @@ public interface CodingLoop {
                              final int offset,
                              final int byteCount,
                              final byte [] tempBuffer);
+
+    /**
+     * Multiplies a subset of rows from a coding matrix by a full set of
+     * input shards to produce some output shards, where the shards are
+     * ByteBuffers, which may be heap, direct, or memory-mapped buffers.
+     *
+     * The bytes are read and written in place with absolute get and put
+     * calls, so the positions and limits of the buffers are not changed.
+     *
+     * @param matrixRows The rows from the matrix to use.
+     * @param inputs An array of buffers, each of which is one input shard.
+     * @param inputCount The number of input buffers.
+     * @param outputs Buffers where the computed shards are stored.
+     * @param outputCount The number of outputs to compute.
+     * @param offset The index in the inputs and output of the first byte
+     *               to process.
+     * @param byteCount The number of bytes to process.
+     */
+     void codeSomeShards(final byte [] [] matrixRows,
+                         final ByteBuffer [] inputs,
+                         final int inputCount,
+                         final ByteBuffer [] outputs,
+                         final int outputCount,
+                         final int offset,
+                         final int byteCount);
+
+    /**
+     * Multiplies a subset of rows from a coding matrix by a full set of
+     * input shards held in ByteBuffers, and checks that the data in those
+     * shards matches what's expected.
+     *
+     * @param matrixRows The rows from the matrix to use.
+     * @param inputs An array of buffers, each of which is one input shard.
+     * @param inputCount The number of input buffers.
+     * @param toCheck Buffers holding the shards to check.
+     * @param checkCount The number of outputs to compute.
+     * @param offset The index in the inputs and output of the first byte
+     *               to process.
+     * @param byteCount The number of bytes to process.
+     */
+     boolean checkSomeShards(final byte [] [] matrixRows,
+                             final ByteBuffer [] inputs,
+                             final int inputCount,
+                             final ByteBuffer [] toCheck,
+                             final int checkCount,
+                             final int offset,
+                             final int byteCount);
 }
@@ -0,0 +1,64 @@
+/**
+ * Interface for a method of looping over inputs and encoding them in
+ * the 16-bit Galois field.
+ */
+
+package org.bitkernel.reedsolomon;
+
+/**
+ * Interface for a method of looping over inputs and encoding them in
+ * the 16-bit Galois field.
+ *
+ * This is CodingLoop for ReedSolomon16.  The matrix rows hold
+ * elements of Galois16, and the shards hold two-byte elements, high
+ * byte first, so offset and byteCount are always even.
+ *
+ * The naming follows CodingLoop, with "word" for the index of a
+ * two-byte element within the shard.
+ */
+public interface CodingLoop16 {
+
+    /**
+     * All of the available coding loop algorithms.
+     */
+    CodingLoop16[] ALL_CODING_LOOPS =
+            new CodingLoop16[] {
+                    new InputOutputWordExpCodingLoop16(),
+                    new InputOutputWordTableCodingLoop16(),
+            };
+
+    /**
+     * Multiplies a subset of rows from a coding matrix by a full set of
+     * input shards to produce some output shards.
+     *
+     * @param matrixRows The rows from the matrix to use.
+     * @param inputs An array of byte arrays, each of which is one input shard.
+     * @param inputCount The number of input byte arrays.
+     * @param outputs Byte arrays where the computed shards are stored.
+     * @param outputCount The number of outputs to compute.
+     * @param offset The index in the inputs and output of the first byte
+     *               to process.  Must be even.
+     * @param byteCount The number of bytes to process.  Must be even.
+     */
+    void codeSomeShards(final int [] [] matrixRows,
+                        final byte [] [] inputs,
+                        final int inputCount,
+                        final byte [] [] outputs,
+                        final int outputCount,
+                        final int offset,
+                        final int byteCount);
+
+    /**
+     * Multiplies a subset of rows from a coding matrix by a full set of
+     * input shards, and checks that the shards given match them.
+     *
+     * @return True if the computed shards match the ones given.
+     */
+    boolean checkSomeShards(final int [] [] matrixRows,
+                            final byte [] [] inputs,
+                            final int inputCount,
+                            final byte [] [] toCheck,
+                            final int checkCount,
+                            final int offset,
+                            final int byteCount);
+}
@@ -0,0 +1,51 @@
+/**
+ * Common implementations for 16-bit coding loops.
+ */
+
+package org.bitkernel.reedsolomon;
+
+/**
+ * Common implementations for 16-bit coding loops.
+ *
+ * Like CodingLoopBase, the check is shared, and uses the loop structure
+ * of WordOutputInput, which does not need temporary buffers.
+ */
+public abstract class CodingLoop16Base implements CodingLoop16 {
+
+    @Override
+    public boolean checkSomeShards(
+            int[][] matrixRows,
+            byte[][] inputs, int inputCount,
+            byte[][] toCheck, int checkCount,
+            int offset, int byteCount) {
+
+        for (int iByte = offset; iByte < offset + byteCount; iByte += 2) {
+            for (int iOutput = 0; iOutput < checkCount; iOutput++) {
+                int [] matrixRow = matrixRows[iOutput];
+                int value = 0;
+                for (int iInput = 0; iInput < inputCount; iInput++) {
+                    value ^= Galois16.multiply(matrixRow[iInput], getWord(inputs[iInput], iByte));
+                }
+                if (getWord(toCheck[iOutput], iByte) != value) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the two-byte element starting at the given byte.
+     */
+    static int getWord(byte [] shard, int iByte) {
+        return ((shard[iByte] & 0xFF) << 8) | (shard[iByte + 1] & 0xFF);
+    }
+
+    /**
+     * Stores a two-byte element starting at the given byte.
+     */
+    static void putWord(byte [] shard, int iByte, int value) {
+        shard[iByte] = (byte) (value >> 8);
+        shard[iByte + 1] = (byte) value;
+    }
+}
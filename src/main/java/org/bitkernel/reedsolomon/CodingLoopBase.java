@@ -6,11 +6,17 @@
 
 package org.bitkernel.reedsolomon;
 
+import java.nio.ByteBuffer;
+
 /**
  * Common implementations for coding loops.
  *
  * Many of the coding loops do not have custom checkSomeShards() methods.
  * The benchmark doesn't measure that method.
+ *
+ * The loops are tuned for byte arrays, so the ByteBuffer versions of
+ * the methods are shared here unless a loop has a better way to
+ * access the buffers.
  */
 public abstract class CodingLoopBase implements CodingLoop {
 
@@ -39,4 +45,64 @@ public abstract class CodingLoopBase implements CodingLoop {
         }
         return true;
     }
+
+    @Override
+    public void codeSomeShards(
+            byte[][] matrixRows,
+            ByteBuffer[] inputs, int inputCount,
+            ByteBuffer[] outputs, int outputCount,
+            int offset, int byteCount) {
+
+        // This is the loop structure for InputOutputByteTable.
+        final byte [] [] table = Galois.MULTIPLICATION_TABLE;
+
+        {
+            final int iInput = 0;
+            final ByteBuffer inputShard = inputs[iInput];
+            for (int iOutput = 0; iOutput < outputCount; iOutput++) {
+                final ByteBuffer outputShard = outputs[iOutput];
+                final byte [] multTableRow = table[matrixRows[iOutput][iInput] & 0xFF];
+                for (int iByte = offset; iByte < offset + byteCount; iByte++) {
+                    outputShard.put(iByte, multTableRow[inputShard.get(iByte) & 0xFF]);
+                }
+            }
+        }
+
+        for (int iInput = 1; iInput < inputCount; iInput++) {
+            final ByteBuffer inputShard = inputs[iInput];
+            for (int iOutput = 0; iOutput < outputCount; iOutput++) {
+                final ByteBuffer outputShard = outputs[iOutput];
+                final byte [] multTableRow = table[matrixRows[iOutput][iInput] & 0xFF];
+                for (int iByte = offset; iByte < offset + byteCount; iByte++) {
+                    outputShard.put(iByte,
+                            (byte) (outputShard.get(iByte) ^ multTableRow[inputShard.get(iByte) & 0xFF]));
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean checkSomeShards(
+            byte[][] matrixRows,
+            ByteBuffer[] inputs, int inputCount,
+            ByteBuffer[] toCheck, int checkCount,
+            int offset, int byteCount) {
+
+        // This is the loop structure for ByteOutputInput, which does not
+        // require temporary buffers for checking.
+        byte [] [] table = Galois.MULTIPLICATION_TABLE;
+        for (int iByte = offset; iByte < offset + byteCount; iByte++) {
+            for (int iOutput = 0; iOutput < checkCount; iOutput++) {
+                byte [] matrixRow = matrixRows[iOutput];
+                int value = 0;
+                for (int iInput = 0; iInput < inputCount; iInput++) {
+                    value ^= table[matrixRow[iInput] & 0xFF][inputs[iInput].get(iByte) & 0xFF];
+                }
+                if (toCheck[iOutput].get(iByte) != (byte) value) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
 }
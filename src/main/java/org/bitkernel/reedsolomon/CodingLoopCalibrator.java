@@ -0,0 +1,238 @@
+/**
+ * Picks the fastest coding loop for a shape of shards.
+ */
+
+package org.bitkernel.reedsolomon;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Picks the fastest coding loop for a shape of shards.
+ *
+ * Which loop is fastest depends on the processor and on the number and
+ * size of the shards, as ReedSolomonBenchmark shows.  The first time a
+ * shape (data count, parity count, shard size) is asked for, each of
+ * CodingLoop.ALL_CODING_LOOPS, and the SIMD loop when the JVM has one,
+ * is timed encoding shards of that shape, and the winner is remembered
+ * for the life of the JVM.  Shard sizes are rounded up to a power of
+ * two, so that shards of every size in between share one winner and
+ * the loops are timed at most once for each of them.  The timing runs
+ * on shards of the size asked for, but no larger than
+ * MAX_CALIBRATION_SHARD_SIZE, so big shards don't make it allocate
+ * their full size for every data and parity shard.
+ *
+ * If the system property "reedsolomon.calibration.file" names a file,
+ * winners are also loaded from and saved to it, so that later JVM
+ * starts on the same host skip the timing.
+ */
+public final class CodingLoopCalibrator {
+
+    public static final String CALIBRATION_FILE_PROPERTY = "reedsolomon.calibration.file";
+
+    /**
+     * How long to run each loop before timing it, and how long to time it.
+     */
+    private static final long WARM_UP_NANOS = 20L * 1000 * 1000;
+    private static final long MEASUREMENT_NANOS = 30L * 1000 * 1000;
+
+    /**
+     * The largest shard size the loops are timed on.  Past this the
+     * shards are well out of cache anyway, so the ranking holds.
+     */
+    private static final int MAX_CALIBRATION_SHARD_SIZE = 256 * 1024;
+
+    /**
+     * Winning loops, keyed by shapeKey().
+     */
+    private static final ConcurrentMap<String, CodingLoop> winners = new ConcurrentHashMap<String, CodingLoop>();
+
+    private static boolean fileLoaded = false;
+
+    private CodingLoopCalibrator() {}
+
+    /**
+     * Returns the fastest coding loop for the shape, timing all of
+     * them if this shape hasn't been seen before.
+     */
+    public static CodingLoop fastestLoop(int dataShardCount, int parityShardCount, int shardSize) {
+        loadFile();
+        int sizeBucket = sizeBucket(shardSize);
+        String key = shapeKey(dataShardCount, parityShardCount, sizeBucket);
+        CodingLoop winner = winners.get(key);
+        if (winner == null) {
+            int timedSize = Math.min(Math.max(1, shardSize), MAX_CALIBRATION_SHARD_SIZE);
+            winner = calibrate(dataShardCount, parityShardCount, timedSize);
+            CodingLoop previous = winners.putIfAbsent(key, winner);
+            if (previous != null) {
+                winner = previous;
+            } else {
+                saveFile();
+            }
+        }
+        return winner;
+    }
+
+    /**
+     * Times every coding loop on shards of the given shape, and returns
+     * the one that encodes the most bytes per second.
+     */
+    private static CodingLoop calibrate(int dataShardCount, int parityShardCount, int shardSize) {
+        Random random = new Random(0);
+        byte [] [] shards = new byte [dataShardCount + parityShardCount] [shardSize];
+        for (int i = 0; i < dataShardCount; i++) {
+            random.nextBytes(shards[i]);
+        }
+
+        CodingLoop best = null;
+        double bestRate = -1;
+        for (CodingLoop codingLoop : candidateLoops()) {
+            ReedSolomon codec = new ReedSolomon(dataShardCount, parityShardCount, codingLoop);
+            runFor(codec, shards, shardSize, WARM_UP_NANOS);
+            long startTime = System.nanoTime();
+            long passes = runFor(codec, shards, shardSize, MEASUREMENT_NANOS);
+            double rate = passes / (double) (System.nanoTime() - startTime);
+            if (bestRate < rate) {
+                bestRate = rate;
+                best = codingLoop;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Encodes parity over and over for the given time, and returns the
+     * number of passes done.
+     */
+    private static long runFor(ReedSolomon codec, byte [] [] shards, int shardSize, long nanos) {
+        long endTime = System.nanoTime() + nanos;
+        long passes = 0;
+        do {
+            codec.encodeParity(shards, 0, shardSize);
+            passes += 1;
+        } while (System.nanoTime() < endTime);
+        return passes;
+    }
+
+    /**
+     * Returns all of the coding loops that can run in this JVM.
+     */
+    private static List<CodingLoop> candidateLoops() {
+        List<CodingLoop> loops = new ArrayList<CodingLoop>(Arrays.asList(CodingLoop.ALL_CODING_LOOPS));
+        CodingLoop vectorCodingLoop = VectorCodingLoops.vectorCodingLoop();
+        if (vectorCodingLoop != null) {
+            loops.add(vectorCodingLoop);
+        }
+        return loops;
+    }
+
+    /**
+     * Returns the smallest power of two that is at least shardSize.
+     */
+    private static int sizeBucket(int shardSize) {
+        if (shardSize <= 1) {
+            return 1;
+        }
+        if ((1 << 30) < shardSize) {
+            return 1 << 30;
+        }
+        return Integer.highestOneBit(shardSize - 1) << 1;
+    }
+
+    private static String shapeKey(int dataShardCount, int parityShardCount, int sizeBucket) {
+        return dataShardCount + "+" + parityShardCount + "@" + sizeBucket;
+    }
+
+    /**
+     * Returns whether a key read from the calibration file is one that
+     * shapeKey() makes.  Files saved before sizes were bucketed have a
+     * key for every exact size; those are dropped.
+     */
+    private static boolean isShapeKey(String key) {
+        String [] shape = key.split("[+@]");
+        if (shape.length != 3) {
+            return false;
+        }
+        try {
+            int sizeBucket = Integer.parseInt(shape[2]);
+            return key.equals(shapeKey(Integer.parseInt(shape[0]), Integer.parseInt(shape[1]),
+                    sizeBucket(sizeBucket)));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads saved winners from the calibration file, once.  A missing or
+     * unreadable file just means the loops get timed again.
+     */
+    private static synchronized void loadFile() {
+        if (fileLoaded) {
+            return;
+        }
+        fileLoaded = true;
+        File file = calibrationFile();
+        if (file == null || !file.exists()) {
+            return;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+        } catch (IOException e) {
+            return;
+        }
+        for (String key : properties.stringPropertyNames()) {
+            if (!isShapeKey(key)) {
+                continue;
+            }
+            CodingLoop codingLoop = findLoop(properties.getProperty(key));
+            if (codingLoop != null) {
+                winners.putIfAbsent(key, codingLoop);
+            }
+        }
+    }
+
+    /**
+     * Writes all of the winners to the calibration file, if there is one.
+     */
+    private static synchronized void saveFile() {
+        File file = calibrationFile();
+        if (file == null) {
+            return;
+        }
+        Properties properties = new Properties();
+        for (String key : winners.keySet()) {
+            properties.setProperty(key, winners.get(key).getClass().getSimpleName());
+        }
+        try (OutputStream out = new FileOutputStream(file)) {
+            properties.store(out, "Fastest Reed-Solomon coding loop for each data+parity@shardSize, rounded up to a power of two");
+        } catch (IOException e) {
+            // Not being able to save just means timing again next time.
+        }
+    }
+
+    private static File calibrationFile() {
+        String fileName = System.getProperty(CALIBRATION_FILE_PROPERTY);
+        return fileName == null ? null : new File(fileName);
+    }
+
+    private static CodingLoop findLoop(String simpleName) {
+        for (CodingLoop codingLoop : candidateLoops()) {
+            if (codingLoop.getClass().getSimpleName().equals(simpleName)) {
+                return codingLoop;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * CRC-32C (Castagnoli) checksums.
+ */
+
+package org.bitkernel.reedsolomon;
+
+/**
+ * CRC-32C (Castagnoli) checksums.
+ *
+ * The jar is a multi-release jar.  This is the Java 8 version of the
+ * class, which computes the checksum in software, eight bytes at a time
+ * with eight lookup tables ("slicing by 8").  On Java 17 and later the
+ * version under META-INF/versions/17 is loaded instead, which uses
+ * java.util.zip.CRC32C, and so the CRC32 instructions of the processor.
+ */
+final class Crc32c {
+
+    /**
+     * The CRC-32C polynomial, bit reversed.
+     */
+    private static final int POLYNOMIAL = 0x82F63B78;
+
+    /**
+     * TABLES[k][b] is the CRC of byte b followed by k zero bytes.
+     */
+    private static final int [] [] TABLES = generateTables();
+
+    private Crc32c() {}
+
+    /**
+     * Returns the CRC-32C of a range of bytes.
+     */
+    static int checksum(byte [] buffer, int offset, int byteCount) {
+        final int [] t0 = TABLES[0];
+        final int [] t1 = TABLES[1];
+        final int [] t2 = TABLES[2];
+        final int [] t3 = TABLES[3];
+        final int [] t4 = TABLES[4];
+        final int [] t5 = TABLES[5];
+        final int [] t6 = TABLES[6];
+        final int [] t7 = TABLES[7];
+        int crc = 0xFFFFFFFF;
+        int i = offset;
+        final int end = offset + byteCount;
+        for (; i + 8 <= end; i += 8) {
+            final int low = crc
+                    ^ (buffer[i] & 0xFF)
+                    ^ (buffer[i + 1] & 0xFF) << 8
+                    ^ (buffer[i + 2] & 0xFF) << 16
+                    ^ (buffer[i + 3] & 0xFF) << 24;
+            crc = t7[low & 0xFF]
+                    ^ t6[(low >>> 8) & 0xFF]
+                    ^ t5[(low >>> 16) & 0xFF]
+                    ^ t4[low >>> 24]
+                    ^ t3[buffer[i + 4] & 0xFF]
+                    ^ t2[buffer[i + 5] & 0xFF]
+                    ^ t1[buffer[i + 6] & 0xFF]
+                    ^ t0[buffer[i + 7] & 0xFF];
+        }
+        for (; i < end; i++) {
+            crc = (crc >>> 8) ^ t0[(crc ^ buffer[i]) & 0xFF];
+        }
+        return ~crc;
+    }
+
+    private static int [] [] generateTables() {
+        int [] [] result = new int [8] [256];
+        for (int b = 0; b < 256; b++) {
+            int crc = b;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+            }
+            result[0][b] = crc;
+        }
+        for (int k = 1; k < 8; k++) {
+            for (int b = 0; b < 256; b++) {
+                int previous = result[k - 1][b];
+                result[k][b] = (previous >>> 8) ^ result[0][previous & 0xFF];
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Cache of decode matrices, keyed by which shards are present.
+ */
+
+package org.bitkernel.reedsolomon;
+
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of decode matrices, keyed by which shards are present.
+ *
+ * Building a decode matrix takes a Gaussian elimination, but a code
+ * with n shards only has a handful of erasure patterns, and when a
+ * storage node is down the same pattern comes up on every read.  The
+ * cache holds the rows of the inverted matrix for the most recently
+ * used patterns, and is safe to use from several threads.
+ *
+ * @param <R> How the codec holds the rows, which depends on its field.
+ */
+class DecodeMatrixCache<R> {
+
+    private final Map<BitSet, R> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param capacity The most erasure patterns to keep.  The least
+     *                 recently used one is dropped to make room.
+     */
+    DecodeMatrixCache(int capacity) {
+        entries = new LruMap<R>(capacity);
+    }
+
+    /**
+     * Returns the cached rows for the pattern, or null if there are none.
+     */
+    R get(BitSet pattern) {
+        R rows;
+        synchronized (entries) {
+            rows = entries.get(pattern);
+        }
+        if (rows == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return rows;
+    }
+
+    /**
+     * Saves the rows for the pattern.  The rows must not be changed
+     * after this.
+     */
+    void put(BitSet pattern, R rows) {
+        synchronized (entries) {
+            entries.put(pattern, rows);
+        }
+    }
+
+    long getHitCount() {
+        return hits.get();
+    }
+
+    long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * A map in access order that drops the least recently used entry
+     * when it holds more than capacity.
+     */
+    private static final class LruMap<R> extends LinkedHashMap<BitSet, R> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        LruMap(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<BitSet, R> eldest) {
+            return capacity < size();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * 16-bit Galois Field
+ */
+
+package org.bitkernel.reedsolomon;
+
+/**
+ * 16-bit Galois Field
+ *
+ * This class implements multiplication, division, addition,
+ * subtraction, and exponentiation, like Galois does for the 8-bit
+ * field.  With 65,536 elements a code can have up to 65,536 shards,
+ * instead of 256.
+ *
+ * Elements are held in ints, from 0 to 65535.  In a shard, each
+ * element is two bytes, high byte first.
+ *
+ * A full multiplication table would take 8 GB, so the tables here are
+ * just the logarithms and exponents, 384 KB together, built when the
+ * class is loaded.  The coding loops build smaller tables for the
+ * coefficients they use; see InputOutputWordTableCodingLoop16.
+ */
+public final class Galois16 {
+
+    /**
+     * The number of elements in the field.
+     */
+    public static final int FIELD_SIZE = 65536;
+
+    /**
+     * The polynomial used to generate the logarithm table,
+     * x^16 + x^12 + x^3 + x + 1, without the x^16 term.
+     *
+     * It is primitive, so 2 generates every non-zero element; the
+     * logarithm table generator checks that.
+     */
+    public static final int GENERATING_POLYNOMIAL = 0x100B;
+
+    /**
+     * Mapping from members of the field to their integer logarithms.
+     * The entry for 0 is meaningless because there is no log of 0.
+     *
+     * This is a char array, so that the values read back as 0 to 65534
+     * without masking.
+     */
+    static final char [] LOG_TABLE = generateLogTable(GENERATING_POLYNOMIAL);
+
+    /**
+     * Inverse of the logarithm table.  Like Galois.EXP_TABLE, the data
+     * is repeated a second time, so multiply() does not have to bound
+     * the sum of two logarithms.
+     */
+    static final char [] EXP_TABLE = generateExpTable(LOG_TABLE);
+
+    private Galois16() {}
+
+    /**
+     * Adds two elements of the field.  If you're in an inner loop,
+     * you should inline this function: it's just XOR.
+     */
+    public static int add(int a, int b) {
+        return a ^ b;
+    }
+
+    /**
+     * Inverse of addition.  If you're in an inner loop,
+     * you should inline this function: it's just XOR.
+     */
+    public static int subtract(int a, int b) {
+        return a ^ b;
+    }
+
+    /**
+     * Multiplies two elements of the field.
+     */
+    public static int multiply(int a, int b) {
+        if (a == 0 || b == 0) {
+            return 0;
+        }
+        else {
+            return EXP_TABLE[LOG_TABLE[a] + LOG_TABLE[b]];
+        }
+    }
+
+    /**
+     * Inverse of multiplication.
+     */
+    public static int divide(int a, int b) {
+        if (a == 0) {
+            return 0;
+        }
+        if (b == 0) {
+            throw new IllegalArgumentException("Argument 'divisor' is 0");
+        }
+        int logResult = LOG_TABLE[a] - LOG_TABLE[b];
+        if (logResult < 0) {
+            logResult += FIELD_SIZE - 1;
+        }
+        return EXP_TABLE[logResult];
+    }
+
+    /**
+     * Computes a**n.
+     *
+     * The result will be the same as multiplying a times itself n times.
+     *
+     * @param a A member of the field.
+     * @param n A plain-old integer.
+     * @return The result of multiplying a by itself n times.
+     */
+    public static int exp(int a, int n) {
+        if (n == 0) {
+            return 1;
+        }
+        else if (a == 0) {
+            return 0;
+        }
+        else {
+            long logResult = (long) LOG_TABLE[a] * n;
+            return EXP_TABLE[(int) (logResult % (FIELD_SIZE - 1))];
+        }
+    }
+
+    /**
+     * Generates a logarithm table given a starting polynomial.
+     */
+    static char [] generateLogTable(int polynomial) {
+        char [] result = new char [FIELD_SIZE];
+        boolean [] isSet = new boolean [FIELD_SIZE];
+        int b = 1;
+        for (int log = 0; log < FIELD_SIZE - 1; log++) {
+            if (isSet[b]) {
+                throw new RuntimeException("BUG: duplicate logarithm (bad polynomial?)");
+            }
+            isSet[b] = true;
+            result[b] = (char) log;
+            b = (b << 1);
+            if (FIELD_SIZE <= b) {
+                b = ((b - FIELD_SIZE) ^ polynomial);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Generates the inverse log table.
+     */
+    static char [] generateExpTable(char [] logTable) {
+        final char [] result = new char [FIELD_SIZE * 2 - 2];
+        for (int i = 1; i < FIELD_SIZE; i++) {
+            int log = logTable[i];
+            result[log] = (char) i;
+            result[log + FIELD_SIZE - 1] = (char) i;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * A coding loop that processes eight bytes at a time.
+ */
+
+package org.bitkernel.reedsolomon;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A coding loop that processes eight bytes at a time.
+ *
+ * This uses the same nesting as InputOutputByteTableCodingLoop, but the
+ * inner loop steps over the shards one long word at a time, and does
+ * the multiplication for all eight bytes in the word with plain
+ * 64-bit operations (SIMD within a register).
+ *
+ * Multiplying by a constant is linear over the bits of the input, so
+ * the product of c and x is the XOR of c * (1 << b) for each bit b that
+ * is set in x.  For each coefficient we keep those eight products, each
+ * repeated in all eight bytes of a long.  Then for each bit b, a mask
+ * with 0xFF in every byte of the input word that has bit b set selects
+ * which bytes of the product get c * (1 << b).
+ *
+ * Splitting each coefficient into low/high nibble tables was tried too,
+ * but without a byte shuffle instruction each byte still needs its own
+ * table lookups, which was slower than the byte-at-a-time table loops.
+ *
+ * Bytes at the end of the range that don't fill a whole word are done
+ * one at a time with the multiplication table.
+ */
+public class InputOutputLongSwarCodingLoop extends CodingLoopBase {
+
+    private static final int BYTES_IN_LONG = 8;
+
+    /**
+     * The lowest bit of each byte in a long.
+     */
+    private static final long LOW_BITS = 0x0101010101010101L;
+
+    @Override
+    public void codeSomeShards(
+            byte[][] matrixRows,
+            byte[][] inputs, int inputCount,
+            byte[][] outputs, int outputCount,
+            int offset, int byteCount) {
+
+        final ByteBuffer [] inputBuffers = new ByteBuffer [inputCount];
+        for (int iInput = 0; iInput < inputCount; iInput++) {
+            inputBuffers[iInput] = ByteBuffer.wrap(inputs[iInput]);
+        }
+        final ByteBuffer [] outputBuffers = new ByteBuffer [outputCount];
+        for (int iOutput = 0; iOutput < outputCount; iOutput++) {
+            outputBuffers[iOutput] = ByteBuffer.wrap(outputs[iOutput]);
+        }
+        codeSomeShards(
+                matrixRows,
+                inputBuffers, inputCount,
+                outputBuffers, outputCount,
+                offset, byteCount);
+    }
+
+    @Override
+    public void codeSomeShards(
+            byte[][] matrixRows,
+            ByteBuffer[] inputs, int inputCount,
+            ByteBuffer[] outputs, int outputCount,
+            int offset, int byteCount) {
+
+        // The bytes of a word must be in the same order in the inputs
+        // and the outputs, whatever order the caller's buffers are in.
+        final int wordEnd = offset + (byteCount - byteCount % BYTES_IN_LONG);
+        final ByteBuffer [] outputBuffers = new ByteBuffer [outputCount];
+        for (int iOutput = 0; iOutput < outputCount; iOutput++) {
+            outputBuffers[iOutput] = littleEndian(outputs[iOutput]);
+        }
+
+        {
+            final int iInput = 0;
+            final ByteBuffer inputBuffer = littleEndian(inputs[iInput]);
+            for (int iOutput = 0; iOutput < outputCount; iOutput++) {
+                final ByteBuffer outputBuffer = outputBuffers[iOutput];
+                final long [] products = bitProducts(matrixRows[iOutput][iInput]);
+                for (int iByte = offset; iByte < wordEnd; iByte += BYTES_IN_LONG) {
+                    outputBuffer.putLong(iByte, multiplyWord(products, inputBuffer.getLong(iByte)));
+                }
+            }
+        }
+
+        for (int iInput = 1; iInput < inputCount; iInput++) {
+            final ByteBuffer inputBuffer = littleEndian(inputs[iInput]);
+            for (int iOutput = 0; iOutput < outputCount; iOutput++) {
+                final ByteBuffer outputBuffer = outputBuffers[iOutput];
+                final long [] products = bitProducts(matrixRows[iOutput][iInput]);
+                for (int iByte = offset; iByte < wordEnd; iByte += BYTES_IN_LONG) {
+                    outputBuffer.putLong(iByte,
+                            outputBuffer.getLong(iByte) ^ multiplyWord(products, inputBuffer.getLong(iByte)));
+                }
+            }
+        }
+
+        final byte [] [] table = Galois.MULTIPLICATION_TABLE;
+        for (int iByte = wordEnd; iByte < offset + byteCount; iByte++) {
+            for (int iOutput = 0; iOutput < outputCount; iOutput++) {
+                final byte [] matrixRow = matrixRows[iOutput];
+                int value = 0;
+                for (int iInput = 0; iInput < inputCount; iInput++) {
+                    value ^= table[matrixRow[iInput] & 0xFF][inputs[iInput].get(iByte) & 0xFF];
+                }
+                outputs[iOutput].put(iByte, (byte) value);
+            }
+        }
+    }
+
+    /**
+     * Returns the products of the coefficient and each of the eight
+     * single-bit values, each one repeated in all eight bytes of a long.
+     */
+    private static long [] bitProducts(byte coefficient) {
+        final long [] result = new long [8];
+        for (int bit = 0; bit < 8; bit++) {
+            final byte product = Galois.MULTIPLICATION_TABLE[coefficient & 0xFF][1 << bit];
+            result[bit] = (product & 0xFFL) * LOW_BITS;
+        }
+        return result;
+    }
+
+    /**
+     * Multiplies each of the eight bytes in a word by the coefficient
+     * whose bit products are given.
+     */
+    private static long multiplyWord(long [] products, long word) {
+        return byteMask(word) & products[0]
+                ^ byteMask(word >>> 1) & products[1]
+                ^ byteMask(word >>> 2) & products[2]
+                ^ byteMask(word >>> 3) & products[3]
+                ^ byteMask(word >>> 4) & products[4]
+                ^ byteMask(word >>> 5) & products[5]
+                ^ byteMask(word >>> 6) & products[6]
+                ^ byteMask(word >>> 7) & products[7];
+    }
+
+    /**
+     * Turns the lowest bit of each byte into 0x00 or 0xFF for that byte.
+     */
+    private static long byteMask(long word) {
+        final long bits = word & LOW_BITS;
+        return (bits << 8) - bits;
+    }
+
+    /**
+     * Returns a little-endian view of the buffer, sharing its contents.
+     */
+    private static ByteBuffer littleEndian(ByteBuffer shard) {
+        return shard.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
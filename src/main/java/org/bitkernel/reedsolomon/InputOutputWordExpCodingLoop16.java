@@ -0,0 +1,44 @@
+/**
+ * One specific ordering/nesting of the coding loops.
+ */
+
+package org.bitkernel.reedsolomon;
+
+/**
+ * One specific ordering/nesting of the coding loops, for the 16-bit
+ * field, multiplying with the log/exp tables of Galois16.
+ */
+public class InputOutputWordExpCodingLoop16 extends CodingLoop16Base {
+
+    @Override
+    public void codeSomeShards(
+            int[][] matrixRows,
+            byte[][] inputs, int inputCount,
+            byte[][] outputs, int outputCount,
+            int offset, int byteCount) {
+
+        {
+            final int iInput = 0;
+            final byte [] inputShard = inputs[iInput];
+            for (int iOutput = 0; iOutput < outputCount; iOutput++) {
+                final byte [] outputShard = outputs[iOutput];
+                final int [] matrixRow = matrixRows[iOutput];
+                for (int iByte = offset; iByte < offset + byteCount; iByte += 2) {
+                    putWord(outputShard, iByte, Galois16.multiply(matrixRow[iInput], getWord(inputShard, iByte)));
+                }
+            }
+        }
+
+        for (int iInput = 1; iInput < inputCount; iInput++) {
+            final byte [] inputShard = inputs[iInput];
+            for (int iOutput = 0; iOutput < outputCount; iOutput++) {
+                final byte [] outputShard = outputs[iOutput];
+                final int [] matrixRow = matrixRows[iOutput];
+                for (int iByte = offset; iByte < offset + byteCount; iByte += 2) {
+                    putWord(outputShard, iByte, getWord(outputShard, iByte) ^
+                            Galois16.multiply(matrixRow[iInput], getWord(inputShard, iByte)));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * One specific ordering/nesting of the coding loops.
+ */
+
+package org.bitkernel.reedsolomon;
+
+/**
+ * One specific ordering/nesting of the coding loops, for the 16-bit
+ * field, multiplying with tables.
+ *
+ * A full multiplication table for the 16-bit field is too big, so for
+ * each coefficient c this builds two 256-entry tables: c times each
+ * value of the high byte, and c times each value of the low byte.
+ * Multiplication is linear, so c times a word is the XOR of the two
+ * lookups.  The tables are built from the eight products of c with
+ * each bit of the byte, with one XOR per entry, so building them costs
+ * about as much as coding 512 bytes.
+ */
+public class InputOutputWordTableCodingLoop16 extends CodingLoop16Base {
+
+    @Override
+    public void codeSomeShards(
+            int[][] matrixRows,
+            byte[][] inputs, int inputCount,
+            byte[][] outputs, int outputCount,
+            int offset, int byteCount) {
+
+        final char [] highTable = new char [256];
+        final char [] lowTable = new char [256];
+
+        {
+            final int iInput = 0;
+            final byte [] inputShard = inputs[iInput];
+            for (int iOutput = 0; iOutput < outputCount; iOutput++) {
+                final byte [] outputShard = outputs[iOutput];
+                buildTables(matrixRows[iOutput][iInput], highTable, lowTable);
+                for (int iByte = offset; iByte < offset + byteCount; iByte += 2) {
+                    int value = highTable[inputShard[iByte] & 0xFF] ^ lowTable[inputShard[iByte + 1] & 0xFF];
+                    outputShard[iByte] = (byte) (value >> 8);
+                    outputShard[iByte + 1] = (byte) value;
+                }
+            }
+        }
+
+        for (int iInput = 1; iInput < inputCount; iInput++) {
+            final byte [] inputShard = inputs[iInput];
+            for (int iOutput = 0; iOutput < outputCount; iOutput++) {
+                final byte [] outputShard = outputs[iOutput];
+                buildTables(matrixRows[iOutput][iInput], highTable, lowTable);
+                for (int iByte = offset; iByte < offset + byteCount; iByte += 2) {
+                    int value = highTable[inputShard[iByte] & 0xFF] ^ lowTable[inputShard[iByte + 1] & 0xFF];
+                    outputShard[iByte] ^= (byte) (value >> 8);
+                    outputShard[iByte + 1] ^= (byte) value;
+                }
+            }
+        }
+    }
+
+    /**
+     * Fills in the tables of the coefficient times each value of the
+     * high byte and of the low byte of a word.
+     */
+    private static void buildTables(int coefficient, char [] highTable, char [] lowTable) {
+        highTable[0] = 0;
+        lowTable[0] = 0;
+        for (int bit = 0; bit < 8; bit++) {
+            final int low = 1 << bit;
+            final char highProduct = (char) Galois16.multiply(coefficient, low << 8);
+            final char lowProduct = (char) Galois16.multiply(coefficient, low);
+            for (int i = 0; i < low; i++) {
+                highTable[low + i] = (char) (highTable[i] ^ highProduct);
+                lowTable[low + i] = (char) (lowTable[i] ^ lowProduct);
+            }
+        }
+    }
+}
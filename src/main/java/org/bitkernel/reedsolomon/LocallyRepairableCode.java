@@ -0,0 +1,500 @@
+/**
+ * Locally repairable code built from local XOR groups and global
+ * Reed-Solomon parity.
+ */
+
+package org.bitkernel.reedsolomon;
+
+import java.util.Arrays;
+
+/**
+ * Locally repairable code built from local XOR groups and global
+ * Reed-Solomon parity.
+ *
+ * The data shards are split into localGroupCount groups of consecutive
+ * shards, as evenly as possible.  Each group gets one local parity
+ * shard, the XOR of its data shards.  On top of that there are
+ * globalParityCount global parity shards, the same parity shards that
+ * ReedSolomon makes for the data shards.  The shards are laid out as
+ * all of the data shards, then the local parity shards in group order,
+ * then the global parity shards.
+ *
+ * With plain Reed-Solomon, re-creating any one lost shard means reading
+ * dataShardCount other shards.  Here, a lost data shard or local parity
+ * shard is re-created from the rest of its group, which is only about
+ * dataShardCount / localGroupCount shards.  Only when a group has lost
+ * more than one shard are the global parity shards used, and then any
+ * set of present shards whose rows of the coding matrix are independent
+ * will do.
+ */
+public class LocallyRepairableCode {
+
+    private final int dataShardCount;
+    private final int localGroupCount;
+    private final int globalParityCount;
+    private final int totalShardCount;
+
+    /**
+     * The coding matrix: an identity for the data shards, then a row of
+     * ones over each local group, then the Reed-Solomon parity rows.
+     */
+    private final Matrix matrix;
+
+    /**
+     * The shards in each local group, with the local parity shard last.
+     */
+    private final int [] [] groupShards;
+
+    /**
+     * The group of each data shard and local parity shard.
+     */
+    private final int [] groupOf;
+
+    /**
+     * Rows from the matrix for encoding the global parity.
+     */
+    private final byte [] [] globalRows;
+
+    private final CodingLoop codingLoop = new InputOutputByteTableCodingLoop();
+
+    /**
+     * Initializes a new encoder/decoder.
+     *
+     * @param dataShardCount The number of data shards.
+     * @param localGroupCount The number of local groups, from 1 to
+     *                        dataShardCount.
+     * @param globalParityCount The number of global parity shards,
+     *                          which may be 0.
+     */
+    public LocallyRepairableCode(int dataShardCount, int localGroupCount, int globalParityCount) {
+        if (dataShardCount <= 0) {
+            throw new IllegalArgumentException("dataShardCount must be positive");
+        }
+        if (localGroupCount <= 0 || dataShardCount < localGroupCount) {
+            throw new IllegalArgumentException("localGroupCount must be from 1 to dataShardCount");
+        }
+        if (globalParityCount < 0) {
+            throw new IllegalArgumentException("globalParityCount is negative");
+        }
+        // The global rows come from a ReedSolomon matrix, which is
+        // limited to 256 shards.
+        if (256 < dataShardCount + globalParityCount) {
+            throw new IllegalArgumentException("too many shards - max is 256 data plus global parity");
+        }
+
+        this.dataShardCount = dataShardCount;
+        this.localGroupCount = localGroupCount;
+        this.globalParityCount = globalParityCount;
+        this.totalShardCount = dataShardCount + localGroupCount + globalParityCount;
+
+        groupShards = new int [localGroupCount] [];
+        groupOf = new int [dataShardCount + localGroupCount];
+        for (int g = 0; g < localGroupCount; g++) {
+            int first = g * dataShardCount / localGroupCount;
+            int end = (g + 1) * dataShardCount / localGroupCount;
+            groupShards[g] = new int [end - first + 1];
+            for (int i = first; i < end; i++) {
+                groupShards[g][i - first] = i;
+                groupOf[i] = g;
+            }
+            groupShards[g][end - first] = dataShardCount + g;
+            groupOf[dataShardCount + g] = g;
+        }
+
+        matrix = new Matrix(totalShardCount, dataShardCount);
+        for (int i = 0; i < dataShardCount; i++) {
+            matrix.set(i, i, (byte) 1);
+            matrix.set(dataShardCount + groupOf[i], i, (byte) 1);
+        }
+        Matrix rsMatrix = ReedSolomon.buildMatrix(dataShardCount, dataShardCount + globalParityCount);
+        globalRows = new byte [globalParityCount] [];
+        for (int p = 0; p < globalParityCount; p++) {
+            globalRows[p] = rsMatrix.getRow(dataShardCount + p);
+            for (int c = 0; c < dataShardCount; c++) {
+                matrix.set(dataShardCount + localGroupCount + p, c, globalRows[p][c]);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of data shards.
+     */
+    public int getDataShardCount() {
+        return dataShardCount;
+    }
+
+    /**
+     * Returns the number of local groups, which is also the number of
+     * local parity shards.
+     */
+    public int getLocalGroupCount() {
+        return localGroupCount;
+    }
+
+    /**
+     * Returns the number of global parity shards.
+     */
+    public int getGlobalParityCount() {
+        return globalParityCount;
+    }
+
+    /**
+     * Returns the total number of shards.
+     */
+    public int getTotalShardCount() {
+        return totalShardCount;
+    }
+
+    /**
+     * Encodes the local and global parity for a set of data shards.
+     *
+     * @param shards An array containing data shards, then local parity
+     *               shards, then global parity shards.  They must all
+     *               be the same size.
+     * @param offset The index of the first byte in each shard to encode.
+     * @param byteCount The number of bytes to encode in each shard.
+     */
+    public void encodeParity(byte [] [] shards, int offset, int byteCount) {
+        checkBuffersAndSizes(shards, offset, byteCount);
+        for (int g = 0; g < localGroupCount; g++) {
+            xorGroup(shards, g, dataShardCount + g, offset, byteCount);
+        }
+        encodeGlobalParity(shards, null, offset, byteCount);
+    }
+
+    /**
+     * Returns true if the local and global parity shards contain the
+     * right data.
+     */
+    public boolean isParityCorrect(byte [] [] shards, int firstByte, int byteCount) {
+        checkBuffersAndSizes(shards, firstByte, byteCount);
+        byte [] [] parityRows = new byte [localGroupCount + globalParityCount] [];
+        for (int i = 0; i < parityRows.length; i++) {
+            parityRows[i] = matrix.getRow(dataShardCount + i);
+        }
+        byte [] [] toCheck = new byte [parityRows.length] [];
+        System.arraycopy(shards, dataShardCount, toCheck, 0, toCheck.length);
+        return codingLoop.checkSomeShards(
+                parityRows,
+                shards, dataShardCount,
+                toCheck, toCheck.length,
+                firstByte, byteCount,
+                null);
+    }
+
+    /**
+     * Given a list of shards, some of which contain data, fills in the
+     * ones that don't have data.
+     *
+     * Groups that have lost only one shard are repaired with XOR from
+     * the rest of the group.  If any data shards are still missing after
+     * that, they are decoded from dataShardCount present shards with
+     * independent rows, and then any missing parity is re-encoded.
+     *
+     * @throws IllegalArgumentException if the shards present are not
+     *         enough to re-create the data.
+     */
+    public void decodeMissing(byte [] [] shards,
+                              boolean [] shardPresent,
+                              final int offset,
+                              final int byteCount) {
+        checkBuffersAndSizes(shards, offset, byteCount);
+        boolean [] present = Arrays.copyOf(shardPresent, totalShardCount);
+
+        // Repair what the local groups can.
+        for (int g = 0; g < localGroupCount; g++) {
+            int missing = onlyMissingShard(g, present);
+            if (0 <= missing) {
+                xorGroup(shards, g, missing, offset, byteCount);
+                present[missing] = true;
+            }
+        }
+
+        // Decode any data shards that are still missing.
+        int [] missingData = new int [dataShardCount];
+        int missingDataCount = 0;
+        for (int i = 0; i < dataShardCount; i++) {
+            if (!present[i]) {
+                missingData[missingDataCount] = i;
+                missingDataCount += 1;
+            }
+        }
+        if (0 < missingDataCount) {
+            int [] inputShards = independentShards(present, -1);
+            Matrix subMatrix = new Matrix(dataShardCount, dataShardCount);
+            byte [] [] inputs = new byte [dataShardCount] [];
+            for (int r = 0; r < dataShardCount; r++) {
+                for (int c = 0; c < dataShardCount; c++) {
+                    subMatrix.set(r, c, matrix.get(inputShards[r], c));
+                }
+                inputs[r] = shards[inputShards[r]];
+            }
+            subMatrix.invertInPlace();
+            Matrix decodeMatrix = subMatrix;
+            byte [] [] matrixRows = new byte [missingDataCount] [];
+            byte [] [] outputs = new byte [missingDataCount] [];
+            for (int i = 0; i < missingDataCount; i++) {
+                matrixRows[i] = decodeMatrix.getRow(missingData[i]);
+                outputs[i] = shards[missingData[i]];
+                present[missingData[i]] = true;
+            }
+            codingLoop.codeSomeShards(
+                    matrixRows,
+                    inputs, dataShardCount,
+                    outputs, missingDataCount,
+                    offset, byteCount);
+        }
+
+        // Now that all of the data is there, re-encode missing parity.
+        for (int g = 0; g < localGroupCount; g++) {
+            if (!present[dataShardCount + g]) {
+                xorGroup(shards, g, dataShardCount + g, offset, byteCount);
+            }
+        }
+        encodeGlobalParity(shards, present, offset, byteCount);
+    }
+
+    /**
+     * Returns the shards to read to re-create one lost shard.
+     *
+     * When the rest of the lost shard's local group is present, that's
+     * all that is needed.  Otherwise it is dataShardCount present shards
+     * that can decode all of the data.
+     *
+     * @param lostShard The shard to re-create.
+     * @param shardPresent Which shards can be read.
+     * @throws IllegalArgumentException if the shards present are not
+     *         enough to re-create the lost shard.
+     */
+    public int [] repairSources(int lostShard, boolean [] shardPresent) {
+        if (lostShard < 0 || totalShardCount <= lostShard) {
+            throw new IllegalArgumentException("shard index out of range: " + lostShard);
+        }
+        if (lostShard < dataShardCount + localGroupCount) {
+            int [] sources = repairSourcesInGroup(lostShard, shardPresent);
+            if (sources != null) {
+                return sources;
+            }
+        }
+        return independentShards(shardPresent, lostShard);
+    }
+
+    /**
+     * Re-creates one lost shard, reading only the shards given by
+     * repairSources().  The other shards are not touched.
+     *
+     * @param shards All of the shards, the same size.  Only the sources
+     *               and the lost shard are used.
+     * @param shardPresent Which shards can be read.
+     * @param lostShard The shard to re-create.
+     */
+    public void repairShard(byte [] [] shards,
+                            boolean [] shardPresent,
+                            int lostShard,
+                            final int offset,
+                            final int byteCount) {
+        checkBuffersAndSizes(shards, offset, byteCount);
+        if (lostShard < 0 || totalShardCount <= lostShard) {
+            throw new IllegalArgumentException("shard index out of range: " + lostShard);
+        }
+        if (lostShard < dataShardCount + localGroupCount &&
+                repairSourcesInGroup(lostShard, shardPresent) != null) {
+            xorGroup(shards, groupOf[lostShard], lostShard, offset, byteCount);
+            return;
+        }
+        int [] sources = independentShards(shardPresent, lostShard);
+
+        // The lost shard's row of the coding matrix, in terms of the
+        // sources: its row times the inverse of the sources' rows.
+        Matrix subMatrix = new Matrix(dataShardCount, dataShardCount);
+        byte [] [] inputs = new byte [dataShardCount] [];
+        for (int r = 0; r < dataShardCount; r++) {
+            for (int c = 0; c < dataShardCount; c++) {
+                subMatrix.set(r, c, matrix.get(sources[r], c));
+            }
+            inputs[r] = shards[sources[r]];
+        }
+        Matrix lostRow = new Matrix(1, dataShardCount);
+        for (int c = 0; c < dataShardCount; c++) {
+            lostRow.set(0, c, matrix.get(lostShard, c));
+        }
+        subMatrix.invertInPlace();
+        byte [] [] matrixRows = new byte [] [] { lostRow.times(subMatrix).getRow(0) };
+        codingLoop.codeSomeShards(
+                matrixRows,
+                inputs, dataShardCount,
+                new byte [] [] { shards[lostShard] }, 1,
+                offset, byteCount);
+    }
+
+    /**
+     * Returns the shards in the local group of a data shard or local
+     * parity shard, with the local parity shard last.
+     */
+    public int [] getLocalGroup(int shardIndex) {
+        if (shardIndex < 0 || dataShardCount + localGroupCount <= shardIndex) {
+            throw new IllegalArgumentException("not a data or local parity shard: " + shardIndex);
+        }
+        return groupShards[groupOf[shardIndex]].clone();
+    }
+
+    /**
+     * Returns the rest of the lost shard's local group, or null if some
+     * of it is missing too.
+     */
+    private int [] repairSourcesInGroup(int lostShard, boolean [] shardPresent) {
+        int [] group = groupShards[groupOf[lostShard]];
+        int [] sources = new int [group.length - 1];
+        int sourceCount = 0;
+        for (int shard : group) {
+            if (shard != lostShard) {
+                if (!shardPresent[shard]) {
+                    return null;
+                }
+                sources[sourceCount] = shard;
+                sourceCount += 1;
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * Returns the only shard of the group that is missing, or -1 if
+     * none or more than one are missing.
+     */
+    private int onlyMissingShard(int group, boolean [] present) {
+        int missing = -1;
+        for (int shard : groupShards[group]) {
+            if (!present[shard]) {
+                if (missing != -1) {
+                    return -1;
+                }
+                missing = shard;
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Sets one shard of a local group to the XOR of the others.
+     */
+    private void xorGroup(byte [] [] shards, int group, int target, int offset, int byteCount) {
+        final byte [] output = shards[target];
+        boolean first = true;
+        for (int shard : groupShards[group]) {
+            if (shard == target) {
+                continue;
+            }
+            final byte [] input = shards[shard];
+            if (first) {
+                System.arraycopy(input, offset, output, offset, byteCount);
+                first = false;
+            } else {
+                for (int iByte = offset; iByte < offset + byteCount; iByte++) {
+                    output[iByte] ^= input[iByte];
+                }
+            }
+        }
+    }
+
+    /**
+     * Encodes the global parity shards from the data shards.  When
+     * present is not null, only the ones that are missing.
+     */
+    private void encodeGlobalParity(byte [] [] shards, boolean [] present, int offset, int byteCount) {
+        byte [] [] matrixRows = new byte [globalParityCount] [];
+        byte [] [] outputs = new byte [globalParityCount] [];
+        int outputCount = 0;
+        for (int p = 0; p < globalParityCount; p++) {
+            int shard = dataShardCount + localGroupCount + p;
+            if (present == null || !present[shard]) {
+                matrixRows[outputCount] = globalRows[p];
+                outputs[outputCount] = shards[shard];
+                outputCount += 1;
+            }
+        }
+        if (outputCount != 0) {
+            codingLoop.codeSomeShards(
+                    matrixRows,
+                    shards, dataShardCount,
+                    outputs, outputCount,
+                    offset, byteCount);
+        }
+    }
+
+    /**
+     * Picks dataShardCount present shards whose rows of the coding
+     * matrix are independent, preferring data shards, then local
+     * parity, then global parity.
+     *
+     * Rows are reduced against the ones already picked, Gaussian
+     * elimination style, and a row that reduces to zero is skipped.
+     *
+     * @param exclude A shard not to pick, or -1.
+     */
+    private int [] independentShards(boolean [] present, int exclude) {
+        int [] picked = new int [dataShardCount];
+        byte [] [] basis = new byte [dataShardCount] [];
+        int [] pivots = new int [dataShardCount];
+        int pickedCount = 0;
+        for (int shard = 0; shard < totalShardCount && pickedCount < dataShardCount; shard++) {
+            if (!present[shard] || shard == exclude) {
+                continue;
+            }
+            byte [] row = matrix.getRow(shard);
+            for (int b = 0; b < pickedCount; b++) {
+                byte scale = row[pivots[b]];
+                if (scale != 0) {
+                    for (int c = 0; c < dataShardCount; c++) {
+                        row[c] ^= Galois.multiply(scale, basis[b][c]);
+                    }
+                }
+            }
+            int pivot = 0;
+            while (pivot < dataShardCount && row[pivot] == 0) {
+                pivot += 1;
+            }
+            if (pivot == dataShardCount) {
+                continue;
+            }
+            byte scale = Galois.divide((byte) 1, row[pivot]);
+            for (int c = 0; c < dataShardCount; c++) {
+                row[c] = Galois.multiply(row[c], scale);
+            }
+            basis[pickedCount] = row;
+            pivots[pickedCount] = pivot;
+            picked[pickedCount] = shard;
+            pickedCount += 1;
+        }
+        if (pickedCount < dataShardCount) {
+            throw new IllegalArgumentException("Not enough shards present");
+        }
+        return picked;
+    }
+
+    /**
+     * Checks the consistency of arguments passed to public methods.
+     */
+    private void checkBuffersAndSizes(byte [] [] shards, int offset, int byteCount) {
+        if (shards.length != totalShardCount) {
+            throw new IllegalArgumentException("wrong number of shards: " + shards.length);
+        }
+
+        int shardLength = shards[0].length;
+        for (int i = 1; i < shards.length; i++) {
+            if (shards[i].length != shardLength) {
+                throw new IllegalArgumentException("Shards are different sizes");
+            }
+        }
+
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset is negative: " + offset);
+        }
+        if (byteCount < 0) {
+            throw new IllegalArgumentException("byteCount is negative: " + byteCount);
+        }
+        if (shardLength < offset + byteCount) {
+            throw new IllegalArgumentException("buffers to small: " + byteCount + offset);
+        }
+    }
+}
@@ -11,8 +11,12 @@ import java.util.Arrays;
 /**
  * A matrix over the 8-bit Galois field.
  *
- * This class is not performance-critical, so the implementations
- * are simple and straightforward.
+ * The elements are held in one flat byte array, row after row, so a
+ * row is a run of bytes that can be copied or scanned in one go.
+ * Multiplying and inverting use Galois.MULTIPLICATION_TABLE a row at a
+ * time, and inverting is done in place, without building an augmented
+ * copy of the matrix.  These run every time a codec is built, and
+ * every time degraded data is decoded.
  */
 public class Matrix {
 
@@ -29,12 +33,12 @@ public class Matrix {
     /**
      * The data in the matrix, in row major form.
      *
-     * To get element (r, c): data[r][c]
+     * To get element (r, c): data[r * columns + c]
      *
      * Because this this is computer science, and not math,
      * the indices for both the row and column start at 0.
      */
-    private final byte [] [] data;
+    private final byte [] data;
 
     /**
      * Initialize a matrix of zeros.
@@ -45,10 +49,7 @@ public class Matrix {
     public Matrix(int initRows, int initColumns) {
         rows = initRows;
         columns = initColumns;
-        data = new byte [rows] [];
-        for (int r = 0; r < rows; r++) {
-            data[r] = new byte [columns];
-        }
+        data = new byte [rows * columns];
     }
 
     /**
@@ -57,15 +58,12 @@ public class Matrix {
     public Matrix(byte [] [] initData) {
         rows = initData.length;
         columns = initData[0].length;
-        data = new byte [rows] [];
+        data = new byte [rows * columns];
         for (int r = 0; r < rows; r++) {
             if (initData[r].length != columns) {
                 throw new IllegalArgumentException("Not all rows have the same number of columns");
             }
-            data[r] = new byte[columns];
-            for (int c = 0; c < columns; c++) {
-                data[r][c] = initData[r][c];
-            }
+            System.arraycopy(initData[r], 0, data, r * columns, columns);
         }
     }
 
@@ -75,7 +73,7 @@ public class Matrix {
     public static Matrix identity(int size) {
         Matrix result = new Matrix(size, size);
         for (int i = 0; i < size; i++) {
-            result.set(i, i, (byte) 1);
+            result.data[i * size + i] = 1;
         }
         return result;
     }
@@ -98,7 +96,7 @@ public class Matrix {
                 if (c != 0) {
                     result.append(", ");
                 }
-                result.append(data[r][c] & 0xFF);
+                result.append(data[r * columns + c] & 0xFF);
             }
             result.append(']');
         }
@@ -119,11 +117,7 @@ public class Matrix {
         StringBuilder result = new StringBuilder();
         for (int r = 0; r < rows; r++) {
             for (int c = 0; c < columns; c++) {
-                int value = get(r, c);
-                if (value < 0) {
-                    value += 256;
-                }
-                result.append(String.format("%02x ", value));
+                result.append(String.format("%02x ", get(r, c) & 0xFF));
             }
             result.append("\n");
         }
@@ -154,7 +148,7 @@ public class Matrix {
         if (c < 0 || columns <= c) {
             throw new IllegalArgumentException("Column index out of range: " + c);
         }
-        return data[r][c];
+        return data[r * columns + c];
     }
 
     /**
@@ -167,7 +161,7 @@ public class Matrix {
         if (c < 0 || columns <= c) {
             throw new IllegalArgumentException("Column index out of range: " + c);
         }
-        data[r][c] = value;
+        data[r * columns + c] = value;
     }
 
     /**
@@ -178,17 +172,17 @@ public class Matrix {
         if (!(other instanceof Matrix)) {
             return false;
         }
-        for (int r = 0; r < rows; r++) {
-            if (!Arrays.equals(data[r], ((Matrix)other).data[r])) {
-                return false;
-            }
-        }
-        return true;
+        Matrix that = (Matrix) other;
+        return rows == that.rows && columns == that.columns && Arrays.equals(data, that.data);
     }
 
     /**
      * Multiplies this matrix (the one on the left) by another
      * matrix (the one on the right).
+     *
+     * Each row of the result is built by adding up, for each element
+     * of the row on the left, that element times a row on the right,
+     * using the element's row of the multiplication table.
      */
     public Matrix times(Matrix right) {
         if (getColumns() != right.getRows()) {
@@ -196,14 +190,23 @@ public class Matrix {
                     "Columns on left (" + getColumns() +") " +
                     "is different than rows on right (" + right.getRows() + ")");
         }
-        Matrix result = new Matrix(getRows(), right.getColumns());
-        for (int r = 0; r < getRows(); r++) {
-            for (int c = 0; c < right.getColumns(); c++) {
-                byte value = 0;
-                for (int i = 0; i < getColumns(); i++) {
-                    value ^= Galois.multiply(get(r, i), right.get(i, c));
+        final byte [] [] table = Galois.MULTIPLICATION_TABLE;
+        final int resultColumns = right.columns;
+        final byte [] rightData = right.data;
+        Matrix result = new Matrix(rows, resultColumns);
+        final byte [] resultData = result.data;
+        for (int r = 0; r < rows; r++) {
+            final int resultStart = r * resultColumns;
+            for (int i = 0; i < columns; i++) {
+                final byte value = data[r * columns + i];
+                if (value == 0) {
+                    continue;
+                }
+                final byte [] multTableRow = table[value & 0xFF];
+                final int rightStart = i * resultColumns;
+                for (int c = 0; c < resultColumns; c++) {
+                    resultData[resultStart + c] ^= multTableRow[rightData[rightStart + c] & 0xFF];
                 }
-                result.set(r, c, value);
             }
         }
         return result;
@@ -218,12 +221,8 @@ public class Matrix {
         }
         Matrix result = new Matrix(rows, columns + right.columns);
         for (int r = 0; r < rows; r++) {
-            for (int c = 0; c < columns; c++) {
-                result.data[r][c] = data[r][c];
-            }
-            for (int c = 0; c < right.columns; c++) {
-                result.data[r][columns + c] = right.data[r][c];
-            }
+            System.arraycopy(data, r * columns, result.data, r * result.columns, columns);
+            System.arraycopy(right.data, r * right.columns, result.data, r * result.columns + columns, right.columns);
         }
         return result;
     }
@@ -234,22 +233,25 @@ public class Matrix {
     public Matrix submatrix(int rmin, int cmin, int rmax, int cmax) {
         Matrix result = new Matrix(rmax - rmin, cmax - cmin);
         for (int r = rmin; r < rmax; r++) {
-            for (int c = cmin; c < cmax; c++) {
-                result.data[r - rmin][c - cmin] = data[r][c];
-            }
+            System.arraycopy(data, r * columns + cmin, result.data, (r - rmin) * result.columns, cmax - cmin);
         }
         return result;
     }
 
     /**
-     * Returns one row of the matrix as a byte array.
+     * Returns a copy of one row of the matrix as a byte array.
+     *
+     * This is a copy, not a view of the flat array, because the coding
+     * loops take a byte array for each row.  The codecs only copy rows
+     * when they are built, and when a decode matrix is made for an
+     * erasure pattern that is not in the decode cache, so the copies
+     * are not made while coding.
      */
     public byte [] getRow(int row) {
-        byte [] result = new byte [columns];
-        for (int c = 0; c < columns; c++) {
-            result[c] = get(row, c);
+        if (row < 0 || rows <= row) {
+            throw new IllegalArgumentException("Row index out of range: " + row);
         }
-        return result;
+        return Arrays.copyOfRange(data, row * columns, (row + 1) * columns);
     }
 
     /**
@@ -259,90 +261,114 @@ public class Matrix {
         if (r1 < 0 || rows <= r1 || r2 < 0 || rows <= r2) {
             throw new IllegalArgumentException("Row index out of range");
         }
-        byte [] tmp = data[r1];
-        data[r1] = data[r2];
-        data[r2] = tmp;
+        swapRowsUnchecked(r1, r2);
     }
 
     /**
-     * Returns the inverse of this matrix.
+     * Returns the inverse of this matrix, leaving this one unchanged.
      *
      * @throws IllegalArgumentException when the matrix is singular and
      * doesn't have an inverse.
      */
     public Matrix invert() {
+        Matrix result = new Matrix(rows, columns);
+        System.arraycopy(data, 0, result.data, 0, data.length);
+        result.invertInPlace();
+        return result;
+    }
+
+    /**
+     * Replaces this matrix with its inverse.
+     *
+     * This is Gauss-Jordan elimination done in place: as each column
+     * is cleared, the column of the inverse is stored where the
+     * cleared column was, so no augmented matrix is needed.  Rows are
+     * swapped to find non-zero pivots, which swaps the columns of the
+     * inverse, so they are swapped back at the end.
+     *
+     * @throws IllegalArgumentException when the matrix is singular and
+     * doesn't have an inverse.  The contents of the matrix are then
+     * undefined.
+     */
+    public void invertInPlace() {
         // Sanity check.
         if (rows != columns) {
             throw new IllegalArgumentException("Only square matrices can be inverted");
         }
 
-        // Create a working matrix by augmenting this one with
-        // an identity matrix on the right.
-        Matrix work = augment(identity(rows));
+        final byte [] [] table = Galois.MULTIPLICATION_TABLE;
+        final int size = rows;
 
-        // Do Gaussian elimination to transform the left half into
-        // an identity matrix.
-        work.gaussianElimination();
+        // The row swapped into place for each column, or the column
+        // itself when no swap was needed.
+        final int [] pivotRows = new int [size];
 
-        // The right half is now the inverse.
-        return work.submatrix(0, rows, columns, columns * 2);
-    }
-
-    /**
-     * Does the work of matrix inversion.
-     *
-     * Assumes that this is an r by 2r matrix.
-     */
-    private void gaussianElimination() {
-        // Clear out the part below the main diagonal and scale the main
-        // diagonal to be 1.
-        for (int r = 0; r < rows; r++) {
+        for (int k = 0; k < size; k++) {
             // If the element on the diagonal is 0, find a row below
             // that has a non-zero and swap them.
-            if (data[r][r] == (byte) 0) {
-                for (int rowBelow = r + 1; rowBelow < rows; rowBelow++) {
-                    if (data[rowBelow][r] != 0) {
-                        swapRows(r, rowBelow);
-                        break;
-                    }
-                }
+            int pivotRow = k;
+            while (pivotRow < size && data[pivotRow * size + k] == 0) {
+                pivotRow += 1;
             }
             // If we couldn't find one, the matrix is singular.
-            if (data[r][r] == (byte) 0) {
+            if (pivotRow == size) {
                 throw new IllegalArgumentException("Matrix is singular");
             }
-            // Scale to 1.
-            if (data[r][r] != (byte) 1) {
-                byte scale = Galois.divide((byte) 1, data[r][r]);
-                for (int c = 0; c < columns; c++) {
-                    data[r][c] = Galois.multiply(data[r][c], scale);
-                }
+            if (pivotRow != k) {
+                swapRowsUnchecked(pivotRow, k);
             }
-            // Make everything below the 1 be a 0 by subtracting
-            // a multiple of it.  (Subtraction and addition are
+            pivotRows[k] = pivotRow;
+
+            // Scale the row so the pivot is 1.  The pivot's own place
+            // gets the scale, which is the inverse's entry.
+            final int kStart = k * size;
+            final byte scale = Galois.divide((byte) 1, data[kStart + k]);
+            final byte [] scaleRow = table[scale & 0xFF];
+            data[kStart + k] = 1;
+            for (int c = 0; c < size; c++) {
+                data[kStart + c] = scaleRow[data[kStart + c] & 0xFF];
+            }
+
+            // Make everything else in the column 0 by subtracting a
+            // multiple of the pivot row.  (Subtraction and addition are
             // both exclusive or in the Galois field.)
-            for (int rowBelow = r + 1; rowBelow < rows; rowBelow++) {
-                if (data[rowBelow][r] != (byte) 0) {
-                    byte scale = data[rowBelow][r];
-                    for (int c = 0; c < columns; c++) {
-                        data[rowBelow][c] ^= Galois.multiply(scale, data[r][c]);
-                    }
+            for (int r = 0; r < size; r++) {
+                final int rStart = r * size;
+                final byte factor = data[rStart + k];
+                if (r == k || factor == 0) {
+                    continue;
+                }
+                final byte [] factorRow = table[factor & 0xFF];
+                data[rStart + k] = 0;
+                for (int c = 0; c < size; c++) {
+                    data[rStart + c] ^= factorRow[data[kStart + c] & 0xFF];
                 }
             }
         }
 
-        // Now clear the part above the main diagonal.
-        for (int d = 0; d < rows; d++) {
-            for (int rowAbove = 0; rowAbove < d; rowAbove++) {
-                if (data[rowAbove][d] != (byte) 0) {
-                    byte scale = data[rowAbove][d];
-                    for (int c = 0; c < columns; c++) {
-                        data[rowAbove][c] ^= Galois.multiply(scale, data[d][c]);
-                    }
-
-                }
+        // Undo the row swaps on the columns, in reverse order.
+        for (int k = size - 1; 0 <= k; k--) {
+            if (pivotRows[k] != k) {
+                swapColumns(pivotRows[k], k);
             }
         }
     }
 
+    private void swapRowsUnchecked(int r1, int r2) {
+        final int start1 = r1 * columns;
+        final int start2 = r2 * columns;
+        for (int c = 0; c < columns; c++) {
+            byte tmp = data[start1 + c];
+            data[start1 + c] = data[start2 + c];
+            data[start2 + c] = tmp;
+        }
+    }
+
+    private void swapColumns(int c1, int c2) {
+        for (int start = 0; start < data.length; start += columns) {
+            byte tmp = data[start + c1];
+            data[start + c1] = data[start + c2];
+            data[start + c2] = tmp;
+        }
+    }
 }
@@ -0,0 +1,229 @@
+/**
+ * Matrix Algebra over a 16-bit Galois Field
+ */
+
+package org.bitkernel.reedsolomon;
+
+/**
+ * A matrix over the 16-bit Galois field.
+ *
+ * This is Matrix with the elements held in ints and the arithmetic
+ * done by Galois16.  Like Matrix, it is not performance-critical.
+ */
+public class Matrix16 {
+
+    /**
+     * The number of rows in the matrix.
+     */
+    private final int rows;
+
+    /**
+     * The number of columns in the matrix.
+     */
+    private final int columns;
+
+    /**
+     * The data in the matrix, in row major form.
+     *
+     * To get element (r, c): data[r][c]
+     */
+    private final int [] [] data;
+
+    /**
+     * Initialize a matrix of zeros.
+     *
+     * @param initRows The number of rows in the matrix.
+     * @param initColumns The number of columns in the matrix.
+     */
+    public Matrix16(int initRows, int initColumns) {
+        rows = initRows;
+        columns = initColumns;
+        data = new int [rows] [columns];
+    }
+
+    /**
+     * Returns an identity matrix of the given size.
+     */
+    public static Matrix16 identity(int size) {
+        Matrix16 result = new Matrix16(size, size);
+        for (int i = 0; i < size; i++) {
+            result.set(i, i, 1);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of columns in this matrix.
+     */
+    public int getColumns() {
+        return columns;
+    }
+
+    /**
+     * Returns the number of rows in this matrix.
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Returns the value at row r, column c.
+     */
+    public int get(int r, int c) {
+        if (r < 0 || rows <= r) {
+            throw new IllegalArgumentException("Row index out of range: " + r);
+        }
+        if (c < 0 || columns <= c) {
+            throw new IllegalArgumentException("Column index out of range: " + c);
+        }
+        return data[r][c];
+    }
+
+    /**
+     * Sets the value at row r, column c.
+     */
+    public void set(int r, int c, int value) {
+        if (r < 0 || rows <= r) {
+            throw new IllegalArgumentException("Row index out of range: " + r);
+        }
+        if (c < 0 || columns <= c) {
+            throw new IllegalArgumentException("Column index out of range: " + c);
+        }
+        if (value < 0 || Galois16.FIELD_SIZE <= value) {
+            throw new IllegalArgumentException("Value is not in the field: " + value);
+        }
+        data[r][c] = value;
+    }
+
+    /**
+     * Multiplies this matrix (the one on the left) by another
+     * matrix (the one on the right).
+     */
+    public Matrix16 times(Matrix16 right) {
+        if (getColumns() != right.getRows()) {
+            throw new IllegalArgumentException(
+                    "Columns on left (" + getColumns() +") " +
+                    "is different than rows on right (" + right.getRows() + ")");
+        }
+        Matrix16 result = new Matrix16(getRows(), right.getColumns());
+        for (int r = 0; r < getRows(); r++) {
+            for (int c = 0; c < right.getColumns(); c++) {
+                int value = 0;
+                for (int i = 0; i < getColumns(); i++) {
+                    value ^= Galois16.multiply(data[r][i], right.data[i][c]);
+                }
+                result.data[r][c] = value;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the concatenation of this matrix and the matrix on the right.
+     */
+    public Matrix16 augment(Matrix16 right) {
+        if (rows != right.rows) {
+            throw new IllegalArgumentException("Matrices don't have the same number of rows");
+        }
+        Matrix16 result = new Matrix16(rows, columns + right.columns);
+        for (int r = 0; r < rows; r++) {
+            System.arraycopy(data[r], 0, result.data[r], 0, columns);
+            System.arraycopy(right.data[r], 0, result.data[r], columns, right.columns);
+        }
+        return result;
+    }
+
+    /**
+     * Returns a part of this matrix.
+     */
+    public Matrix16 submatrix(int rmin, int cmin, int rmax, int cmax) {
+        Matrix16 result = new Matrix16(rmax - rmin, cmax - cmin);
+        for (int r = rmin; r < rmax; r++) {
+            System.arraycopy(data[r], cmin, result.data[r - rmin], 0, cmax - cmin);
+        }
+        return result;
+    }
+
+    /**
+     * Returns one row of the matrix as an int array.
+     */
+    public int [] getRow(int row) {
+        return data[row].clone();
+    }
+
+    /**
+     * Exchanges two rows in the matrix.
+     */
+    public void swapRows(int r1, int r2) {
+        if (r1 < 0 || rows <= r1 || r2 < 0 || rows <= r2) {
+            throw new IllegalArgumentException("Row index out of range");
+        }
+        int [] tmp = data[r1];
+        data[r1] = data[r2];
+        data[r2] = tmp;
+    }
+
+    /**
+     * Returns the inverse of this matrix.
+     *
+     * @throws IllegalArgumentException when the matrix is singular and
+     * doesn't have an inverse.
+     */
+    public Matrix16 invert() {
+        if (rows != columns) {
+            throw new IllegalArgumentException("Only square matrices can be inverted");
+        }
+        Matrix16 work = augment(identity(rows));
+        work.gaussianElimination();
+        return work.submatrix(0, rows, columns, columns * 2);
+    }
+
+    /**
+     * Does the work of matrix inversion, the same way as Matrix.
+     *
+     * Assumes that this is an r by 2r matrix.
+     */
+    private void gaussianElimination() {
+        // Clear out the part below the main diagonal and scale the main
+        // diagonal to be 1.
+        for (int r = 0; r < rows; r++) {
+            if (data[r][r] == 0) {
+                for (int rowBelow = r + 1; rowBelow < rows; rowBelow++) {
+                    if (data[rowBelow][r] != 0) {
+                        swapRows(r, rowBelow);
+                        break;
+                    }
+                }
+            }
+            if (data[r][r] == 0) {
+                throw new IllegalArgumentException("Matrix is singular");
+            }
+            if (data[r][r] != 1) {
+                int scale = Galois16.divide(1, data[r][r]);
+                for (int c = 0; c < columns; c++) {
+                    data[r][c] = Galois16.multiply(data[r][c], scale);
+                }
+            }
+            for (int rowBelow = r + 1; rowBelow < rows; rowBelow++) {
+                if (data[rowBelow][r] != 0) {
+                    int scale = data[rowBelow][r];
+                    for (int c = 0; c < columns; c++) {
+                        data[rowBelow][c] ^= Galois16.multiply(scale, data[r][c]);
+                    }
+                }
+            }
+        }
+
+        // Now clear the part above the main diagonal.
+        for (int d = 0; d < rows; d++) {
+            for (int rowAbove = 0; rowAbove < d; rowAbove++) {
+                if (data[rowAbove][d] != 0) {
+                    int scale = data[rowAbove][d];
+                    for (int c = 0; c < columns; c++) {
+                        data[rowAbove][c] ^= Galois16.multiply(scale, data[d][c]);
+                    }
+                }
+            }
+        }
+    }
+}
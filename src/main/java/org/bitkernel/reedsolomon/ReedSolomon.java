@@ -6,34 +6,153 @@
 
 package org.bitkernel.reedsolomon;
 
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 /**
  * Reed-Solomon Coding over 8-bit values.
  */
 public class ReedSolomon {
 
+    /**
+     * The number of bytes of each shard coded by one parallel task.
+     *
+     * With 20 shards, one chunk of all of them is 320K, which fits in
+     * the L2 cache of most server cores.
+     */
+    private static final int PARALLEL_CHUNK_SIZE = 16 * 1024;
+
+    /**
+     * The most erasure patterns to keep decode matrices for.
+     *
+     * A 4+2 code has 15 patterns that can be decoded; 17+3 has 1,330.
+     */
+    private static final int DECODE_CACHE_SIZE = 256;
+
+    /**
+     * The codecs handed out by shared(), keyed by shape.
+     */
+    private static final ConcurrentMap<Integer, ReedSolomon> sharedCodecs =
+            new ConcurrentHashMap<Integer, ReedSolomon>();
+
     private final int dataShardCount;
     private final int parityShardCount;
     private final int totalShardCount;
     private final Matrix matrix;
     private final CodingLoop codingLoop;
 
+    /**
+     * The pool used to code chunks of the shards in parallel, or null
+     * to do all of the coding on the calling thread.
+     */
+    private final ForkJoinPool pool;
+
     /**
      * Rows from the matrix for encoding parity, each one as its own
      * byte array to allow for efficient access while encoding.
      */
     private final byte [] [] parityRows;
 
+    /**
+     * The rows for re-creating data shards, for recently seen sets of
+     * present shards.
+     */
+    private final DecodeMatrixCache<byte [] []> decodeMatrixCache =
+            new DecodeMatrixCache<byte [] []>(DECODE_CACHE_SIZE);
+
     /**
      * Creates a ReedSolomon codec with the default coding loop.
+     *
+     * The default is the SIMD loop when running on Java 17 or later with
+     * the jdk.incubator.vector module added, and InputOutputByteTable
+     * otherwise.
      */
     public static ReedSolomon create(int dataShardCount, int parityShardCount) {
-        return new ReedSolomon(dataShardCount, parityShardCount, new InputOutputByteTableCodingLoop());
+        return new ReedSolomon(dataShardCount, parityShardCount, defaultCodingLoop());
+    }
+
+    /**
+     * Returns a codec with the default coding loop that is built once
+     * for each shape and then shared by all callers.
+     *
+     * Building a codec builds and inverts its encoding matrix, which is
+     * more work than coding a few hundred bytes.  A codec is safe to use
+     * from several threads at once, so callers that code small stripes
+     * one at a time should use this rather than create().
+     */
+    public static ReedSolomon shared(int dataShardCount, int parityShardCount) {
+        Integer key = (dataShardCount << 16) | parityShardCount;
+        ReedSolomon codec = sharedCodecs.get(key);
+        if (codec == null) {
+            ReedSolomon created = create(dataShardCount, parityShardCount);
+            codec = sharedCodecs.putIfAbsent(key, created);
+            if (codec == null) {
+                codec = created;
+            }
+        }
+        return codec;
+    }
+
+    /**
+     * Creates a ReedSolomon codec with the coding loop that is fastest on
+     * this host for shards of the given size.
+     *
+     * The first call for each shape times all of the coding loops, which
+     * takes about a second; see CodingLoopCalibrator.
+     */
+    public static ReedSolomon createCalibrated(int dataShardCount, int parityShardCount, int shardSize) {
+        return new ReedSolomon(dataShardCount, parityShardCount,
+                CodingLoopCalibrator.fastestLoop(dataShardCount, parityShardCount, shardSize));
+    }
+
+    /**
+     * Creates a ReedSolomon codec with the default coding loop that
+     * codes large shards on a pool shared by all such codecs, with a
+     * thread for each core.
+     *
+     * To code on some other number of threads, pass a ForkJoinPool to
+     * the constructor; the caller owns that pool and shuts it down.
+     */
+    public static ReedSolomon createParallel(int dataShardCount, int parityShardCount) {
+        return new ReedSolomon(dataShardCount, parityShardCount, defaultCodingLoop(),
+                SharedPool.POOL);
+    }
+
+    /**
+     * Holds the pool used by createParallel(), which is made the first
+     * time it is needed.  Its threads are daemons that exit when idle,
+     * so it never has to be shut down.
+     */
+    private static final class SharedPool {
+        static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    private static CodingLoop defaultCodingLoop() {
+        CodingLoop vectorCodingLoop = VectorCodingLoops.vectorCodingLoop();
+        return vectorCodingLoop != null ? vectorCodingLoop : new InputOutputByteTableCodingLoop();
     }
 
     /**
      * Initializes a new encoder/decoder, with a chosen coding loop.
      */
     public ReedSolomon(int dataShardCount, int parityShardCount, CodingLoop codingLoop) {
+        this(dataShardCount, parityShardCount, codingLoop, null);
+    }
+
+    /**
+     * Initializes a new encoder/decoder, with a chosen coding loop,
+     * that splits large shards into chunks and codes them in parallel.
+     *
+     * Shards smaller than two chunks are coded on the calling thread.
+     *
+     * @param pool The pool to run the coding on, or null to always
+     *             code on the calling thread.
+     */
+    public ReedSolomon(int dataShardCount, int parityShardCount, CodingLoop codingLoop, ForkJoinPool pool) {
 
         // We can have at most 256 shards total, as any more would
         // lead to duplicate rows in the Vandermonde matrix, which
@@ -47,6 +166,7 @@ public class ReedSolomon {
         this.dataShardCount = dataShardCount;
         this.parityShardCount = parityShardCount;
         this.codingLoop = codingLoop;
+        this.pool = pool;
         this.totalShardCount = dataShardCount + parityShardCount;
         matrix = buildMatrix(dataShardCount, this.totalShardCount);
         parityRows = new byte [parityShardCount] [];
@@ -76,6 +196,20 @@ public class ReedSolomon {
         return totalShardCount;
     }
 
+    /**
+     * Returns the number of decodes that reused a cached decode matrix.
+     */
+    public long getDecodeCacheHits() {
+        return decodeMatrixCache.getHitCount();
+    }
+
+    /**
+     * Returns the number of decodes that had to invert a new decode matrix.
+     */
+    public long getDecodeCacheMisses() {
+        return decodeMatrixCache.getMissCount();
+    }
+
     /**
      * Encodes parity for a set of data shards.
      *
@@ -95,13 +229,78 @@ public class ReedSolomon {
         System.arraycopy(shards, dataShardCount, outputs, 0, parityShardCount);
 
         // Do the coding.
-        codingLoop.codeSomeShards(
+        codeSomeShards(
                 parityRows,
                 shards, dataShardCount,
                 outputs, parityShardCount,
                 offset, byteCount);
     }
 
+    /**
+     * Encodes parity for a batch of small stripes in one pass.
+     *
+     * Coding works on each byte position on its own, so stripes laid
+     * side by side in one set of shards can be coded together.  The
+     * data shards of every stripe are copied into packed shards, shard
+     * i of stripe k going to bytes stripeOffsets[k] up to
+     * stripeOffsets[k + 1] of packed shard i, and the parity of all of
+     * them is made by one run of the coding loop.  For stripes of a few
+     * hundred bytes this saves the argument checks and loop setup of a
+     * call per stripe, which cost more than the coding itself.
+     *
+     * @param dataShards dataShards[k] holds the data shards of stripe k,
+     *                   which must all be the same size.  Different
+     *                   stripes may have different sizes.
+     * @param stripeOffsets Filled in with where each stripe starts in the
+     *                      packed shards, followed by the size of the
+     *                      packed shards.  Its length must be one more
+     *                      than the number of stripes.
+     * @return The packed shards, data shards followed by parity shards.
+     */
+    public byte [] [] encodeParityBatch(byte [] [] [] dataShards, int [] stripeOffsets) {
+        // Check arguments, and lay out the stripes.
+        final int stripeCount = dataShards.length;
+        if (stripeOffsets.length != stripeCount + 1) {
+            throw new IllegalArgumentException("wrong number of stripe offsets: " + stripeOffsets.length);
+        }
+        int packedSize = 0;
+        for (int k = 0; k < stripeCount; k++) {
+            byte [] [] stripe = dataShards[k];
+            if (stripe.length != dataShardCount) {
+                throw new IllegalArgumentException("wrong number of data shards in stripe " + k + ": " + stripe.length);
+            }
+            int shardSize = stripe[0].length;
+            for (int i = 1; i < dataShardCount; i++) {
+                if (stripe[i].length != shardSize) {
+                    throw new IllegalArgumentException("Shards are different sizes in stripe " + k);
+                }
+            }
+            stripeOffsets[k] = packedSize;
+            packedSize += shardSize;
+        }
+        stripeOffsets[stripeCount] = packedSize;
+
+        // Pack the data shards.
+        byte [] [] packed = new byte [totalShardCount] [packedSize];
+        for (int k = 0; k < stripeCount; k++) {
+            int stripeOffset = stripeOffsets[k];
+            int shardSize = stripeOffsets[k + 1] - stripeOffset;
+            for (int i = 0; i < dataShardCount; i++) {
+                System.arraycopy(dataShards[k][i], 0, packed[i], stripeOffset, shardSize);
+            }
+        }
+
+        // Do the coding.
+        byte [] [] outputs = new byte [parityShardCount] [];
+        System.arraycopy(packed, dataShardCount, outputs, 0, parityShardCount);
+        codeSomeShards(
+                parityRows,
+                packed, dataShardCount,
+                outputs, parityShardCount,
+                0, packedSize);
+        return packed;
+    }
+
     /**
      * Returns true if the parity shards contain the right data.
      *
@@ -162,6 +361,186 @@ public class ReedSolomon {
                 tempBuffer);
     }
 
+    /**
+     * Returns true if the shards are all good, checking them against
+     * checksums taken when they were written.
+     *
+     * The parity is only checked when a checksum doesn't match, so a
+     * stripe that is fine costs one CRC pass over each shard, and no
+     * coding.  A checksum that doesn't match means that either the
+     * shard or the checksum was damaged.  If the parity is still
+     * correct, it was the checksum, and the shards are good.
+     *
+     * @param shards An array containing data shards followed by parity shards.
+     *               Each shard is a byte array, and they must all be the same
+     *               size.
+     * @param checksums The checksum of each shard, as returned by
+     *                  ShardChecksums.checksums().
+     * @param firstByte The index of the first byte in each shard to check.
+     * @param byteCount The number of bytes to check in each shard.
+     * @param shardCorrupt If not null, set to true for each shard that
+     *                     doesn't match its checksum when the parity is
+     *                     wrong too, and to false for the others.  The
+     *                     corrupt shards can be passed to decodeMissing()
+     *                     as missing.
+     */
+    public boolean verifyShards(byte [] [] shards,
+                                int [] checksums,
+                                int firstByte,
+                                int byteCount,
+                                boolean [] shardCorrupt) {
+        // Check arguments.
+        checkBuffersAndSizes(shards, firstByte, byteCount);
+
+        boolean [] mismatched = new boolean [totalShardCount];
+        int mismatchCount = ShardChecksums.findMismatches(shards, checksums, firstByte, byteCount, mismatched);
+        boolean good = mismatchCount == 0 || isParityCorrect(shards, firstByte, byteCount);
+        if (shardCorrupt != null) {
+            for (int i = 0; i < totalShardCount; i++) {
+                shardCorrupt[i] = !good && mismatched[i];
+            }
+        }
+        return good;
+    }
+
+    /**
+     * Encodes parity for a set of data shards held in ByteBuffers.
+     *
+     * The buffers may be heap, direct, or memory-mapped, and are coded in
+     * place.  Their positions and limits are not changed.
+     *
+     * @param shards An array containing data shards followed by parity shards.
+     *               Each shard is the bytes from index 0 up to the limit of a
+     *               buffer, and they must all be the same size.
+     * @param offset The index of the first byte in each shard to encode.
+     * @param byteCount The number of bytes to encode in each shard.
+     */
+    public void encodeParity(ByteBuffer [] shards, int offset, int byteCount) {
+        // Check arguments.
+        checkBuffersAndSizes(shards, offset, byteCount);
+
+        // Build the array of output buffers.
+        ByteBuffer [] outputs = new ByteBuffer [parityShardCount];
+        System.arraycopy(shards, dataShardCount, outputs, 0, parityShardCount);
+
+        // Do the coding.
+        codeSomeShards(
+                parityRows,
+                shards, dataShardCount,
+                outputs, parityShardCount,
+                offset, byteCount);
+    }
+
+    /**
+     * Encodes parity for shards stored one after another in one buffer.
+     *
+     * @param buffer A buffer holding all of the data shards followed by
+     *               all of the parity shards.
+     * @param shardStride The distance between the starts of two
+     *                    adjacent shards, which is the size of each shard.
+     * @param offset The index of the first byte in each shard to encode.
+     * @param byteCount The number of bytes to encode in each shard.
+     */
+    public void encodeParity(ByteBuffer buffer, int shardStride, int offset, int byteCount) {
+        encodeParity(splitShards(buffer, shardStride), offset, byteCount);
+    }
+
+    /**
+     * Returns true if the parity shards held in ByteBuffers contain the
+     * right data.
+     *
+     * @param shards An array containing data shards followed by parity shards.
+     *               Each shard is the bytes from index 0 up to the limit of a
+     *               buffer, and they must all be the same size.
+     * @param firstByte The index of the first byte in each shard to check.
+     * @param byteCount The number of bytes to check in each shard.
+     */
+    public boolean isParityCorrect(ByteBuffer [] shards, int firstByte, int byteCount) {
+        // Check arguments.
+        checkBuffersAndSizes(shards, firstByte, byteCount);
+
+        // Build the array of buffers being checked.
+        ByteBuffer [] toCheck = new ByteBuffer [parityShardCount];
+        System.arraycopy(shards, dataShardCount, toCheck, 0, parityShardCount);
+
+        // Do the checking.
+        return codingLoop.checkSomeShards(
+                parityRows,
+                shards, dataShardCount,
+                toCheck, parityShardCount,
+                firstByte, byteCount);
+    }
+
+    /**
+     * Returns true if the parity shards stored one after another in one
+     * buffer contain the right data.
+     *
+     * @param buffer A buffer holding all of the data shards followed by
+     *               all of the parity shards.
+     * @param shardStride The distance between the starts of two
+     *                    adjacent shards, which is the size of each shard.
+     * @param firstByte The index of the first byte in each shard to check.
+     * @param byteCount The number of bytes to check in each shard.
+     */
+    public boolean isParityCorrect(ByteBuffer buffer, int shardStride, int firstByte, int byteCount) {
+        return isParityCorrect(splitShards(buffer, shardStride), firstByte, byteCount);
+    }
+
+    /**
+     * Updates the parity shards in place after one data shard changes,
+     * without reading any of the other data shards.
+     *
+     * Coding is linear, so each parity shard changes by the coefficient
+     * for the data shard times the change in the data:
+     *
+     *     parity[i] ^= matrix[i][dataShardIndex] * (oldData ^ newData)
+     *
+     * @param dataShardIndex Which data shard changed.
+     * @param oldData The old contents of the data shard.
+     * @param newData The new contents of the data shard.
+     * @param parityShards The parity shards, in order, which must hold
+     *                     parity for the old data.
+     * @param offset The index of the first byte in each shard to update.
+     * @param byteCount The number of bytes to update in each shard.
+     */
+    public void updateParity(int dataShardIndex,
+                             byte [] oldData,
+                             byte [] newData,
+                             byte [] [] parityShards,
+                             int offset,
+                             int byteCount) {
+        // Check arguments.
+        if (dataShardIndex < 0 || dataShardCount <= dataShardIndex) {
+            throw new IllegalArgumentException("data shard index out of range: " + dataShardIndex);
+        }
+        if (parityShards.length != parityShardCount) {
+            throw new IllegalArgumentException("wrong number of parity shards: " + parityShards.length);
+        }
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset is negative: " + offset);
+        }
+        if (byteCount < 0) {
+            throw new IllegalArgumentException("byteCount is negative: " + byteCount);
+        }
+        if (oldData.length < offset + byteCount || newData.length < offset + byteCount) {
+            throw new IllegalArgumentException("buffers to small: " + byteCount + offset);
+        }
+        for (byte [] parityShard : parityShards) {
+            if (parityShard.length < offset + byteCount) {
+                throw new IllegalArgumentException("buffers to small: " + byteCount + offset);
+            }
+        }
+
+        final byte [] [] table = Galois.MULTIPLICATION_TABLE;
+        for (int iParity = 0; iParity < parityShardCount; iParity++) {
+            final byte [] parityShard = parityShards[iParity];
+            final byte [] multTableRow = table[parityRows[iParity][dataShardIndex] & 0xFF];
+            for (int iByte = offset; iByte < offset + byteCount; iByte++) {
+                parityShard[iByte] ^= multTableRow[(oldData[iByte] ^ newData[iByte]) & 0xFF];
+            }
+        }
+    }
+
     /**
      * Given a list of shards, some of which contain data, fills in the
      * ones that don't have data.
@@ -180,54 +559,25 @@ public class ReedSolomon {
 
         // Quick check: are all of the shards present?  If so, there's
         // nothing to do.
-        int numberPresent = 0;
-        for (int i = 0; i < totalShardCount; i++) {
-            if (shardPresent[i]) {
-                numberPresent += 1;
-            }
-        }
-        if (numberPresent == totalShardCount) {
-            // Cool.  All of the shards data data.  We don't
-            // need to do anything.
+        if (allShardsPresent(shardPresent)) {
             return;
         }
 
-        // More complete sanity check
-        if (numberPresent < dataShardCount) {
-            throw new IllegalArgumentException("Not enough shards present");
-        }
-
-        // Pull out the rows of the matrix that correspond to the
-        // shards that we have and build a square matrix.  This
-        // matrix could be used to generate the shards that we have
-        // from the original data.
-        //
-        // Also, pull out an array holding just the shards that
-        // correspond to the rows of the submatrix.  These shards
-        // will be the input to the decoding process that re-creates
-        // the missing data shards.
-        Matrix subMatrix = new Matrix(dataShardCount, dataShardCount);
+        // Pull out an array holding just the shards that correspond to
+        // the rows of the decode matrix.  These shards will be the input
+        // to the decoding process that re-creates the missing data shards.
+        byte [] [] dataDecodeRows = dataDecodeRows(shardPresent);
         byte [] [] subShards = new byte [dataShardCount] [];
         {
             int subMatrixRow = 0;
             for (int matrixRow = 0; matrixRow < totalShardCount && subMatrixRow < dataShardCount; matrixRow++) {
                 if (shardPresent[matrixRow]) {
-                    for (int c = 0; c < dataShardCount; c++) {
-                        subMatrix.set(subMatrixRow, c, matrix.get(matrixRow, c));
-                    }
                     subShards[subMatrixRow] = shards[matrixRow];
                     subMatrixRow += 1;
                 }
             }
         }
 
-        // Invert the matrix, so we can go from the encoded shards
-        // back to the original data.  Then pull out the row that
-        // generates the shard that we want to decode.  Note that
-        // since this matrix maps back to the orginal data, it can
-        // be used to create a data shard, but not a parity shard.
-        Matrix dataDecodeMatrix = subMatrix.invert();
-
         // Re-create any data shards that were missing.
         //
         // The input to the coding is all of the shards we actually
@@ -239,11 +589,11 @@ public class ReedSolomon {
         for (int iShard = 0; iShard < dataShardCount; iShard++) {
             if (!shardPresent[iShard]) {
                 outputs[outputCount] = shards[iShard];
-                matrixRows[outputCount] = dataDecodeMatrix.getRow(iShard);
+                matrixRows[outputCount] = dataDecodeRows[iShard];
                 outputCount += 1;
             }
         }
-        codingLoop.codeSomeShards(
+        codeSomeShards(
                 matrixRows,
                 subShards, dataShardCount,
                 outputs, outputCount,
@@ -263,13 +613,547 @@ public class ReedSolomon {
                 outputCount += 1;
             }
         }
-        codingLoop.codeSomeShards(
+        codeSomeShards(
+                matrixRows,
+                shards, dataShardCount,
+                outputs, outputCount,
+                offset, byteCount);
+    }
+
+    /**
+     * Like decodeMissing, but only fills in the missing shards that the
+     * caller asks for, and leaves the other missing shards alone.
+     *
+     * Every wanted shard is computed straight from the shards that are
+     * present in one pass.  A wanted parity shard does not need the
+     * missing data shards to be re-created first: its row of the
+     * encoding matrix is multiplied by the decode matrix to give the
+     * row that makes it from the shards present.
+     *
+     * @param shards All of the shards.  Missing shards that are not
+     *               wanted may be null.
+     * @param shardPresent Which shards hold data.
+     * @param shardWanted Which shards the caller needs.  Wanted shards
+     *                    that are already present are left alone.
+     */
+    public void decodeSome(byte [] [] shards,
+                           boolean [] shardPresent,
+                           boolean [] shardWanted,
+                           final int offset,
+                           final int byteCount) {
+        // Check arguments.
+        if (shards.length != totalShardCount) {
+            throw new IllegalArgumentException("wrong number of shards: " + shards.length);
+        }
+        if (shardWanted.length != totalShardCount) {
+            throw new IllegalArgumentException("wrong number of wanted flags: " + shardWanted.length);
+        }
+        int shardLength = -1;
+        for (int i = 0; i < totalShardCount; i++) {
+            if (shardPresent[i] || shardWanted[i]) {
+                if (shards[i] == null) {
+                    throw new IllegalArgumentException("shard " + i + " is null");
+                }
+                if (shardLength != -1 && shards[i].length != shardLength) {
+                    throw new IllegalArgumentException("Shards are different sizes");
+                }
+                shardLength = shards[i].length;
+            }
+        }
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset is negative: " + offset);
+        }
+        if (byteCount < 0) {
+            throw new IllegalArgumentException("byteCount is negative: " + byteCount);
+        }
+        if (shardLength < offset + byteCount) {
+            throw new IllegalArgumentException("buffers to small: " + byteCount + offset);
+        }
+
+        if (allShardsPresent(shardPresent)) {
+            return;
+        }
+
+        // The shards used as input are the first dataShardCount present.
+        byte [] [] dataDecodeRows = dataDecodeRows(shardPresent);
+        byte [] [] subShards = new byte [dataShardCount] [];
+        {
+            int subMatrixRow = 0;
+            for (int matrixRow = 0; matrixRow < totalShardCount && subMatrixRow < dataShardCount; matrixRow++) {
+                if (shardPresent[matrixRow]) {
+                    subShards[subMatrixRow] = shards[matrixRow];
+                    subMatrixRow += 1;
+                }
+            }
+        }
+
+        byte [] [] outputs = new byte [totalShardCount] [];
+        byte [] [] matrixRows = new byte [totalShardCount] [];
+        int outputCount = 0;
+        for (int iShard = 0; iShard < totalShardCount; iShard++) {
+            if (shardWanted[iShard] && !shardPresent[iShard]) {
+                outputs[outputCount] = shards[iShard];
+                if (iShard < dataShardCount) {
+                    matrixRows[outputCount] = dataDecodeRows[iShard];
+                } else {
+                    matrixRows[outputCount] = parityDecodeRow(parityRows[iShard - dataShardCount], dataDecodeRows);
+                }
+                outputCount += 1;
+            }
+        }
+        if (outputCount == 0) {
+            return;
+        }
+        codeSomeShards(
+                matrixRows,
+                subShards, dataShardCount,
+                outputs, outputCount,
+                offset, byteCount);
+    }
+
+    /**
+     * Finds the shards that hold wrong data, when it is not known which
+     * ones they are, and rewrites them.  Missing shards are filled in
+     * too, as by decodeMissing().
+     *
+     * Any dataShardCount shards determine all of the others.  With e
+     * shards missing, up to (parityShardCount - e) / 2 bad shards can
+     * be found: when they are left out, the rest agree with each other,
+     * and leaving out any other set of that many shards does not give a
+     * set that agrees.  This leaves out each set of 0, 1, 2, ... present
+     * shards in turn until the rest agree.  Checking whether they agree
+     * uses the cached decode matrices, and stops at the first byte that
+     * doesn't match, so for the small codes used here finding one bad
+     * shard takes a few quick checks: at most seven for a 4+2 code.
+     *
+     * @param shards All of the shards, data followed by parity, which
+     *               must all be the same size.
+     * @param shardPresent Which shards hold data.
+     * @param offset The index of the first byte in each shard to decode.
+     * @param byteCount The number of bytes to decode in each shard.
+     * @return The indices of the present shards that were bad, and have
+     *         been rewritten.  Empty when the shards all agree.
+     * @throws IllegalArgumentException when the shards don't agree with
+     *         any (parityShardCount - e) / 2 or fewer of them left out,
+     *         which means that more are bad than can be found.
+     */
+    public int [] decodeErrors(byte [] [] shards,
+                               boolean [] shardPresent,
+                               final int offset,
+                               final int byteCount) {
+        // Check arguments.
+        checkBuffersAndSizes(shards, offset, byteCount);
+
+        // The indices of the shards present.
+        int [] present = new int [totalShardCount];
+        int presentCount = 0;
+        for (int i = 0; i < totalShardCount; i++) {
+            if (shardPresent[i]) {
+                present[presentCount] = i;
+                presentCount += 1;
+            }
+        }
+        if (presentCount < dataShardCount) {
+            throw new IllegalArgumentException("Not enough shards present");
+        }
+
+        // Try leaving out more and more shards.  leftOut holds indices
+        // into present, in increasing order.
+        final int maxErrorCount = (presentCount - dataShardCount) / 2;
+        boolean [] trusted = new boolean [totalShardCount];
+        for (int errorCount = 0; errorCount <= maxErrorCount; errorCount++) {
+            int [] leftOut = new int [errorCount];
+            for (int j = 0; j < errorCount; j++) {
+                leftOut[j] = j;
+            }
+            do {
+                for (int i = 0; i < presentCount; i++) {
+                    trusted[present[i]] = true;
+                }
+                for (int j = 0; j < errorCount; j++) {
+                    trusted[present[leftOut[j]]] = false;
+                }
+                if (shardsAgree(shards, trusted, offset, byteCount)) {
+                    int [] badShards = new int [errorCount];
+                    for (int j = 0; j < errorCount; j++) {
+                        badShards[j] = present[leftOut[j]];
+                    }
+                    decodeMissing(shards, trusted, offset, byteCount);
+                    return badShards;
+                }
+            } while (nextCombination(leftOut, presentCount));
+        }
+        throw new IllegalArgumentException("Too many bad shards to find");
+    }
+
+    /**
+     * Returns true if the shards flagged all agree with each other: the
+     * first dataShardCount of them make the others.
+     */
+    private boolean shardsAgree(byte [] [] shards, boolean [] flagged, int offset, int byteCount) {
+        // The first dataShardCount shards flagged are the inputs.
+        boolean [] inputPresent = new boolean [totalShardCount];
+        byte [] [] inputs = new byte [dataShardCount] [];
+        int inputCount = 0;
+        int iShard = 0;
+        for (; iShard < totalShardCount && inputCount < dataShardCount; iShard++) {
+            if (flagged[iShard]) {
+                inputPresent[iShard] = true;
+                inputs[inputCount] = shards[iShard];
+                inputCount += 1;
+            }
+        }
+        byte [] [] dataDecodeRows = dataDecodeRows(inputPresent);
+
+        // The rest are checked against what the inputs make.
+        byte [] [] matrixRows = new byte [totalShardCount] [];
+        byte [] [] toCheck = new byte [totalShardCount] [];
+        int checkCount = 0;
+        for (; iShard < totalShardCount; iShard++) {
+            if (flagged[iShard]) {
+                matrixRows[checkCount] = iShard < dataShardCount
+                        ? dataDecodeRows[iShard]
+                        : parityDecodeRow(parityRows[iShard - dataShardCount], dataDecodeRows);
+                toCheck[checkCount] = shards[iShard];
+                checkCount += 1;
+            }
+        }
+        return checkCount == 0 || codingLoop.checkSomeShards(
+                matrixRows,
+                inputs, dataShardCount,
+                toCheck, checkCount,
+                offset, byteCount,
+                null);
+    }
+
+    /**
+     * Steps to the next set of k indices, in increasing order, chosen
+     * from 0 to n - 1.  Returns false after the last one.
+     */
+    private static boolean nextCombination(int [] indices, int n) {
+        final int k = indices.length;
+        int i = k - 1;
+        while (0 <= i && indices[i] == n - k + i) {
+            i -= 1;
+        }
+        if (i < 0) {
+            return false;
+        }
+        indices[i] += 1;
+        for (int j = i + 1; j < k; j++) {
+            indices[j] = indices[j - 1] + 1;
+        }
+        return true;
+    }
+
+    /**
+     * Given a list of shards held in ByteBuffers, some of which contain
+     * data, fills in the ones that don't have data.
+     *
+     * Quickly does nothing if all of the shards are present.
+     *
+     * If any shards are missing (based on the flags in shardsPresent),
+     * the data in those shards is recomputed and filled in.
+     */
+    public void decodeMissing(ByteBuffer [] shards,
+                              boolean [] shardPresent,
+                              final int offset,
+                              final int byteCount) {
+        // Check arguments.
+        checkBuffersAndSizes(shards, offset, byteCount);
+
+        if (allShardsPresent(shardPresent)) {
+            return;
+        }
+
+        byte [] [] dataDecodeRows = dataDecodeRows(shardPresent);
+        ByteBuffer [] subShards = new ByteBuffer [dataShardCount];
+        {
+            int subMatrixRow = 0;
+            for (int matrixRow = 0; matrixRow < totalShardCount && subMatrixRow < dataShardCount; matrixRow++) {
+                if (shardPresent[matrixRow]) {
+                    subShards[subMatrixRow] = shards[matrixRow];
+                    subMatrixRow += 1;
+                }
+            }
+        }
+
+        // Re-create any data shards that were missing.
+        ByteBuffer [] outputs = new ByteBuffer [parityShardCount];
+        byte [] [] matrixRows = new byte [parityShardCount] [];
+        int outputCount = 0;
+        for (int iShard = 0; iShard < dataShardCount; iShard++) {
+            if (!shardPresent[iShard]) {
+                outputs[outputCount] = shards[iShard];
+                matrixRows[outputCount] = dataDecodeRows[iShard];
+                outputCount += 1;
+            }
+        }
+        codeSomeShards(
+                matrixRows,
+                subShards, dataShardCount,
+                outputs, outputCount,
+                offset, byteCount);
+
+        // Now compute any of the parity that is missing from all of
+        // the data shards.
+        outputCount = 0;
+        for (int iShard = dataShardCount; iShard < totalShardCount; iShard++) {
+            if (!shardPresent[iShard]) {
+                outputs[outputCount] = shards[iShard];
+                matrixRows[outputCount] = parityRows[iShard - dataShardCount];
+                outputCount += 1;
+            }
+        }
+        codeSomeShards(
                 matrixRows,
                 shards, dataShardCount,
                 outputs, outputCount,
                 offset, byteCount);
     }
 
+    /**
+     * Fills in the missing shards stored one after another in one buffer.
+     *
+     * @param buffer A buffer holding all of the data shards followed by
+     *               all of the parity shards.
+     * @param shardStride The distance between the starts of two
+     *                    adjacent shards, which is the size of each shard.
+     */
+    public void decodeMissing(ByteBuffer buffer,
+                              int shardStride,
+                              boolean [] shardPresent,
+                              final int offset,
+                              final int byteCount) {
+        decodeMissing(splitShards(buffer, shardStride), shardPresent, offset, byteCount);
+    }
+
+    /**
+     * Returns true if all of the shards are present, and throws if
+     * there are too few present to decode.
+     */
+    private boolean allShardsPresent(boolean [] shardPresent) {
+        int numberPresent = 0;
+        for (int i = 0; i < totalShardCount; i++) {
+            if (shardPresent[i]) {
+                numberPresent += 1;
+            }
+        }
+        if (numberPresent == totalShardCount) {
+            // Cool.  All of the shards data data.  We don't
+            // need to do anything.
+            return true;
+        }
+
+        // More complete sanity check
+        if (numberPresent < dataShardCount) {
+            throw new IllegalArgumentException("Not enough shards present");
+        }
+        return false;
+    }
+
+    /**
+     * Returns the rows of the matrix that re-creates each data shard from
+     * the first dataShardCount shards that are present.
+     *
+     * The rows are cached by which shards are present, and must not be
+     * changed.
+     */
+    private byte [] [] dataDecodeRows(boolean [] shardPresent) {
+        BitSet pattern = new BitSet(totalShardCount);
+        for (int i = 0; i < totalShardCount; i++) {
+            if (shardPresent[i]) {
+                pattern.set(i);
+            }
+        }
+        byte [] [] rows = decodeMatrixCache.get(pattern);
+        if (rows == null) {
+            Matrix dataDecodeMatrix = dataDecodeMatrix(shardPresent);
+            rows = new byte [dataShardCount] [];
+            for (int r = 0; r < dataShardCount; r++) {
+                rows[r] = dataDecodeMatrix.getRow(r);
+            }
+            decodeMatrixCache.put(pattern, rows);
+        }
+        return rows;
+    }
+
+    /**
+     * Returns the row that makes a parity shard from the first
+     * dataShardCount shards present: the parity row of the encoding
+     * matrix times the decode matrix.
+     */
+    private byte [] parityDecodeRow(byte [] parityRow, byte [] [] dataDecodeRows) {
+        byte [] result = new byte [dataShardCount];
+        for (int c = 0; c < dataShardCount; c++) {
+            byte value = 0;
+            for (int iData = 0; iData < dataShardCount; iData++) {
+                value ^= Galois.multiply(parityRow[iData], dataDecodeRows[iData][c]);
+            }
+            result[c] = value;
+        }
+        return result;
+    }
+
+    /**
+     * Builds the matrix that re-creates the data shards from the first
+     * dataShardCount shards that are present.
+     */
+    private Matrix dataDecodeMatrix(boolean [] shardPresent) {
+        // Pull out the rows of the matrix that correspond to the
+        // shards that we have and build a square matrix.  This
+        // matrix could be used to generate the shards that we have
+        // from the original data.
+        Matrix subMatrix = new Matrix(dataShardCount, dataShardCount);
+        int subMatrixRow = 0;
+        for (int matrixRow = 0; matrixRow < totalShardCount && subMatrixRow < dataShardCount; matrixRow++) {
+            if (shardPresent[matrixRow]) {
+                for (int c = 0; c < dataShardCount; c++) {
+                    subMatrix.set(subMatrixRow, c, matrix.get(matrixRow, c));
+                }
+                subMatrixRow += 1;
+            }
+        }
+
+        // Invert the matrix, so we can go from the encoded shards
+        // back to the original data.  Then pull out the row that
+        // generates the shard that we want to decode.  Note that
+        // since this matrix maps back to the orginal data, it can
+        // be used to create a data shard, but not a parity shard.
+        // The sub-matrix is a scratch copy, so it is inverted in place.
+        subMatrix.invertInPlace();
+        return subMatrix;
+    }
+
+    /**
+     * Runs the coding loop, splitting the bytes into chunks that are
+     * coded in parallel when there is a pool and enough bytes.
+     */
+    private void codeSomeShards(final byte [] [] matrixRows,
+                                final byte [] [] inputs,
+                                final int inputCount,
+                                final byte [] [] outputs,
+                                final int outputCount,
+                                final int offset,
+                                final int byteCount) {
+        if (outputCount == 0) {
+            return;
+        }
+        if (pool == null || byteCount < 2 * PARALLEL_CHUNK_SIZE) {
+            codingLoop.codeSomeShards(
+                    matrixRows,
+                    inputs, inputCount,
+                    outputs, outputCount,
+                    offset, byteCount);
+            return;
+        }
+        pool.invoke(new CodingTask(
+                matrixRows,
+                inputs, null, inputCount,
+                outputs, null, outputCount,
+                offset, byteCount));
+    }
+
+    /**
+     * Runs the coding loop on ByteBuffer shards, splitting the bytes into
+     * chunks that are coded in parallel when there is a pool and enough
+     * bytes.
+     */
+    private void codeSomeShards(final byte [] [] matrixRows,
+                                final ByteBuffer [] inputs,
+                                final int inputCount,
+                                final ByteBuffer [] outputs,
+                                final int outputCount,
+                                final int offset,
+                                final int byteCount) {
+        if (outputCount == 0) {
+            return;
+        }
+        if (pool == null || byteCount < 2 * PARALLEL_CHUNK_SIZE) {
+            codingLoop.codeSomeShards(
+                    matrixRows,
+                    inputs, inputCount,
+                    outputs, outputCount,
+                    offset, byteCount);
+            return;
+        }
+        pool.invoke(new CodingTask(
+                matrixRows,
+                null, inputs, inputCount,
+                null, outputs, outputCount,
+                offset, byteCount));
+    }
+
+    /**
+     * Codes one range of bytes, splitting it in half until each
+     * piece is no bigger than a chunk.
+     *
+     * The shards are either byte arrays or ByteBuffers; the other pair
+     * of arrays is null.
+     */
+    private class CodingTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final byte [] [] matrixRows;
+        private final byte [] [] inputs;
+        private final ByteBuffer [] inputBuffers;
+        private final int inputCount;
+        private final byte [] [] outputs;
+        private final ByteBuffer [] outputBuffers;
+        private final int outputCount;
+        private final int offset;
+        private final int byteCount;
+
+        CodingTask(byte [] [] matrixRows,
+                   byte [] [] inputs, ByteBuffer [] inputBuffers, int inputCount,
+                   byte [] [] outputs, ByteBuffer [] outputBuffers, int outputCount,
+                   int offset, int byteCount) {
+            this.matrixRows = matrixRows;
+            this.inputs = inputs;
+            this.inputBuffers = inputBuffers;
+            this.inputCount = inputCount;
+            this.outputs = outputs;
+            this.outputBuffers = outputBuffers;
+            this.outputCount = outputCount;
+            this.offset = offset;
+            this.byteCount = byteCount;
+        }
+
+        @Override
+        protected void compute() {
+            if (byteCount <= PARALLEL_CHUNK_SIZE) {
+                if (inputs != null) {
+                    codingLoop.codeSomeShards(
+                            matrixRows,
+                            inputs, inputCount,
+                            outputs, outputCount,
+                            offset, byteCount);
+                } else {
+                    codingLoop.codeSomeShards(
+                            matrixRows,
+                            inputBuffers, inputCount,
+                            outputBuffers, outputCount,
+                            offset, byteCount);
+                }
+                return;
+            }
+            // Split on a chunk boundary, so that every piece but the
+            // last one is a whole number of chunks.
+            int chunkCount = (byteCount + PARALLEL_CHUNK_SIZE - 1) / PARALLEL_CHUNK_SIZE;
+            int firstHalf = (chunkCount / 2) * PARALLEL_CHUNK_SIZE;
+            invokeAll(
+                    new CodingTask(matrixRows,
+                            inputs, inputBuffers, inputCount,
+                            outputs, outputBuffers, outputCount,
+                            offset, firstHalf),
+                    new CodingTask(matrixRows,
+                            inputs, inputBuffers, inputCount,
+                            outputs, outputBuffers, outputCount,
+                            offset + firstHalf, byteCount - firstHalf));
+        }
+    }
+
     /**
      * Checks the consistency of arguments passed to public methods.
      */
@@ -300,6 +1184,55 @@ public class ReedSolomon {
         }
     }
 
+    /**
+     * Checks the consistency of arguments passed to the ByteBuffer
+     * versions of the public methods.
+     */
+    private void checkBuffersAndSizes(ByteBuffer [] shards, int offset, int byteCount) {
+        if (shards.length != totalShardCount) {
+            throw new IllegalArgumentException("wrong number of shards: " + shards.length);
+        }
+
+        int shardLength = shards[0].limit();
+        for (int i = 1; i < shards.length; i++) {
+            if (shards[i].limit() != shardLength) {
+                throw new IllegalArgumentException("Shards are different sizes");
+            }
+        }
+
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset is negative: " + offset);
+        }
+        if (byteCount < 0) {
+            throw new IllegalArgumentException("byteCount is negative: " + byteCount);
+        }
+        if (shardLength < offset + byteCount) {
+            throw new IllegalArgumentException("buffers to small: " + byteCount + offset);
+        }
+    }
+
+    /**
+     * Splits one buffer holding all of the shards, one after another,
+     * into a view of each shard.  No bytes are copied.
+     */
+    private ByteBuffer [] splitShards(ByteBuffer buffer, int shardStride) {
+        if (shardStride <= 0) {
+            throw new IllegalArgumentException("shardStride is not positive: " + shardStride);
+        }
+        if ((long) buffer.limit() < (long) shardStride * totalShardCount) {
+            throw new IllegalArgumentException("buffer too small for " + totalShardCount +
+                    " shards of " + shardStride + " bytes");
+        }
+        ByteBuffer [] shards = new ByteBuffer [totalShardCount];
+        for (int i = 0; i < totalShardCount; i++) {
+            ByteBuffer view = buffer.duplicate();
+            view.limit((i + 1) * shardStride);
+            view.position(i * shardStride);
+            shards[i] = view.slice();
+        }
+        return shards;
+    }
+
     /**
      * Create the matrix to use for encoding, given the number of
      * data shards and the number of total shards.
@@ -308,7 +1241,7 @@ public class ReedSolomon {
      * matrix, which means that the data shards are unchanged after
      * encoding.
      */
-    private static Matrix buildMatrix(int dataShards, int totalShards) {
+    static Matrix buildMatrix(int dataShards, int totalShards) {
         // Start with a Vandermonde matrix.  This matrix would work,
         // in theory, but doesn't have the property that the data
         // shards are unchanged after encoding.
@@ -319,7 +1252,8 @@ public class ReedSolomon {
         // preserve the property that any square subset of rows is
         // invertible.
         Matrix top = vandermonde.submatrix(0, 0, dataShards, dataShards);
-        return vandermonde.times(top.invert());
+        top.invertInPlace();
+        return vandermonde.times(top);
     }
 
     /**
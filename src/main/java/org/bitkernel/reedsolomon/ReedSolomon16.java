@@ -0,0 +1,285 @@
+/**
+ * Reed-Solomon Coding over 16-bit values.
+ */
+
+package org.bitkernel.reedsolomon;
+
+import java.util.BitSet;
+
+/**
+ * Reed-Solomon Coding over 16-bit values, for wide stripes.
+ *
+ * ReedSolomon works in the 8-bit field, which limits a code to 256
+ * shards.  This codec works the same way in the 16-bit field, Galois16,
+ * so a stripe can have up to 65,536 shards.  Spreading one object over
+ * hundreds of nodes keeps the storage overhead low for the same number
+ * of parity shards, and lets a repair read from many nodes at once.
+ *
+ * Each element is two bytes, high byte first, so shards, offsets and
+ * byte counts must all be even.  Multiplying 16-bit elements costs
+ * more per byte than the 8-bit field, so use ReedSolomon when 256
+ * shards are enough.
+ */
+public class ReedSolomon16 {
+
+    /**
+     * The most erasure patterns whose decode matrices are kept.
+     */
+    private static final int DECODE_CACHE_SIZE = 256;
+
+    private final int dataShardCount;
+    private final int parityShardCount;
+    private final int totalShardCount;
+    private final Matrix16 matrix;
+    private final CodingLoop16 codingLoop;
+
+    /**
+     * Rows from the matrix for encoding parity, each one as an array of
+     * elements.
+     */
+    private final int [] [] parityRows;
+
+    private final DecodeMatrixCache<int [] []> decodeMatrixCache =
+            new DecodeMatrixCache<int [] []>(DECODE_CACHE_SIZE);
+
+    /**
+     * Creates a codec with the default coding loop.
+     */
+    public static ReedSolomon16 create(int dataShardCount, int parityShardCount) {
+        return new ReedSolomon16(dataShardCount, parityShardCount, new InputOutputWordTableCodingLoop16());
+    }
+
+    /**
+     * Initializes a new encoder/decoder, with a chosen coding loop.
+     */
+    public ReedSolomon16(int dataShardCount, int parityShardCount, CodingLoop16 codingLoop) {
+
+        // Same as for ReedSolomon: any more shards would give the
+        // Vandermonde matrix duplicate rows.
+        if (dataShardCount <= 0 || parityShardCount <= 0) {
+            throw new IllegalArgumentException("shard counts must be positive");
+        }
+        if (Galois16.FIELD_SIZE < dataShardCount + parityShardCount) {
+            throw new IllegalArgumentException("too many shards - max is " + Galois16.FIELD_SIZE);
+        }
+
+        this.dataShardCount = dataShardCount;
+        this.parityShardCount = parityShardCount;
+        this.codingLoop = codingLoop;
+        this.totalShardCount = dataShardCount + parityShardCount;
+        matrix = buildMatrix(dataShardCount, this.totalShardCount);
+        parityRows = new int [parityShardCount] [];
+        for (int i = 0; i < parityShardCount; i++) {
+            parityRows[i] = matrix.getRow(dataShardCount + i);
+        }
+    }
+
+    /**
+     * Returns the number of data shards.
+     */
+    public int getDataShardCount() {
+        return dataShardCount;
+    }
+
+    /**
+     * Returns the number of parity shards.
+     */
+    public int getParityShardCount() {
+        return parityShardCount;
+    }
+
+    /**
+     * Returns the total number of shards.
+     */
+    public int getTotalShardCount() {
+        return totalShardCount;
+    }
+
+    /**
+     * Encodes parity for a set of data shards.
+     *
+     * @param shards An array containing data shards followed by parity shards.
+     *               Each shard is a byte array, and they must all be the same
+     *               size.
+     * @param offset The index of the first byte in each shard to encode.
+     * @param byteCount The number of bytes to encode in each shard.
+     */
+    public void encodeParity(byte [] [] shards, int offset, int byteCount) {
+        checkBuffersAndSizes(shards, offset, byteCount);
+
+        byte [] [] outputs = new byte [parityShardCount] [];
+        System.arraycopy(shards, dataShardCount, outputs, 0, parityShardCount);
+
+        codingLoop.codeSomeShards(
+                parityRows,
+                shards, dataShardCount,
+                outputs, parityShardCount,
+                offset, byteCount);
+    }
+
+    /**
+     * Returns true if the parity shards contain the right data.
+     */
+    public boolean isParityCorrect(byte [] [] shards, int firstByte, int byteCount) {
+        checkBuffersAndSizes(shards, firstByte, byteCount);
+
+        byte [] [] toCheck = new byte [parityShardCount] [];
+        System.arraycopy(shards, dataShardCount, toCheck, 0, parityShardCount);
+
+        return codingLoop.checkSomeShards(
+                parityRows,
+                shards, dataShardCount,
+                toCheck, parityShardCount,
+                firstByte, byteCount);
+    }
+
+    /**
+     * Given a list of shards, some of which contain data, fills in the
+     * ones that don't have data.
+     *
+     * Quickly does nothing if all of the shards are present.
+     */
+    public void decodeMissing(byte [] [] shards,
+                              boolean [] shardPresent,
+                              final int offset,
+                              final int byteCount) {
+        checkBuffersAndSizes(shards, offset, byteCount);
+
+        int numberPresent = 0;
+        BitSet pattern = new BitSet(totalShardCount);
+        for (int i = 0; i < totalShardCount; i++) {
+            if (shardPresent[i]) {
+                numberPresent += 1;
+                pattern.set(i);
+            }
+        }
+        if (numberPresent == totalShardCount) {
+            return;
+        }
+        if (numberPresent < dataShardCount) {
+            throw new IllegalArgumentException("Not enough shards present");
+        }
+
+        // The inputs are the first dataShardCount shards present.
+        byte [] [] subShards = new byte [dataShardCount] [];
+        Matrix16 subMatrix = null;
+        int [] [] dataDecodeRows = decodeMatrixCache.get(pattern);
+        if (dataDecodeRows == null) {
+            subMatrix = new Matrix16(dataShardCount, dataShardCount);
+        }
+        {
+            int subMatrixRow = 0;
+            for (int matrixRow = 0; matrixRow < totalShardCount && subMatrixRow < dataShardCount; matrixRow++) {
+                if (shardPresent[matrixRow]) {
+                    if (subMatrix != null) {
+                        for (int c = 0; c < dataShardCount; c++) {
+                            subMatrix.set(subMatrixRow, c, matrix.get(matrixRow, c));
+                        }
+                    }
+                    subShards[subMatrixRow] = shards[matrixRow];
+                    subMatrixRow += 1;
+                }
+            }
+        }
+        if (dataDecodeRows == null) {
+            Matrix16 dataDecodeMatrix = subMatrix.invert();
+            dataDecodeRows = new int [dataShardCount] [];
+            for (int r = 0; r < dataShardCount; r++) {
+                dataDecodeRows[r] = dataDecodeMatrix.getRow(r);
+            }
+            decodeMatrixCache.put(pattern, dataDecodeRows);
+        }
+
+        // Re-create any data shards that were missing.
+        byte [] [] outputs = new byte [parityShardCount] [];
+        int [] [] matrixRows = new int [parityShardCount] [];
+        int outputCount = 0;
+        for (int iShard = 0; iShard < dataShardCount; iShard++) {
+            if (!shardPresent[iShard]) {
+                outputs[outputCount] = shards[iShard];
+                matrixRows[outputCount] = dataDecodeRows[iShard];
+                outputCount += 1;
+            }
+        }
+        codingLoop.codeSomeShards(
+                matrixRows,
+                subShards, dataShardCount,
+                outputs, outputCount,
+                offset, byteCount);
+
+        // Now compute any of the parity that is missing from all of
+        // the data shards.
+        outputCount = 0;
+        for (int iShard = dataShardCount; iShard < totalShardCount; iShard++) {
+            if (!shardPresent[iShard]) {
+                outputs[outputCount] = shards[iShard];
+                matrixRows[outputCount] = parityRows[iShard - dataShardCount];
+                outputCount += 1;
+            }
+        }
+        codingLoop.codeSomeShards(
+                matrixRows,
+                shards, dataShardCount,
+                outputs, outputCount,
+                offset, byteCount);
+    }
+
+    /**
+     * Checks the consistency of arguments passed to public methods.
+     */
+    private void checkBuffersAndSizes(byte [] [] shards, int offset, int byteCount) {
+        if (shards.length != totalShardCount) {
+            throw new IllegalArgumentException("wrong number of shards: " + shards.length);
+        }
+
+        int shardLength = shards[0].length;
+        for (int i = 1; i < shards.length; i++) {
+            if (shards[i].length != shardLength) {
+                throw new IllegalArgumentException("Shards are different sizes");
+            }
+        }
+
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset is negative: " + offset);
+        }
+        if (byteCount < 0) {
+            throw new IllegalArgumentException("byteCount is negative: " + byteCount);
+        }
+        if (shardLength < offset + byteCount) {
+            throw new IllegalArgumentException("buffers to small: " + byteCount + offset);
+        }
+
+        // Elements are two bytes each.
+        if (offset % 2 != 0 || byteCount % 2 != 0) {
+            throw new IllegalArgumentException("offset and byteCount must be even: " + offset + ", " + byteCount);
+        }
+    }
+
+    /**
+     * Create the matrix to use for encoding, given the number of
+     * data shards and the number of total shards.
+     *
+     * The top square of the matrix is the identity matrix, as for
+     * ReedSolomon.
+     */
+    private static Matrix16 buildMatrix(int dataShards, int totalShards) {
+        Matrix16 vandermonde = vandermonde(totalShards, dataShards);
+        Matrix16 top = vandermonde.submatrix(0, 0, dataShards, dataShards);
+        return vandermonde.times(top.invert());
+    }
+
+    /**
+     * Create a Vandermonde matrix, which is guaranteed to have the
+     * property that any subset of rows that forms a square matrix
+     * is invertible.
+     */
+    private static Matrix16 vandermonde(int rows, int cols) {
+        Matrix16 result = new Matrix16(rows, cols);
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                result.set(r, c, Galois16.exp(r, c));
+            }
+        }
+        return result;
+    }
+}
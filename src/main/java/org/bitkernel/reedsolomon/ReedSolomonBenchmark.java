@@ -19,6 +19,10 @@ import java.util.Random;
  * The set of data the test runs over is twice as big as the L3 cache
  * in a Xeon processor, so it should simulate the case where data has
  * been read in from a socket.
+ *
+ * This is a quick check with a fixed timer.  For numbers that can be
+ * compared between runs, use ReedSolomonJmhBenchmark in the
+ * benchmarks module.
  */
 public class ReedSolomonBenchmark {
 
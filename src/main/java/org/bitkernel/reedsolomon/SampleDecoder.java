@@ -10,9 +10,8 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * Command-line program that decodes a file using Reed-Solomon 4+2.
@@ -21,6 +20,11 @@ import java.nio.ByteBuffer;
  * "foo.txt".  This program will expected to find "foo.txt.0" through
  * "foo.txt.5", with at most two missing.  It will then write
  * "foo.txt.decoded".
+ *
+ * The shards are read STRIPE_SIZE bytes at a time into one fixed set
+ * of buffers, so memory use is the same no matter how big the file is.
+ * When all of the data shards are present, their bytes are copied
+ * straight to the output without decoding.
  */
 public class SampleDecoder {
 
@@ -28,9 +32,13 @@ public class SampleDecoder {
     public static final int PARITY_SHARDS = 2;
     public static final int TOTAL_SHARDS = 6;
 
-    public static final int BYTES_IN_INT = 4;
+    public static final int BYTES_IN_LONG = 8;
+
+    /**
+     * The number of bytes of each shard decoded at once.
+     */
+    public static final int STRIPE_SIZE = 1024 * 1024;
 
-    @SuppressWarnings("ResultOfMethodCallIgnored")
     public static void main(String [] arguments) throws IOException {
 
         // Parse the command line
@@ -44,60 +52,128 @@ public class SampleDecoder {
             return;
         }
 
-        // Read in any of the shards that are present.
-        // (There should be checking here to make sure the input
-        // shards are the same size, but there isn't.)
-        final byte [] [] shards = new byte [TOTAL_SHARDS] [];
+        // Open any of the shards that are present, and check that they
+        // are all the same size.
+        final FileChannel [] ins = new FileChannel [TOTAL_SHARDS];
         final boolean [] shardPresent = new boolean [TOTAL_SHARDS];
-        int shardSize = 0;
+        long shardSize = -1;
         int shardCount = 0;
+        boolean allDataPresent = true;
         for (int i = 0; i < TOTAL_SHARDS; i++) {
             File shardFile = new File(
                     originalFile.getParentFile(),
                     originalFile.getName() + "." + i);
             if (shardFile.exists()) {
-                shardSize = (int) shardFile.length();
-                shards[i] = new byte [shardSize];
+                if (shardSize != -1 && shardFile.length() != shardSize) {
+                    System.out.println("Shards are different sizes: " + shardFile);
+                    closeAll(ins);
+                    return;
+                }
+                shardSize = shardFile.length();
+                ins[i] = new FileInputStream(shardFile).getChannel();
                 shardPresent[i] = true;
                 shardCount += 1;
-                InputStream in = new FileInputStream(shardFile);
-                in.read(shards[i], 0, shardSize);
-                in.close();
                 System.out.println("Read " + shardFile);
+            } else if (i < DATA_SHARDS) {
+                allDataPresent = false;
             }
         }
 
         // We need at least DATA_SHARDS to be able to reconstruct the file.
         if (shardCount < DATA_SHARDS) {
             System.out.println("Not enough shards present");
+            closeAll(ins);
             return;
         }
 
-        // Make empty buffers for the missing shards.
+        final ReedSolomon reedSolomon = ReedSolomon.create(DATA_SHARDS, PARITY_SHARDS);
+        final ByteBuffer [] shards = new ByteBuffer [TOTAL_SHARDS];
         for (int i = 0; i < TOTAL_SHARDS; i++) {
-            if (!shardPresent[i]) {
-                shards[i] = new byte [shardSize];
-            }
+            shards[i] = ByteBuffer.allocateDirect((int) Math.min(STRIPE_SIZE, shardSize));
         }
 
-        // Use Reed-Solomon to fill in the missing shards
-        ReedSolomon reedSolomon = ReedSolomon.create(DATA_SHARDS, PARITY_SHARDS);
-        reedSolomon.decodeMissing(shards, shardPresent, 0, shardSize);
+        File decodedFile = new File(originalFile.getParentFile(), originalFile.getName() + ".decoded");
+        FileChannel out = new FileOutputStream(decodedFile).getChannel();
+        try {
+            long fileSize = -1;
+            for (long shardPos = 0; shardPos < shardSize; shardPos += STRIPE_SIZE) {
+                final int stripeBytes = (int) Math.min(STRIPE_SIZE, shardSize - shardPos);
 
-        // Combine the data shards into one buffer for convenience.
-        // (This is not efficient, but it is convenient.)
-        byte [] allBytes = new byte [shardSize * DATA_SHARDS];
-        for (int i = 0; i < DATA_SHARDS; i++) {
-            System.arraycopy(shards[i], 0, allBytes, shardSize * i, shardSize);
-        }
+                // Read this stripe of each shard that is present.  Parity
+                // is only needed if a data shard is missing.
+                for (int i = 0; i < TOTAL_SHARDS; i++) {
+                    shards[i].clear().limit(stripeBytes);
+                    if (shardPresent[i] && (i < DATA_SHARDS || !allDataPresent)) {
+                        readFully(ins[i], shardPos, shards[i]);
+                    }
+                }
 
-        // Extract the file length
-        int fileSize = ByteBuffer.wrap(allBytes).getInt();
+                // Fill in the missing data shards.
+                if (!allDataPresent) {
+                    reedSolomon.decodeMissing(shards, shardPresent, 0, stripeBytes);
+                }
 
-        // Write the decoded file
-        File decodedFile = new File(originalFile.getParentFile(), originalFile.getName() + ".decoded");
-        OutputStream out = new FileOutputStream(decodedFile);
-        out.write(allBytes, BYTES_IN_INT, fileSize);
+                // The stored data starts with the file length.
+                if (fileSize == -1) {
+                    fileSize = readFileSize(shards, shardSize);
+                }
+
+                // Write the bytes of each data shard that are part of the
+                // file, at their position in the file.
+                for (int i = 0; i < DATA_SHARDS; i++) {
+                    long storedPos = i * shardSize + shardPos;
+                    long start = Math.max(storedPos, BYTES_IN_LONG);
+                    long end = Math.min(storedPos + stripeBytes, BYTES_IN_LONG + fileSize);
+                    if (start < end) {
+                        ByteBuffer shard = shards[i];
+                        shard.limit((int) (end - storedPos));
+                        shard.position((int) (start - storedPos));
+                        long filePos = start - BYTES_IN_LONG;
+                        while (shard.hasRemaining()) {
+                            filePos += out.write(shard, filePos);
+                        }
+                    }
+                }
+            }
+        } finally {
+            out.close();
+            closeAll(ins);
+        }
         System.out.println("Wrote " + decodedFile);
     }
+
+    /**
+     * Reads the file length from the start of the first stripe.  When
+     * the shards are very small it is spread across several of them.
+     */
+    private static long readFileSize(ByteBuffer [] shards, long shardSize) {
+        long fileSize = 0;
+        for (int storedPos = 0; storedPos < BYTES_IN_LONG; storedPos++) {
+            ByteBuffer shard = shards[(int) (storedPos / shardSize)];
+            fileSize = (fileSize << 8) | (shard.get((int) (storedPos % shardSize)) & 0xFF);
+        }
+        return fileSize;
+    }
+
+    /**
+     * Reads from the channel, starting at the given position, until the
+     * buffer is full.
+     */
+    private static void readFully(FileChannel in, long position, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            int bytesRead = in.read(buffer, position);
+            if (bytesRead < 0) {
+                throw new IOException("not enough bytes read");
+            }
+            position += bytesRead;
+        }
+    }
+
+    private static void closeAll(FileChannel [] channels) throws IOException {
+        for (FileChannel channel : channels) {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
 }
@@ -10,9 +10,13 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Command-line program encodes one file using Reed-Solomon 4+2.
@@ -23,10 +27,17 @@ import java.nio.ByteBuffer;
  * called "foo.txt.0", "foo.txt.1", ..., and "foo.txt.5".  Numbers 4
  * and 5 are the parity shards.
  *
- * The data stored is the file size (four byte int), followed by the
+ * The data stored is the file size (eight byte long), followed by the
  * contents of the file, and then padded to a multiple of four bytes
  * with zeros.  The padding is because all four data shards must be
  * the same size.
+ *
+ * The file is never held in memory all at once.  The shards are
+ * encoded in stripes of STRIPE_SIZE bytes from each shard, read with
+ * positional reads on a FileChannel.  There are two sets of stripe
+ * buffers, so one stripe is written out on a background thread while
+ * the next one is read and encoded.  Memory use is the same no matter
+ * how big the file is.
  */
 public class SampleEncoder {
 
@@ -34,7 +45,12 @@ public class SampleEncoder {
     public static final int PARITY_SHARDS = 2;
     public static final int TOTAL_SHARDS = 6;
 
-    public static final int BYTES_IN_INT = 4;
+    public static final int BYTES_IN_LONG = 8;
+
+    /**
+     * The number of bytes of each shard encoded at once.
+     */
+    public static final int STRIPE_SIZE = 1024 * 1024;
 
     public static void main(String [] arguments) throws IOException {
 
@@ -49,48 +65,139 @@ public class SampleEncoder {
             return;
         }
 
-        // Get the size of the input file.  (Files bigger that
-        // Integer.MAX_VALUE will fail here!)
-        final int fileSize = (int) inputFile.length();
+        // Get the size of the input file.
+        final long fileSize = inputFile.length();
 
         // Figure out how big each shard will be.  The total size stored
         // will be the file size (8 bytes) plus the file.
-        final int storedSize = fileSize + BYTES_IN_INT;
-        final int shardSize = (storedSize + DATA_SHARDS - 1) / DATA_SHARDS;
-
-        // Create a buffer holding the file size, followed by
-        // the contents of the file.
-        final int bufferSize = shardSize * DATA_SHARDS;
-        final byte [] allBytes = new byte[bufferSize];
-        ByteBuffer.wrap(allBytes).putInt(fileSize);
-        InputStream in = new FileInputStream(inputFile);
-        int bytesRead = in.read(allBytes, BYTES_IN_INT, fileSize);
-        if (bytesRead != fileSize) {
-            throw new IOException("not enough bytes read");
+        final long storedSize = fileSize + BYTES_IN_LONG;
+        final long shardSize = (storedSize + DATA_SHARDS - 1) / DATA_SHARDS;
+
+        final ReedSolomon reedSolomon = ReedSolomon.create(DATA_SHARDS, PARITY_SHARDS);
+        final ExecutorService writer = Executors.newSingleThreadExecutor();
+        final FileChannel in = new FileInputStream(inputFile).getChannel();
+        final FileChannel [] outs = new FileChannel [TOTAL_SHARDS];
+        final long startTime = System.nanoTime();
+        try {
+            for (int i = 0; i < TOTAL_SHARDS; i++) {
+                File outputFile = new File(
+                        inputFile.getParentFile(),
+                        inputFile.getName() + "." + i);
+                outs[i] = new FileOutputStream(outputFile).getChannel();
+            }
+
+            // Two sets of stripe buffers: one being written while the
+            // other is filled.
+            final ByteBuffer [] [] stripes = new ByteBuffer [2] [TOTAL_SHARDS];
+            for (int iSet = 0; iSet < 2; iSet++) {
+                for (int i = 0; i < TOTAL_SHARDS; i++) {
+                    stripes[iSet][i] = ByteBuffer.allocateDirect((int) Math.min(STRIPE_SIZE, shardSize));
+                }
+            }
+            final Future<?> [] pendingWrites = new Future<?> [2];
+
+            int iSet = 0;
+            for (long shardPos = 0; shardPos < shardSize; shardPos += STRIPE_SIZE) {
+                final int stripeBytes = (int) Math.min(STRIPE_SIZE, shardSize - shardPos);
+                final ByteBuffer [] shards = stripes[iSet];
+
+                // This set of buffers must be written out before reusing it.
+                waitFor(pendingWrites[iSet]);
+
+                // Fill in the data shards, and encode the parity.
+                for (int i = 0; i < DATA_SHARDS; i++) {
+                    shards[i].clear().limit(stripeBytes);
+                    readStored(in, fileSize, i * shardSize + shardPos, shards[i]);
+                }
+                for (int i = DATA_SHARDS; i < TOTAL_SHARDS; i++) {
+                    shards[i].clear().limit(stripeBytes);
+                }
+                reedSolomon.encodeParity(shards, 0, stripeBytes);
+
+                pendingWrites[iSet] = writer.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        for (int i = 0; i < TOTAL_SHARDS; i++) {
+                            shards[i].position(0);
+                            while (shards[i].hasRemaining()) {
+                                outs[i].write(shards[i]);
+                            }
+                        }
+                        return null;
+                    }
+                });
+                iSet = 1 - iSet;
+            }
+            waitFor(pendingWrites[0]);
+            waitFor(pendingWrites[1]);
+        } finally {
+            writer.shutdown();
+            in.close();
+            for (FileChannel out : outs) {
+                if (out != null) {
+                    out.close();
+                }
+            }
         }
-        in.close();
 
-        // Make the buffers to hold the shards.
-        byte [] [] shards = new byte [TOTAL_SHARDS] [shardSize];
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        for (int i = 0; i < TOTAL_SHARDS; i++) {
+            System.out.println("wrote " + new File(inputFile.getParentFile(), inputFile.getName() + "." + i));
+        }
+        System.out.println(String.format("encoded %d bytes in %.2f s, %.1f MB/s",
+                fileSize, seconds, fileSize / 1000000.0 / seconds));
+    }
 
-        // Fill in the data shards
-        for (int i = 0; i < DATA_SHARDS; i++) {
-            System.arraycopy(allBytes, i * shardSize, shards[i], 0, shardSize);
+    /**
+     * Fills the buffer, from its position to its limit, with the stored
+     * data starting at the given position in the stored data.
+     *
+     * The stored data is the file size, then the file, then zeros.
+     */
+    private static void readStored(FileChannel in, long fileSize, long storedPos, ByteBuffer buffer)
+            throws IOException {
+        // The file size header.
+        if (storedPos < BYTES_IN_LONG) {
+            ByteBuffer header = ByteBuffer.allocate(BYTES_IN_LONG);
+            header.putLong(fileSize);
+            header.position((int) storedPos);
+            while (header.hasRemaining() && buffer.hasRemaining()) {
+                buffer.put(header.get());
+            }
+            storedPos = BYTES_IN_LONG;
         }
 
-        // Use Reed-Solomon to calculate the parity.
-        ReedSolomon reedSolomon = ReedSolomon.create(DATA_SHARDS, PARITY_SHARDS);
-        reedSolomon.encodeParity(shards, 0, shardSize);
+        // The contents of the file.
+        long filePos = storedPos - BYTES_IN_LONG;
+        while (buffer.hasRemaining() && filePos < fileSize) {
+            int bytesRead = in.read(buffer, filePos);
+            if (bytesRead < 0) {
+                throw new IOException("not enough bytes read");
+            }
+            filePos += bytesRead;
+        }
+        // A read may go past the end of the file if it grew.
+        if (fileSize < filePos) {
+            buffer.position(buffer.position() - (int) (filePos - fileSize));
+        }
 
-        // Write out the resulting files.
-        for (int i = 0; i < TOTAL_SHARDS; i++) {
-            File outputFile = new File(
-                    inputFile.getParentFile(),
-                    inputFile.getName() + "." + i);
-            OutputStream out = new FileOutputStream(outputFile);
-            out.write(shards[i]);
-            out.close();
-            System.out.println("wrote " + outputFile);
+        // The padding.
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) 0);
+        }
+    }
+
+    private static void waitFor(Future<?> pendingWrite) throws IOException {
+        if (pendingWrite == null) {
+            return;
+        }
+        try {
+            pendingWrite.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while writing shards", e);
+        } catch (ExecutionException e) {
+            throw new IOException("failed to write shards", e.getCause());
         }
     }
 }
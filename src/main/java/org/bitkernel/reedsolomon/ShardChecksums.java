@@ -0,0 +1,79 @@
+/**
+ * Per-shard checksums.
+ */
+
+package org.bitkernel.reedsolomon;
+
+/**
+ * CRC-32C checksums of shards.
+ *
+ * Taking the checksums of the shards when they are written, and
+ * storing each one with its shard, lets a shard that has been damaged
+ * since be found by reading only that shard.  Checking the parity, on
+ * the other hand, reads the whole stripe and does all of the coding
+ * work.  ReedSolomon.verifyShards() uses the checksums first, and only
+ * checks the parity when a checksum doesn't match.
+ */
+public final class ShardChecksums {
+
+    private ShardChecksums() {}
+
+    /**
+     * Returns the checksum of one shard.
+     *
+     * @param shard The shard.
+     * @param offset The index of the first byte in the shard to checksum.
+     * @param byteCount The number of bytes to checksum.
+     */
+    public static int checksum(byte [] shard, int offset, int byteCount) {
+        if (offset < 0 || byteCount < 0 || shard.length < offset + byteCount) {
+            throw new IllegalArgumentException("range out of bounds: " + offset + ", " + byteCount);
+        }
+        return Crc32c.checksum(shard, offset, byteCount);
+    }
+
+    /**
+     * Returns the checksum of each shard.
+     *
+     * @param shards The shards.
+     * @param offset The index of the first byte in each shard to checksum.
+     * @param byteCount The number of bytes to checksum in each shard.
+     */
+    public static int [] checksums(byte [] [] shards, int offset, int byteCount) {
+        int [] result = new int [shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            result[i] = checksum(shards[i], offset, byteCount);
+        }
+        return result;
+    }
+
+    /**
+     * Finds the shards that don't match their checksums.
+     *
+     * @param shards The shards.
+     * @param checksums The checksum of each shard, as returned by
+     *                  checksums() when the shards were written.
+     * @param offset The index of the first byte in each shard to check.
+     * @param byteCount The number of bytes to check in each shard.
+     * @param mismatched Set to true for each shard that doesn't match,
+     *                   and to false for the others.
+     * @return The number of shards that don't match.
+     */
+    public static int findMismatches(byte [] [] shards,
+                                     int [] checksums,
+                                     int offset,
+                                     int byteCount,
+                                     boolean [] mismatched) {
+        if (checksums.length != shards.length || mismatched.length != shards.length) {
+            throw new IllegalArgumentException("wrong number of checksums: " + checksums.length);
+        }
+        int count = 0;
+        for (int i = 0; i < shards.length; i++) {
+            mismatched[i] = checksum(shards[i], offset, byteCount) != checksums[i];
+            if (mismatched[i]) {
+                count += 1;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,26 @@
+/**
+ * Finds the SIMD coding loop, when the JVM has one.
+ */
+
+package org.bitkernel.reedsolomon;
+
+/**
+ * Finds the SIMD coding loop, when the JVM has one.
+ *
+ * The jar is a multi-release jar.  This is the Java 8 version of the
+ * class, which never has a SIMD loop.  On Java 17 and later the version
+ * under META-INF/versions/17 is loaded instead, which returns a
+ * VectorNibbleCodingLoop when the jdk.incubator.vector module has been
+ * added (java --add-modules jdk.incubator.vector).
+ */
+final class VectorCodingLoops {
+
+    private VectorCodingLoops() {}
+
+    /**
+     * Returns the SIMD coding loop, or null if there isn't one.
+     */
+    static CodingLoop vectorCodingLoop() {
+        return null;
+    }
+}
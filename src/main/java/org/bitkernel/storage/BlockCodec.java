@@ -0,0 +1,86 @@
+package org.bitkernel.storage;
+
+import com.sun.istack.internal.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Erasure code used to protect the data blocks of a key. <br>
+ * Blocks are identified by their block id, data blocks first, followed by the
+ * blocks holding redundancy.
+ */
+public interface BlockCodec {
+    String REED_SOLOMON = "rs";
+    String LRC = "lrc";
+
+    /**
+     * @param name {@link #REED_SOLOMON} or {@link #LRC}
+     * @return the codec used by the storage system for that name
+     */
+    @NotNull
+    static BlockCodec create(@NotNull String name) {
+        switch (name) {
+            case REED_SOLOMON:
+                return new ReedSolomonBlockCodec(4, 2);
+            case LRC:
+                return new LrcBlockCodec(4, 2, 1);
+            default:
+                throw new IllegalArgumentException("Unknown block codec: " + name);
+        }
+    }
+
+    int getDataBlockNum();
+
+    int getTotalBlockNum();
+
+    /**
+     * @param dataBlocks data blocks of the same length, in block id order
+     * @return data blocks followed by the redundancy blocks
+     */
+    @NotNull
+    List<DataBlock> encode(@NotNull List<DataBlock> dataBlocks);
+
+    /**
+     * Encode the data blocks of many keys, codecs that can code them all in
+     * one pass override this
+     *
+     * @param dataBlockLists the data blocks of each key, see {@link #encode}
+     * @return for each key, its data blocks followed by the redundancy blocks
+     */
+    @NotNull
+    default List<List<DataBlock>> encodeAll(@NotNull List<List<DataBlock>> dataBlockLists) {
+        List<List<DataBlock>> res = new ArrayList<>(dataBlockLists.size());
+        for (List<DataBlock> dataBlocks : dataBlockLists) {
+            res.add(encode(dataBlocks));
+        }
+        return res;
+    }
+
+    /**
+     * @param blocks an array of length {@link #getTotalBlockNum()} indexed by
+     *               block id, null for the blocks that are lost
+     * @return the data blocks, in block id order
+     */
+    @NotNull
+    List<DataBlock> decode(@NotNull DataBlock[] blocks);
+
+    /**
+     * @param lostBlockId the block to rebuild
+     * @param present     which blocks can be read, indexed by block id
+     * @return ids of the blocks that need to be read to rebuild the lost one
+     */
+    @NotNull
+    int[] repairSources(int lostBlockId, @NotNull boolean[] present);
+
+    /**
+     * Rebuild one lost block.
+     *
+     * @param blocks      an array indexed by block id, which holds at least the
+     *                    blocks given by {@link #repairSources}
+     * @param lostBlockId the block to rebuild
+     * @return the rebuilt block
+     */
+    @NotNull
+    DataBlock repair(@NotNull DataBlock[] blocks, int lostBlockId);
+}
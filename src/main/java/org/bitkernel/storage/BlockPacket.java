@@ -0,0 +1,295 @@
+package org.bitkernel.storage;
+
+import com.sun.istack.internal.NotNull;
+import com.sun.istack.internal.Nullable;
+import lombok.extern.slf4j.Slf4j;
+import org.bitkernel.common.CmdType;
+import org.bitkernel.common.Udp;
+
+import java.net.DatagramPacket;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Udp packets carrying data blocks in binary instead of as text.
+ * <p>
+ * A command with blocks is the text command line "name@cmd@hashKey:" followed
+ * by the blocks, the response to a get is the blocks alone. The blocks are
+ * | block count(2) | block length(2) | block bytes | block length(2) | block bytes | ...
+ * <p>
+ * A batch names many hash keys, each with its own item after the key:
+ * | key count(2) | key length(2) | key bytes | item | key length(2) | key bytes | item | ...
+ * where the item is the blocks of the key for a batch put and a get response,
+ * the put status of the key for a put response, and nothing for a batch get.
+ * The command line of a batch has " " for its hash key. A batch is split into
+ * packets that each fit in {@link Udp#BUFF_LEN}, a key and its item are never split,
+ * and a key with an item too long for a packet of its own can not be sent.
+ */
+@Slf4j
+public class BlockPacket {
+    private static final int COUNT_BYTE_LEN = 2;
+    private static final int LENGTH_BYTE_LEN = 2;
+    private static final int MAX_BLOCK_LEN = 0xFFFF;
+    private static final int MAX_PACKET_LEN = Udp.BUFF_LEN;
+
+    @NotNull
+    public static byte[] encodeBlocks(@NotNull List<DataBlock> blocks) {
+        ByteBuffer buf = ByteBuffer.allocate(encodedLength(blocks));
+        putBlocks(buf, blocks);
+        return buf.array();
+    }
+
+    /**
+     * @return the text command line of a packet, without the blocks it carries
+     */
+    @NotNull
+    public static String decodeCommandLine(@NotNull DatagramPacket pkt) {
+        return new String(pkt.getData(), pkt.getOffset(), commandLineLength(pkt), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the blocks following the command line, null if they are malformed
+     */
+    @Nullable
+    public static List<DataBlock> decodeCommandBlocks(@NotNull DatagramPacket pkt) {
+        int cmdLineLen = commandLineLength(pkt);
+        return decode(pkt.getData(), pkt.getOffset() + cmdLineLen, pkt.getLength() - cmdLineLen);
+    }
+
+    /**
+     * @return the blocks of a get response, null if they are malformed
+     */
+    @Nullable
+    public static List<DataBlock> decodeBlocks(@NotNull DatagramPacket pkt) {
+        return decode(pkt.getData(), pkt.getOffset(), pkt.getLength());
+    }
+
+    /**
+     * @return the packets of a batch put, the command line followed by hash keys and their blocks
+     */
+    @NotNull
+    public static List<byte[]> encodeKeyedBlocksCommand(@NotNull String sysName, @NotNull CmdType type,
+                                                        @NotNull Map<String, List<DataBlock>> keyedBlocks) {
+        List<byte[]> items = new ArrayList<>();
+        keyedBlocks.forEach((hashKey, blocks) -> items.add(encodeKeyedItem(hashKey, blocks)));
+        return pack(batchCommandLine(sysName, type), items);
+    }
+
+    /**
+     * @return the packets of a batch get, the command line followed by the hash keys
+     */
+    @NotNull
+    public static List<byte[]> encodeKeysCommand(@NotNull String sysName, @NotNull CmdType type,
+                                                 @NotNull List<String> hashKeys) {
+        List<byte[]> items = new ArrayList<>();
+        for (String hashKey : hashKeys) {
+            items.add(encodeKeyedItem(hashKey, null));
+        }
+        return pack(batchCommandLine(sysName, type), items);
+    }
+
+    /**
+     * @return the packets of a batch get response
+     */
+    @NotNull
+    public static List<byte[]> encodeKeyedBlocks(@NotNull Map<String, List<DataBlock>> keyedBlocks) {
+        List<byte[]> items = new ArrayList<>();
+        keyedBlocks.forEach((hashKey, blocks) -> items.add(encodeKeyedItem(hashKey, blocks)));
+        return pack(new byte[0], items);
+    }
+
+    /**
+     * @return the packets of a batch put response, whether the blocks of each key are stored
+     */
+    @NotNull
+    public static List<byte[]> encodeKeyStatuses(@NotNull Map<String, Boolean> statuses) {
+        List<byte[]> items = new ArrayList<>();
+        statuses.forEach((hashKey, status) -> {
+            byte[] item = encodeKeyedItem(hashKey, null);
+            item = Arrays.copyOf(item, item.length + 1);
+            item[item.length - 1] = (byte) (status ? 1 : 0);
+            items.add(item);
+        });
+        return pack(new byte[0], items);
+    }
+
+    /**
+     * @return the hash keys and blocks following the command line of a batch put,
+     * null if they are malformed
+     */
+    @Nullable
+    public static Map<String, List<DataBlock>> decodeCommandKeyedBlocks(@NotNull DatagramPacket pkt) {
+        int cmdLineLen = commandLineLength(pkt);
+        return decodeKeyed(pkt.getData(), pkt.getOffset() + cmdLineLen,
+                pkt.getLength() - cmdLineLen, BlockPacket::readBlocks);
+    }
+
+    /**
+     * @return the hash keys following the command line of a batch get, null if they are malformed
+     */
+    @Nullable
+    public static List<String> decodeCommandKeys(@NotNull DatagramPacket pkt) {
+        int cmdLineLen = commandLineLength(pkt);
+        Map<String, Boolean> keys = decodeKeyed(pkt.getData(), pkt.getOffset() + cmdLineLen,
+                pkt.getLength() - cmdLineLen, buf -> true);
+        return keys == null ? null : new ArrayList<>(keys.keySet());
+    }
+
+    /**
+     * @return the hash keys and blocks of a batch get response, null if they are malformed
+     */
+    @Nullable
+    public static Map<String, List<DataBlock>> decodeKeyedBlocks(@NotNull DatagramPacket pkt) {
+        return decodeKeyed(pkt.getData(), pkt.getOffset(), pkt.getLength(), BlockPacket::readBlocks);
+    }
+
+    /**
+     * @return the hash keys and statuses of a batch put response, null if they are malformed
+     */
+    @Nullable
+    public static Map<String, Boolean> decodeKeyStatuses(@NotNull DatagramPacket pkt) {
+        return decodeKeyed(pkt.getData(), pkt.getOffset(), pkt.getLength(), buf -> buf.get() != 0);
+    }
+
+    /**
+     * The command line ends at the first ':' after the second '@', or at the
+     * end of the packet when it carries no blocks. The blocks can not be
+     * mistaken for it, they only start after it.
+     */
+    private static int commandLineLength(@NotNull DatagramPacket pkt) {
+        byte[] data = pkt.getData();
+        int at = 0;
+        for (int i = 0; i < pkt.getLength(); i++) {
+            byte b = data[pkt.getOffset() + i];
+            if (at < 2) {
+                at += b == '@' ? 1 : 0;
+            } else if (b == ':') {
+                return i + 1;
+            }
+        }
+        return pkt.getLength();
+    }
+
+    private static int encodedLength(@NotNull List<DataBlock> blocks) {
+        int len = COUNT_BYTE_LEN;
+        for (DataBlock block : blocks) {
+            len += LENGTH_BYTE_LEN + block.getBytes().length;
+        }
+        return len;
+    }
+
+    private static void putBlocks(@NotNull ByteBuffer buf, @NotNull List<DataBlock> blocks) {
+        buf.putShort((short) blocks.size());
+        for (DataBlock block : blocks) {
+            byte[] bytes = block.getBytes();
+            if (bytes.length > MAX_BLOCK_LEN) {
+                throw new IllegalArgumentException("Data block is too long: " + bytes.length);
+            }
+            buf.putShort((short) bytes.length);
+            buf.put(bytes);
+        }
+    }
+
+    @Nullable
+    private static List<DataBlock> decode(@NotNull byte[] data, int offset, int length) {
+        ByteBuffer buf = ByteBuffer.wrap(data, offset, length);
+        try {
+            return readBlocks(buf);
+        } catch (BufferUnderflowException e) {
+            logger.error("Malformed data blocks of {} bytes", length);
+            return null;
+        }
+    }
+
+    @NotNull
+    private static List<DataBlock> readBlocks(@NotNull ByteBuffer buf) {
+        int count = buf.getShort() & 0xFFFF;
+        List<DataBlock> blocks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] bytes = new byte[buf.getShort() & 0xFFFF];
+            buf.get(bytes);
+            blocks.add(new DataBlock(bytes));
+        }
+        return blocks;
+    }
+
+    @NotNull
+    private static byte[] batchCommandLine(@NotNull String sysName, @NotNull CmdType type) {
+        return String.format("%s@%s@ :", sysName, type.cmd).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param blocks the blocks of the key, null for a key alone
+     */
+    @NotNull
+    private static byte[] encodeKeyedItem(@NotNull String hashKey, @Nullable List<DataBlock> blocks) {
+        byte[] key = hashKey.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buf = ByteBuffer.allocate(LENGTH_BYTE_LEN + key.length
+                + (blocks == null ? 0 : encodedLength(blocks)));
+        buf.putShort((short) key.length);
+        buf.put(key);
+        if (blocks != null) {
+            putBlocks(buf, blocks);
+        }
+        return buf.array();
+    }
+
+    /**
+     * Pack the items into as few packets as fit them, each one the prefix,
+     * the number of items it holds and the items
+     */
+    @NotNull
+    private static List<byte[]> pack(@NotNull byte[] prefix, @NotNull List<byte[]> items) {
+        List<byte[]> packets = new ArrayList<>();
+        int from = 0;
+        for (byte[] item : items) {
+            if (prefix.length + COUNT_BYTE_LEN + item.length > MAX_PACKET_LEN) {
+                // it would be cut short by the receiver and read as a missing key
+                throw new IllegalArgumentException("Batch item of " + item.length
+                        + " bytes does not fit in a packet");
+            }
+        }
+        while (from < items.size() || packets.isEmpty()) {
+            int len = prefix.length + COUNT_BYTE_LEN;
+            int to = from;
+            while (to < items.size() && len + items.get(to).length <= MAX_PACKET_LEN) {
+                len += items.get(to++).length;
+            }
+            ByteBuffer buf = ByteBuffer.allocate(len);
+            buf.put(prefix);
+            buf.putShort((short) (to - from));
+            for (int i = from; i < to; i++) {
+                buf.put(items.get(i));
+            }
+            packets.add(buf.array());
+            from = to;
+        }
+        return packets;
+    }
+
+    @Nullable
+    private static <T> Map<String, T> decodeKeyed(@NotNull byte[] data, int offset, int length,
+                                                  @NotNull Function<ByteBuffer, T> itemReader) {
+        ByteBuffer buf = ByteBuffer.wrap(data, offset, length);
+        try {
+            int count = buf.getShort() & 0xFFFF;
+            Map<String, T> items = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                byte[] key = new byte[buf.getShort() & 0xFFFF];
+                buf.get(key);
+                items.put(new String(key, StandardCharsets.UTF_8), itemReader.apply(buf));
+            }
+            return items;
+        } catch (BufferUnderflowException e) {
+            logger.error("Malformed batch of {} bytes", length);
+            return null;
+        }
+    }
+}
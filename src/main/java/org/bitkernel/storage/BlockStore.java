@@ -0,0 +1,784 @@
+package org.bitkernel.storage;
+
+import com.sun.istack.internal.NotNull;
+import com.sun.istack.internal.Nullable;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Log structured store of the data blocks of a storage provider.
+ * <p>
+ * Every put and remove is appended as a record to the newest segment file,
+ * a new segment is started when it is full. A record is
+ * | crc(4) | op(1) | key type(1) | key length(2) | block length(4) | key | block |
+ * where the crc is a CRC32 of everything after it, a remove is a tombstone
+ * record without a block.
+ * <p>
+ * The segments are the write ahead log. Appends are not synced one by one,
+ * a syncer thread syncs everything appended since its last sync with one
+ * fsync, and only then completes the futures of those puts and removes.
+ * The appends that arrive during an fsync wait for the next one. A sync
+ * may also wait a window for more appends to join it, unless a batch of
+ * them is already waiting.
+ * <p>
+ * Where the blocks of every key are is kept in memory, in concurrent maps of
+ * lists that are copied on write, so reads take no lock while the writes
+ * are done one at a time. It is written to an
+ * index file when a segment is full, after a compaction and on close, so a
+ * restart reads the index and only replays the records appended after it.
+ * Without an index file every segment is replayed.
+ * <p>
+ * Removed blocks stay in their segments until a background compaction
+ * rewrites the segments that are mostly garbage, with the same id so the
+ * order of the records is kept. A tombstone is only dropped from the oldest
+ * segment, before that an older segment may still hold the blocks it removes.
+ */
+@Slf4j
+public class BlockStore implements Closeable {
+    public enum KeyType {PUB_KEY, PRI_KEY}
+
+    private static final byte OP_PUT = 0;
+    private static final byte OP_REMOVE = 1;
+    /** crc, op, key type, key length and block length */
+    private static final int HEADER_LEN = 4 + 1 + 1 + 2 + 4;
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String INDEX_FILE = "index";
+    private static final int INDEX_MAGIC = 0x424c4b53;
+    private static final int INDEX_VERSION = 1;
+    /** a segment is compacted when at least this part of it is garbage */
+    private static final double COMPACT_GARBAGE_RATIO = 0.5;
+    private static final long COMPACT_INTERVAL_SECONDS = 60;
+
+    private final File dir;
+    private final long segmentSize;
+    /** segment id -> segment, the last one is appended to */
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    /**
+     * key type -> hash key -> where its blocks are, in the order they were put,
+     * the lists are never changed, a new list replaces the old one
+     */
+    private final Map<KeyType, Map<String, List<BlockRef>>> index = new EnumMap<>(KeyType.class);
+    private final ScheduledExecutorService compactor;
+    private final long syncWindowNanos;
+    private final int syncBatchSize;
+    /** appends not synced yet, in the order they were written */
+    private final Queue<PendingSync> pendingSyncs = new ArrayDeque<>();
+    /** number of records appended so far */
+    private long appendSeq;
+    private volatile boolean closed;
+    private final Thread syncer;
+
+    /**
+     * Open the store in a directory, creating it if it does not exist,
+     * and compact it in the background
+     *
+     * @param dir           directory of the segment and index files
+     * @param segmentSize   size a segment grows to before a new one is started
+     * @param syncWindowMs  how long the first append of a batch waits for others
+     *                      to join before they are synced together
+     * @param syncBatchSize number of appends that are synced at once without
+     *                      waiting out the window
+     */
+    public BlockStore(@NotNull File dir, long segmentSize,
+                      long syncWindowMs, int syncBatchSize) throws IOException {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.syncWindowNanos = TimeUnit.MILLISECONDS.toNanos(syncWindowMs);
+        this.syncBatchSize = Math.max(syncBatchSize, 1);
+        for (KeyType type : KeyType.values()) {
+            index.put(type, new ConcurrentHashMap<>());
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Can not create the storage directory " + dir);
+        }
+        open();
+        compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "block-store-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        compactor.scheduleWithFixedDelay(this::compactQuietly,
+                COMPACT_INTERVAL_SECONDS, COMPACT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        syncer = new Thread(this::syncLoop, "block-store-syncer");
+        syncer.setDaemon(true);
+        syncer.start();
+    }
+
+    /**
+     * Store a block of a key, it can be read at once
+     *
+     * @return completes when the block is synced to the disk
+     */
+    @NotNull
+    public synchronized CompletableFuture<Void> put(@NotNull KeyType type, @NotNull String hashKey,
+                                                    @NotNull DataBlock block) {
+        if (closed) {
+            return failed(new IOException("Block store is closed"));
+        }
+        BlockRef ref;
+        try {
+            ref = append(OP_PUT, type, hashKey, block.getBytes());
+        } catch (IOException e) {
+            return failed(e);
+        }
+        index.get(type).merge(hashKey, Collections.singletonList(ref), BlockStore::concat);
+        ref.segment.liveBytes += ref.length;
+        return awaitSync();
+    }
+
+    /**
+     * @return the blocks of the key in the order they were put, the blocks
+     * that can not be read are left out and should be rebuilt by the erasure code
+     */
+    @NotNull
+    public List<DataBlock> get(@NotNull KeyType type, @NotNull String hashKey) {
+        while (true) {
+            List<BlockRef> refs = index.get(type).get(hashKey);
+            List<DataBlock> blocks = new ArrayList<>();
+            if (refs == null) {
+                return blocks;
+            }
+            try {
+                for (BlockRef ref : refs) {
+                    Record record = read(ref);
+                    if (record == null || record.type != type || !record.hashKey.equals(hashKey)) {
+                        logger.error("The block of {} at {} of segment {} is damaged",
+                                new Object[]{hashKey, ref.offset, ref.segment.id});
+                    } else {
+                        blocks.add(new DataBlock(record.block));
+                    }
+                }
+                return blocks;
+            } catch (ClosedChannelException e) {
+                if (closed) {
+                    logger.error("Block store is closed");
+                    return blocks;
+                }
+                // the segment was compacted meanwhile, the index points into the new one
+            }
+        }
+    }
+
+    public boolean contains(@NotNull KeyType type, @NotNull String hashKey) {
+        return index.get(type).containsKey(hashKey);
+    }
+
+    /**
+     * Remove all the blocks of a key
+     *
+     * @return completes when the removal is synced to the disk
+     */
+    @NotNull
+    public synchronized CompletableFuture<Void> remove(@NotNull KeyType type, @NotNull String hashKey) {
+        if (closed) {
+            return failed(new IOException("Block store is closed"));
+        }
+        if (!index.get(type).containsKey(hashKey)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        BlockRef tombstone;
+        try {
+            tombstone = append(OP_REMOVE, type, hashKey, new byte[0]);
+        } catch (IOException e) {
+            return failed(e);
+        }
+        tombstone.segment.tombstoneBytes += tombstone.length;
+        for (BlockRef ref : index.get(type).remove(hashKey)) {
+            ref.segment.liveBytes -= ref.length;
+        }
+        return awaitSync();
+    }
+
+    /**
+     * Rewrite the full segments that are mostly garbage without it
+     */
+    public synchronized void compact() throws IOException {
+        List<Segment> candidates = new ArrayList<>(segments.values());
+        candidates.remove(activeSegment());
+        for (Segment segment : candidates) {
+            long garbage = segment.size - segment.liveBytes;
+            if (segment.id != segments.firstKey()) {
+                garbage -= segment.tombstoneBytes;
+            }
+            if (garbage > 0 && garbage >= segment.size * COMPACT_GARBAGE_RATIO) {
+                compact(segment);
+            }
+        }
+    }
+
+    /**
+     * Sync what is pending, write the index and close the segments
+     */
+    @Override
+    public void close() throws IOException {
+        compactor.shutdownNow();
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            syncer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            activeSegment().channel.force(false);
+            writeIndex();
+            for (Segment segment : segments.values()) {
+                segment.channel.close();
+            }
+        }
+    }
+
+    @NotNull
+    private CompletableFuture<Void> awaitSync() {
+        CompletableFuture<Void> synced = new CompletableFuture<>();
+        pendingSyncs.add(new PendingSync(appendSeq, System.nanoTime(), synced));
+        if (pendingSyncs.size() == 1 || pendingSyncs.size() >= syncBatchSize) {
+            notifyAll();
+        }
+        return synced;
+    }
+
+    /**
+     * Sync the appends in batches, until the store is closed and nothing is pending
+     */
+    private void syncLoop() {
+        while (true) {
+            long syncedSeq;
+            FileChannel channel;
+            synchronized (this) {
+                try {
+                    while (pendingSyncs.isEmpty() && !closed) {
+                        wait();
+                    }
+                    if (pendingSyncs.isEmpty()) {
+                        return;
+                    }
+                    // let more appends join the batch
+                    long deadline = pendingSyncs.peek().appendedAt + syncWindowNanos;
+                    long left;
+                    while (!closed && pendingSyncs.size() < syncBatchSize
+                            && (left = deadline - System.nanoTime()) > 0) {
+                        TimeUnit.NANOSECONDS.timedWait(this, left);
+                    }
+                } catch (InterruptedException e) {
+                    closed = true;
+                }
+                syncedSeq = appendSeq;
+                channel = activeSegment().channel;
+            }
+
+            // appends go on while this syncs, they wait for the next batch
+            IOException failure = null;
+            try {
+                channel.force(false);
+            } catch (ClosedChannelException e) {
+                // the segment was full, it was synced before the next one was started
+            } catch (IOException e) {
+                logger.error("Sync the block store in {} failed: {}", dir, e.getMessage());
+                failure = e;
+            }
+            List<CompletableFuture<Void>> done = new ArrayList<>();
+            synchronized (this) {
+                while (!pendingSyncs.isEmpty() && pendingSyncs.peek().seq <= syncedSeq) {
+                    done.add(pendingSyncs.poll().synced);
+                }
+            }
+            for (CompletableFuture<Void> synced : done) {
+                if (failure == null) {
+                    synced.complete(null);
+                } else {
+                    synced.completeExceptionally(failure);
+                }
+            }
+        }
+    }
+
+    @NotNull
+    private static List<BlockRef> concat(@NotNull List<BlockRef> refs, @NotNull List<BlockRef> more) {
+        List<BlockRef> all = new ArrayList<>(refs.size() + more.size());
+        all.addAll(refs);
+        all.addAll(more);
+        return all;
+    }
+
+    @NotNull
+    private static CompletableFuture<Void> failed(@NotNull IOException e) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (IOException e) {
+            logger.error("Compact the block store in {} failed: {}", dir, e.getMessage());
+        }
+    }
+
+    private void open() throws IOException {
+        File[] leftovers = dir.listFiles((d, name) -> name.endsWith(".compact"));
+        for (File file : leftovers == null ? new File[0] : leftovers) {
+            Files.delete(file.toPath());
+        }
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SEGMENT_SUFFIX));
+        for (File file : files == null ? new File[0] : files) {
+            String name = file.getName();
+            int id = Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+            segments.put(id, new Segment(id, file));
+        }
+        if (segments.isEmpty()) {
+            segments.put(1, new Segment(1, segmentFile(1)));
+        }
+
+        // replay what was appended after the index was written, or everything
+        Map<Integer, Long> indexed = readIndex();
+        if (indexed == null) {
+            indexed = Collections.emptyMap();
+            for (Map<String, List<BlockRef>> refs : index.values()) {
+                refs.clear();
+            }
+            for (Segment segment : segments.values()) {
+                segment.tombstoneBytes = 0;
+            }
+        }
+        for (Segment segment : segments.values()) {
+            replay(segment, indexed.getOrDefault(segment.id, 0L));
+        }
+        for (Map<String, List<BlockRef>> refs : index.values()) {
+            for (List<BlockRef> blockRefs : refs.values()) {
+                for (BlockRef ref : blockRefs) {
+                    ref.segment.liveBytes += ref.length;
+                }
+            }
+        }
+        logger.debug("Open the block store in {}, {} segments, {} pub keys, {} pri keys", new Object[]{dir,
+                segments.size(), index.get(KeyType.PUB_KEY).size(), index.get(KeyType.PRI_KEY).size()});
+    }
+
+    /**
+     * Apply the records of a segment from a position to the index. A torn
+     * record at the end of the newest segment, left by a crash in the middle
+     * of an append, is cut off.
+     */
+    private void replay(@NotNull Segment segment, long from) throws IOException {
+        long pos = from;
+        while (pos < segment.size) {
+            Record record = read(segment, pos, segment.size - pos);
+            if (record == null) {
+                if (segment == activeSegment()) {
+                    logger.warn("Cut a torn record off segment {} at {}", segment.id, pos);
+                    segment.channel.truncate(pos);
+                    segment.size = pos;
+                } else {
+                    logger.error("Segment {} is damaged at {}, skip the rest of it", segment.id, pos);
+                }
+                return;
+            }
+            Map<String, List<BlockRef>> refs = index.get(record.type);
+            if (record.op == OP_PUT) {
+                refs.computeIfAbsent(record.hashKey, k -> new ArrayList<>())
+                        .add(new BlockRef(segment, pos, record.length));
+            } else {
+                refs.remove(record.hashKey);
+                segment.tombstoneBytes += record.length;
+            }
+            pos += record.length;
+        }
+    }
+
+    @NotNull
+    private BlockRef append(byte op, @NotNull KeyType type, @NotNull String hashKey,
+                            @NotNull byte[] block) throws IOException {
+        ByteBuffer record = encode(op, type, hashKey, block);
+        Segment segment = activeSegment();
+        if (segment.size > 0 && segment.size + record.remaining() > segmentSize) {
+            segment = roll();
+        }
+        long offset = segment.size;
+        int length = record.remaining();
+        writeFully(segment.channel, record, offset);
+        segment.size += length;
+        appendSeq++;
+        return new BlockRef(segment, offset, length);
+    }
+
+    /**
+     * Start a new segment, the index is written so a restart only replays the new one
+     */
+    @NotNull
+    private Segment roll() throws IOException {
+        Segment full = activeSegment();
+        full.channel.force(false);
+        int id = full.id + 1;
+        Segment segment = new Segment(id, segmentFile(id));
+        segments.put(id, segment);
+        writeIndex();
+        return segment;
+    }
+
+    private void compact(@NotNull Segment segment) throws IOException {
+        // without the index a crash in the middle of this replays the segments
+        Files.deleteIfExists(new File(dir, INDEX_FILE).toPath());
+
+        boolean oldest = segment.id == segments.firstKey();
+        Set<Long> liveOffsets = new HashSet<>();
+        for (Map<String, List<BlockRef>> refs : index.values()) {
+            for (List<BlockRef> blockRefs : refs.values()) {
+                for (BlockRef ref : blockRefs) {
+                    if (ref.segment == segment) {
+                        liveOffsets.add(ref.offset);
+                    }
+                }
+            }
+        }
+
+        File compacted = new File(dir, segment.file.getName() + ".compact");
+        Map<Long, Long> moved = new HashMap<>();
+        long tombstoneBytes = 0;
+        long size = 0;
+        try (FileChannel out = FileChannel.open(compacted.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long pos = 0;
+            while (pos < segment.size) {
+                Record record = read(segment, pos, segment.size - pos);
+                if (record == null) {
+                    break;
+                }
+                boolean keep = record.op == OP_PUT ? liveOffsets.contains(pos) : !oldest;
+                if (keep) {
+                    ByteBuffer buf = ByteBuffer.allocate(record.length);
+                    readFully(segment.channel, buf, pos);
+                    buf.flip();
+                    writeFully(out, buf, size);
+                    if (record.op == OP_PUT) {
+                        moved.put(pos, size);
+                    } else {
+                        tombstoneBytes += record.length;
+                    }
+                    size += record.length;
+                }
+                pos += record.length;
+            }
+            out.force(false);
+            if (pos < segment.size) {
+                logger.error("Segment {} is damaged at {}, leave it as it is", segment.id, pos);
+            }
+        }
+        if (moved.size() < liveOffsets.size()) {
+            Files.delete(compacted.toPath());
+            writeIndex();
+            return;
+        }
+
+        // readers still reading the old segment find it closed and look the blocks up again
+        if (size == 0) {
+            Files.delete(compacted.toPath());
+            Files.delete(segment.file.toPath());
+            segments.remove(segment.id);
+        } else {
+            Files.move(compacted.toPath(), segment.file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Segment compactedSegment = new Segment(segment.id, segment.file);
+            compactedSegment.liveBytes = size - tombstoneBytes;
+            compactedSegment.tombstoneBytes = tombstoneBytes;
+            segments.put(segment.id, compactedSegment);
+            for (Map<String, List<BlockRef>> refs : index.values()) {
+                for (Map.Entry<String, List<BlockRef>> entry : refs.entrySet()) {
+                    List<BlockRef> blockRefs = new ArrayList<>(entry.getValue());
+                    boolean changed = false;
+                    for (int i = 0; i < blockRefs.size(); i++) {
+                        BlockRef ref = blockRefs.get(i);
+                        if (ref.segment == segment) {
+                            blockRefs.set(i, new BlockRef(compactedSegment, moved.get(ref.offset), ref.length));
+                            changed = true;
+                        }
+                    }
+                    if (changed) {
+                        entry.setValue(blockRefs);
+                    }
+                }
+            }
+        }
+        segment.channel.close();
+        logger.debug("Compact segment {}, {} bytes left", segment.id, size);
+        writeIndex();
+    }
+
+    /**
+     * The index file is | magic(4) | version(4) | segment count(4) |
+     * segments: | id(4) | size(8) | tombstone bytes(8) | | key count(4) |
+     * keys: | key type(1) | hash key | block count(4) | blocks: | segment id(4) | offset(8) | length(4) | |
+     * | crc(8) |
+     */
+    private void writeIndex() throws IOException {
+        File tmp = new File(dir, INDEX_FILE + ".tmp");
+        CRC32 crc = new CRC32();
+        try (FileOutputStream file = new FileOutputStream(tmp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(file, crc)));
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            out.writeInt(segments.size());
+            for (Segment segment : segments.values()) {
+                out.writeInt(segment.id);
+                out.writeLong(segment.size);
+                out.writeLong(segment.tombstoneBytes);
+            }
+            out.writeInt(index.get(KeyType.PUB_KEY).size() + index.get(KeyType.PRI_KEY).size());
+            for (Map.Entry<KeyType, Map<String, List<BlockRef>>> typeEntry : index.entrySet()) {
+                for (Map.Entry<String, List<BlockRef>> entry : typeEntry.getValue().entrySet()) {
+                    out.writeByte(typeEntry.getKey().ordinal());
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(entry.getValue().size());
+                    for (BlockRef ref : entry.getValue()) {
+                        out.writeInt(ref.segment.id);
+                        out.writeLong(ref.offset);
+                        out.writeInt(ref.length);
+                    }
+                }
+            }
+            out.flush();
+            new DataOutputStream(file).writeLong(crc.getValue());
+            file.getFD().sync();
+        }
+        Files.move(tmp.toPath(), new File(dir, INDEX_FILE).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Load the index file into the index
+     *
+     * @return segment id -> size of the segment the index covers, null if
+     * there is no usable index file
+     */
+    @Nullable
+    private Map<Integer, Long> readIndex() {
+        File file = new File(dir, INDEX_FILE);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            byte[] bytes = Files.readAllBytes(file.toPath());
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, Math.max(bytes.length - 8, 0));
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            if (bytes.length < 8 || ByteBuffer.wrap(bytes, bytes.length - 8, 8).getLong() != crc.getValue()) {
+                logger.error("The index file in {} is damaged", dir);
+                return null;
+            }
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION) {
+                logger.error("Unknown index file format in {}", dir);
+                return null;
+            }
+            Map<Integer, Long> indexed = new HashMap<>();
+            Map<Integer, Long> tombstoneBytes = new HashMap<>();
+            int segmentCount = in.readInt();
+            for (int i = 0; i < segmentCount; i++) {
+                int id = in.readInt();
+                indexed.put(id, in.readLong());
+                tombstoneBytes.put(id, in.readLong());
+            }
+            int keyCount = in.readInt();
+            for (int i = 0; i < keyCount; i++) {
+                KeyType type = KeyType.values()[in.readByte()];
+                String hashKey = in.readUTF();
+                int blockCount = in.readInt();
+                List<BlockRef> refs = new ArrayList<>(blockCount);
+                for (int j = 0; j < blockCount; j++) {
+                    Segment segment = segments.get(in.readInt());
+                    if (segment == null) {
+                        logger.error("The index file in {} points to a missing segment", dir);
+                        return null;
+                    }
+                    refs.add(new BlockRef(segment, in.readLong(), in.readInt()));
+                }
+                index.get(type).put(hashKey, refs);
+            }
+            // every segment the index points into must still be there, at least as long,
+            // and the segments it does not know must all be newer
+            int newest = indexed.keySet().stream().max(Integer::compare).orElse(0);
+            for (int id : segments.keySet()) {
+                if (id < newest && !indexed.containsKey(id)) {
+                    logger.error("The index file in {} does not know segment {}", dir, id);
+                    return null;
+                }
+            }
+            for (Map.Entry<Integer, Long> entry : indexed.entrySet()) {
+                Segment segment = segments.get(entry.getKey());
+                if (segment == null || segment.size < entry.getValue()) {
+                    logger.error("The index file in {} does not match segment {}", dir, entry.getKey());
+                    return null;
+                }
+                segment.tombstoneBytes = tombstoneBytes.get(entry.getKey());
+            }
+            return indexed;
+        } catch (IOException | RuntimeException e) {
+            logger.error("Read the index file in {} failed: {}", dir, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @throws ClosedChannelException if the segment has been compacted or closed
+     */
+    @Nullable
+    private Record read(@NotNull BlockRef ref) throws ClosedChannelException {
+        try {
+            Record record = read(ref.segment, ref.offset, ref.length);
+            return record != null && record.length == ref.length ? record : null;
+        } catch (ClosedChannelException e) {
+            throw e;
+        } catch (IOException e) {
+            logger.error("Read segment {} failed: {}", ref.segment.id, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @param available bytes of the segment from the position on
+     * @return the record at the position, null if it is torn or damaged
+     */
+    @Nullable
+    private static Record read(@NotNull Segment segment, long pos, long available) throws IOException {
+        if (available < HEADER_LEN) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LEN);
+        readFully(segment.channel, header, pos);
+        header.flip();
+        int crc = header.getInt();
+        byte op = header.get();
+        byte type = header.get();
+        int keyLen = header.getShort() & 0xFFFF;
+        int blockLen = header.getInt();
+        if ((op != OP_PUT && op != OP_REMOVE) || type < 0 || type >= KeyType.values().length
+                || blockLen < 0 || HEADER_LEN + keyLen + (long) blockLen > available) {
+            return null;
+        }
+        ByteBuffer body = ByteBuffer.allocate(keyLen + blockLen);
+        readFully(segment.channel, body, pos + HEADER_LEN);
+        CRC32 checksum = new CRC32();
+        checksum.update(header.array(), 4, HEADER_LEN - 4);
+        checksum.update(body.array(), 0, body.capacity());
+        if ((int) checksum.getValue() != crc) {
+            return null;
+        }
+        String hashKey = new String(body.array(), 0, keyLen, StandardCharsets.UTF_8);
+        byte[] block = Arrays.copyOfRange(body.array(), keyLen, keyLen + blockLen);
+        return new Record(op, KeyType.values()[type], hashKey, block, HEADER_LEN + keyLen + blockLen);
+    }
+
+    @NotNull
+    private static ByteBuffer encode(byte op, @NotNull KeyType type, @NotNull String hashKey,
+                                     @NotNull byte[] block) {
+        byte[] key = hashKey.getBytes(StandardCharsets.UTF_8);
+        if (key.length > 0xFFFF) {
+            throw new IllegalArgumentException("Hash key is too long: " + key.length);
+        }
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_LEN + key.length + block.length);
+        buf.putInt(0);
+        buf.put(op);
+        buf.put((byte) type.ordinal());
+        buf.putShort((short) key.length);
+        buf.putInt(block.length);
+        buf.put(key);
+        buf.put(block);
+        CRC32 crc = new CRC32();
+        crc.update(buf.array(), 4, buf.capacity() - 4);
+        buf.putInt(0, (int) crc.getValue());
+        buf.flip();
+        return buf;
+    }
+
+    private static void writeFully(@NotNull FileChannel channel, @NotNull ByteBuffer buf,
+                                   long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            pos += channel.write(buf, pos);
+        }
+    }
+
+    private static void readFully(@NotNull FileChannel channel, @NotNull ByteBuffer buf,
+                                  long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, pos);
+            if (n < 0) {
+                throw new EOFException("Unexpected end of segment at " + pos);
+            }
+            pos += n;
+        }
+    }
+
+    @NotNull
+    private Segment activeSegment() {
+        return segments.lastEntry().getValue();
+    }
+
+    @NotNull
+    private File segmentFile(int id) {
+        return new File(dir, String.format("%08d%s", id, SEGMENT_SUFFIX));
+    }
+
+    private static class Segment {
+        private final int id;
+        private final File file;
+        private final FileChannel channel;
+        private long size;
+        /** bytes of the put records the index points to */
+        private long liveBytes;
+        private long tombstoneBytes;
+
+        private Segment(int id, @NotNull File file) throws IOException {
+            this.id = id;
+            this.file = file;
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            size = channel.size();
+        }
+    }
+
+    @AllArgsConstructor
+    private static class PendingSync {
+        /** of the append */
+        private final long seq;
+        private final long appendedAt;
+        private final CompletableFuture<Void> synced;
+    }
+
+    @AllArgsConstructor
+    private static class BlockRef {
+        private final Segment segment;
+        /** of the record in the segment */
+        private final long offset;
+        /** of the whole record */
+        private final int length;
+    }
+
+    @AllArgsConstructor
+    private static class Record {
+        private final byte op;
+        private final KeyType type;
+        private final String hashKey;
+        private final byte[] block;
+        /** of the whole record */
+        private final int length;
+    }
+}
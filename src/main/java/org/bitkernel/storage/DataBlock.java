@@ -1,18 +1,24 @@
 package org.bitkernel.storage;
 
 import com.sun.istack.internal.NotNull;
+import com.sun.istack.internal.Nullable;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
-import org.bitkernel.reedsolomon.robinliew.dealbytesinterface.IRSErasureCorrection;
-import org.bitkernel.reedsolomon.robinliew.dealbytesinterface.RSErasureCorrectionImpl;
+import org.bitkernel.common.Config;
+import org.bitkernel.reedsolomon.ShardChecksums;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 @AllArgsConstructor
 public class DataBlock {
     public static final int FLAG_BYTE_LEN = 1 + 1 + 2;
+    /** CRC32C appended to a block by {@link #withChecksum()} */
+    public static final int CHECKSUM_BYTE_LEN = 4;
+    /** codec configured for the storage system, built on first use and then shared */
+    private static volatile BlockCodec storageCodec;
     /** | belongKeyId(1) | BlockId(1) | valid length(2) | data(-) | */
     @Getter
     private final byte[] bytes;
@@ -26,11 +32,7 @@ public class DataBlock {
     }
 
     public int getValByteNum() {
-        ByteBuffer buf = ByteBuffer.allocate(2);
-        buf.put(bytes[2]);
-        buf.put(bytes[3]);
-        buf.position(0);
-        return buf.getShort();
+        return (short) ((bytes[2] << 8) | (bytes[3] & 0xFF));
     }
 
     public int getDataCapacity() {
@@ -46,10 +48,38 @@ public class DataBlock {
 
     @NotNull
     public byte[] getValidBytes() {
-        byte[] data = getData();
-        byte[] validBytes = new byte[getValByteNum()];
-        System.arraycopy(data, 0, validBytes, 0, getValByteNum());
-        return validBytes;
+        return Arrays.copyOfRange(bytes, FLAG_BYTE_LEN, FLAG_BYTE_LEN + getValByteNum());
+    }
+
+    /**
+     * Seal the block for storing, so that a damaged block can be found by
+     * reading only that block, without running the erasure code
+     *
+     * @return a copy of the block with the CRC32C of all of its bytes appended
+     */
+    @NotNull
+    public DataBlock withChecksum() {
+        byte[] sealed = Arrays.copyOf(bytes, bytes.length + CHECKSUM_BYTE_LEN);
+        int checksum = ShardChecksums.checksum(bytes, 0, bytes.length);
+        ByteBuffer.wrap(sealed, bytes.length, CHECKSUM_BYTE_LEN).putInt(checksum);
+        return new DataBlock(sealed);
+    }
+
+    /**
+     * @return the block without the checksum appended by {@link #withChecksum()},
+     * or null if the block does not match its checksum
+     */
+    @Nullable
+    public DataBlock withoutChecksum() {
+        int len = bytes.length - CHECKSUM_BYTE_LEN;
+        if (len < FLAG_BYTE_LEN) {
+            return null;
+        }
+        int checksum = ByteBuffer.wrap(bytes, len, CHECKSUM_BYTE_LEN).getInt();
+        if (ShardChecksums.checksum(bytes, 0, len) != checksum) {
+            return null;
+        }
+        return new DataBlock(Arrays.copyOf(bytes, len));
     }
 
     /**
@@ -70,17 +100,65 @@ public class DataBlock {
     }
 
     /**
-     * Generate six data block include four from sub-key and two from check data
+     * Generate data blocks include the ones sliced from sub-key and the ones
+     * holding redundancy, with the codec configured for the storage system
      * @param subKeyId serial number of sub-key
-     * @return a list include six data block
+     * @return a list include all data blocks, six when using Reed Solomon
      */
     @NotNull
     public static List<DataBlock> generateDataBlocks(int subKeyId, @NotNull byte[] subPriKey) {
-        List<DataBlock> dataBlocks = slice(subKeyId, subPriKey, 4);
-        byte[] combine = combine(dataBlocks);
-        IRSErasureCorrection rsProcessor = new RSErasureCorrectionImpl();
-        byte[] dataWithChecksum = rsProcessor.encoder(combine, dataBlocks.get(0).getBytes().length, 4, 2);
-        return DataBlock.convertToBlockList(dataWithChecksum, 6);
+        return generateDataBlocks(subKeyId, subPriKey, getStorageCodec());
+    }
+
+    /**
+     * Generate the data blocks of many sub-keys, for example those of all
+     * members of a group, with the redundancy of all of them computed at once
+     *
+     * @param subPriKeys sub-keys, the serial number of each is its index
+     * @return the data blocks of each sub-key, the same as
+     * {@link #generateDataBlocks(int, byte[])} returns
+     */
+    @NotNull
+    public static List<List<DataBlock>> generateDataBlocks(@NotNull List<byte[]> subPriKeys) {
+        return generateDataBlocks(subPriKeys, getStorageCodec());
+    }
+
+    /**
+     * @param subPriKeys sub-keys, the serial number of each is its index
+     * @param codec      erasure code protecting the data blocks
+     * @return the data blocks of each sub-key
+     */
+    @NotNull
+    public static List<List<DataBlock>> generateDataBlocks(@NotNull List<byte[]> subPriKeys,
+                                                           @NotNull BlockCodec codec) {
+        List<List<DataBlock>> dataBlockLists = new ArrayList<>(subPriKeys.size());
+        for (int i = 0; i < subPriKeys.size(); i++) {
+            dataBlockLists.add(slice(i, subPriKeys.get(i), codec.getDataBlockNum()));
+        }
+        return codec.encodeAll(dataBlockLists);
+    }
+
+    @NotNull
+    private static BlockCodec getStorageCodec() {
+        BlockCodec codec = storageCodec;
+        if (codec == null) {
+            // racing threads may each build one, they are all the same
+            codec = BlockCodec.create(Config.getStorageCodec());
+            storageCodec = codec;
+        }
+        return codec;
+    }
+
+    /**
+     * @param subKeyId serial number of sub-key
+     * @param codec    erasure code protecting the data blocks
+     * @return a list include the data blocks followed by the redundancy blocks
+     */
+    @NotNull
+    public static List<DataBlock> generateDataBlocks(int subKeyId, @NotNull byte[] subPriKey,
+                                                     @NotNull BlockCodec codec) {
+        List<DataBlock> dataBlocks = slice(subKeyId, subPriKey, codec.getDataBlockNum());
+        return codec.encode(dataBlocks);
     }
 
     /**
@@ -0,0 +1,136 @@
+package org.bitkernel.storage;
+
+import com.sun.istack.internal.NotNull;
+import org.bitkernel.reedsolomon.LocallyRepairableCode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Locally repairable code: the data blocks are split into local groups, each
+ * with an XOR parity block, and global Reed Solomon parity blocks cover all of
+ * the data. A single lost block is rebuilt by reading only the rest of its
+ * local group instead of {@link #getDataBlockNum()} blocks. <br>
+ * The parity is encoded over the whole data blocks, flag bytes included, and
+ * each parity block carries its own flag bytes in front of the parity, so a
+ * parity block is {@link DataBlock#FLAG_BYTE_LEN} bytes longer than a data
+ * block and always reports its own block id.
+ */
+public class LrcBlockCodec implements BlockCodec {
+    private final LocallyRepairableCode lrc;
+
+    public LrcBlockCodec(int dataBlockNum, int localGroupNum, int globalParityNum) {
+        lrc = new LocallyRepairableCode(dataBlockNum, localGroupNum, globalParityNum);
+    }
+
+    @Override
+    public int getDataBlockNum() {
+        return lrc.getDataShardCount();
+    }
+
+    @Override
+    public int getTotalBlockNum() {
+        return lrc.getTotalShardCount();
+    }
+
+    @Override
+    @NotNull
+    public List<DataBlock> encode(@NotNull List<DataBlock> dataBlocks) {
+        int dataNum = getDataBlockNum();
+        int totalNum = getTotalBlockNum();
+        int len = dataBlocks.get(0).getBytes().length;
+        byte[][] shards = new byte[totalNum][];
+        for (int i = 0; i < dataNum; i++) {
+            shards[i] = dataBlocks.get(i).getBytes();
+        }
+        for (int i = dataNum; i < totalNum; i++) {
+            shards[i] = new byte[len];
+        }
+        lrc.encodeParity(shards, 0, len);
+
+        int keyId = dataBlocks.get(0).getBelongKeyId();
+        List<DataBlock> res = new ArrayList<>(dataBlocks);
+        for (int i = dataNum; i < totalNum; i++) {
+            res.add(parityBlock(keyId, i, shards[i]));
+        }
+        return res;
+    }
+
+    @Override
+    @NotNull
+    public List<DataBlock> decode(@NotNull DataBlock[] blocks) {
+        int totalNum = getTotalBlockNum();
+        boolean[] present = new boolean[totalNum];
+        byte[][] shards = toShards(blocks, present);
+        lrc.decodeMissing(shards, present, 0, shards[0].length);
+
+        List<DataBlock> dataBlocks = new ArrayList<>();
+        for (int i = 0; i < getDataBlockNum(); i++) {
+            dataBlocks.add(blocks[i] != null ? blocks[i] : new DataBlock(shards[i]));
+        }
+        return dataBlocks;
+    }
+
+    @Override
+    @NotNull
+    public int[] repairSources(int lostBlockId, @NotNull boolean[] present) {
+        return lrc.repairSources(lostBlockId, present);
+    }
+
+    @Override
+    @NotNull
+    public DataBlock repair(@NotNull DataBlock[] blocks, int lostBlockId) {
+        DataBlock[] available = blocks.clone();
+        available[lostBlockId] = null;
+        boolean[] present = new boolean[getTotalBlockNum()];
+        byte[][] shards = toShards(available, present);
+        lrc.repairShard(shards, present, lostBlockId, 0, shards[0].length);
+
+        if (lostBlockId < getDataBlockNum()) {
+            return new DataBlock(shards[lostBlockId]);
+        }
+        int keyId = Arrays.stream(available).filter(Objects::nonNull)
+                .findFirst().get().getBelongKeyId();
+        return parityBlock(keyId, lostBlockId, shards[lostBlockId]);
+    }
+
+    /**
+     * @param present filled in with which blocks are not null
+     * @return the coded part of each block, zeros for the lost ones
+     */
+    @NotNull
+    private byte[][] toShards(@NotNull DataBlock[] blocks, @NotNull boolean[] present) {
+        int dataNum = getDataBlockNum();
+        int totalNum = getTotalBlockNum();
+        int len = 0;
+        for (int i = 0; i < totalNum; i++) {
+            if (blocks[i] != null) {
+                len = i < dataNum ? blocks[i].getBytes().length : blocks[i].getDataCapacity();
+                break;
+            }
+        }
+        byte[][] shards = new byte[totalNum][];
+        for (int i = 0; i < totalNum; i++) {
+            present[i] = blocks[i] != null;
+            if (!present[i]) {
+                shards[i] = new byte[len];
+            } else if (i < dataNum) {
+                shards[i] = blocks[i].getBytes();
+            } else {
+                shards[i] = blocks[i].getData();
+            }
+        }
+        return shards;
+    }
+
+    @NotNull
+    private static DataBlock parityBlock(int keyId, int blockId, @NotNull byte[] parity) {
+        byte[] block = new byte[parity.length + DataBlock.FLAG_BYTE_LEN];
+        block[0] = (byte) keyId;
+        block[1] = (byte) blockId;
+        System.arraycopy(parity, 0, block, DataBlock.FLAG_BYTE_LEN, parity.length);
+        return new DataBlock(block);
+    }
+}
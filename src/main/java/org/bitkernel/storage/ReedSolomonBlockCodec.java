@@ -0,0 +1,176 @@
+package org.bitkernel.storage;
+
+import com.sun.istack.internal.NotNull;
+import org.bitkernel.reedsolomon.ReedSolomon;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Plain Reed Solomon: the parity blocks are encoded over the whole data
+ * blocks, flag bytes included, and rebuilding any block reads
+ * {@link #getDataBlockNum()} other blocks.
+ */
+public class ReedSolomonBlockCodec implements BlockCodec {
+    private final int dataBlockNum;
+    private final int parityBlockNum;
+    private final ReedSolomon reedSolomon;
+
+    public ReedSolomonBlockCodec(int dataBlockNum, int parityBlockNum) {
+        this.dataBlockNum = dataBlockNum;
+        this.parityBlockNum = parityBlockNum;
+        reedSolomon = ReedSolomon.shared(dataBlockNum, parityBlockNum);
+    }
+
+    @Override
+    public int getDataBlockNum() {
+        return dataBlockNum;
+    }
+
+    @Override
+    public int getTotalBlockNum() {
+        return dataBlockNum + parityBlockNum;
+    }
+
+    @Override
+    @NotNull
+    public List<DataBlock> encode(@NotNull List<DataBlock> dataBlocks) {
+        int totalNum = getTotalBlockNum();
+        int len = dataBlocks.get(0).getBytes().length;
+        byte[][] shards = new byte[totalNum][];
+        for (int i = 0; i < dataBlockNum; i++) {
+            shards[i] = dataBlocks.get(i).getBytes();
+        }
+        for (int i = dataBlockNum; i < totalNum; i++) {
+            shards[i] = new byte[len];
+        }
+        reedSolomon.encodeParity(shards, 0, len);
+
+        List<DataBlock> res = new ArrayList<>(dataBlocks);
+        for (int i = dataBlockNum; i < totalNum; i++) {
+            res.add(new DataBlock(shards[i]));
+        }
+        return res;
+    }
+
+    /**
+     * The parity blocks of all keys are computed by one pass of the coding
+     * loop, see {@link ReedSolomon#encodeParityBatch}
+     */
+    @Override
+    @NotNull
+    public List<List<DataBlock>> encodeAll(@NotNull List<List<DataBlock>> dataBlockLists) {
+        int keyNum = dataBlockLists.size();
+        byte[][][] dataShards = new byte[keyNum][dataBlockNum][];
+        for (int k = 0; k < keyNum; k++) {
+            for (int i = 0; i < dataBlockNum; i++) {
+                dataShards[k][i] = dataBlockLists.get(k).get(i).getBytes();
+            }
+        }
+        int[] offsets = new int[keyNum + 1];
+        byte[][] packed = reedSolomon.encodeParityBatch(dataShards, offsets);
+
+        List<List<DataBlock>> res = new ArrayList<>(keyNum);
+        for (int k = 0; k < keyNum; k++) {
+            List<DataBlock> blocks = new ArrayList<>(dataBlockLists.get(k));
+            for (int i = dataBlockNum; i < getTotalBlockNum(); i++) {
+                blocks.add(new DataBlock(Arrays.copyOfRange(packed[i], offsets[k], offsets[k + 1])));
+            }
+            res.add(blocks);
+        }
+        return res;
+    }
+
+    /**
+     * When at least two more blocks than {@link #getDataBlockNum()} are
+     * present, the blocks are also checked against each other, and a
+     * block that was damaged or tampered with is found and rebuilt instead
+     * of being decoded into wrong data, see {@link ReedSolomon#decodeErrors}
+     *
+     * @throws IllegalArgumentException when more blocks are damaged than can
+     *                                  be found
+     */
+    @Override
+    @NotNull
+    public List<DataBlock> decode(@NotNull DataBlock[] blocks) {
+        int totalNum = getTotalBlockNum();
+        int len = Arrays.stream(blocks).filter(Objects::nonNull)
+                .map(d -> d.getBytes().length).reduce(0, Integer::max);
+        int presentNum = (int) Arrays.stream(blocks).filter(Objects::nonNull).count();
+        byte[][] shards = new byte[totalNum][];
+        boolean[] shardPresent = new boolean[totalNum];
+        boolean[] shardWanted = new boolean[totalNum];
+        if (presentNum >= dataBlockNum + 2) {
+            // the blocks are rewritten in place when one is bad, work on copies
+            for (int i = 0; i < totalNum; i++) {
+                shardPresent[i] = blocks[i] != null;
+                shards[i] = shardPresent[i] ? blocks[i].getBytes().clone() : new byte[len];
+            }
+            int[] badIds = reedSolomon.decodeErrors(shards, shardPresent, 0, len);
+            for (int id : badIds) {
+                shardPresent[id] = false;
+            }
+        } else {
+            for (int i = 0; i < totalNum; i++) {
+                shardPresent[i] = blocks[i] != null;
+                if (shardPresent[i]) {
+                    shards[i] = blocks[i].getBytes();
+                } else if (i < dataBlockNum) {
+                    shards[i] = new byte[len];
+                    shardWanted[i] = true;
+                }
+            }
+
+            // ensure the services can guarantee even a storage provider is broken,
+            // only the lost data blocks are rebuilt
+            reedSolomon.decodeSome(shards, shardPresent, shardWanted, 0, len);
+        }
+        List<DataBlock> dataBlocks = new ArrayList<>();
+        for (int i = 0; i < dataBlockNum; i++) {
+            dataBlocks.add(shardPresent[i] ? blocks[i] : new DataBlock(shards[i]));
+        }
+        return dataBlocks;
+    }
+
+    @Override
+    @NotNull
+    public int[] repairSources(int lostBlockId, @NotNull boolean[] present) {
+        int[] sources = new int[dataBlockNum];
+        int num = 0;
+        for (int i = 0; i < getTotalBlockNum() && num < dataBlockNum; i++) {
+            if (i != lostBlockId && present[i]) {
+                sources[num++] = i;
+            }
+        }
+        if (num < dataBlockNum) {
+            throw new IllegalArgumentException("Not enough blocks to rebuild block " + lostBlockId);
+        }
+        return sources;
+    }
+
+    @Override
+    @NotNull
+    public DataBlock repair(@NotNull DataBlock[] blocks, int lostBlockId) {
+        int totalNum = getTotalBlockNum();
+        boolean[] present = new boolean[totalNum];
+        for (int i = 0; i < totalNum; i++) {
+            present[i] = i != lostBlockId && blocks[i] != null;
+        }
+        int[] sources = repairSources(lostBlockId, present);
+        int len = blocks[sources[0]].getBytes().length;
+
+        byte[][] shards = new byte[totalNum][];
+        boolean[] shardPresent = new boolean[totalNum];
+        for (int id : sources) {
+            shards[id] = blocks[id].getBytes();
+            shardPresent[id] = true;
+        }
+        shards[lostBlockId] = new byte[len];
+        boolean[] shardWanted = new boolean[totalNum];
+        shardWanted[lostBlockId] = true;
+        reedSolomon.decodeSome(shards, shardPresent, shardWanted, 0, len);
+        return new DataBlock(shards[lostBlockId]);
+    }
+}
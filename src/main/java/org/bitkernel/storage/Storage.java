@@ -1,28 +1,60 @@
 package org.bitkernel.storage;
 
 import com.sun.istack.internal.NotNull;
+import com.sun.istack.internal.Nullable;
 import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.bitkernel.Util;
 import org.bitkernel.common.CmdType;
 import org.bitkernel.common.Config;
 import org.bitkernel.common.Udp;
+import org.bitkernel.storage.BlockStore.KeyType;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.DatagramPacket;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
 
 @Slf4j
 @NoArgsConstructor
 public class Storage {
-    /** hash key -> data block */
-    private final Map<String, List<DataBlock>> priKeyDataBlockMap = new LinkedHashMap<>();
-    /** hash key -> data block */
-    private final Map<String, List<DataBlock>> pubKeyDataBlockMap = new LinkedHashMap<>();
+    /** hash key -> data blocks, of both the pub and the pri keys, kept on disk */
+    private BlockStore store;
+    /**
+     * single thread workers, the requests of a hash key always go to the same one,
+     * so they are handled in the order they came while other keys are served in parallel
+     */
+    private ExecutorService[] workers;
     private Udp udp;
     private int idx;
 
     public Storage(int idx) {
         this.idx = idx;
+        File dir = new File(Config.getStorageDataDir(), "storage" + idx);
+        try {
+            store = new BlockStore(dir, Config.getStorageSegmentSize(),
+                    Config.getStorageSyncWindowMs(), Config.getStorageSyncBatchSize());
+        } catch (IOException e) {
+            logger.error("Open the block store in {} failed: {}", dir, e.getMessage());
+            System.exit(-1);
+        }
+        // write the index on the way out, so the next start does not replay the last segment
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                store.close();
+            } catch (IOException e) {
+                logger.error("Close the block store in {} failed: {}", dir, e.getMessage());
+            }
+        }));
+        int workerNum = Config.getStorageWorkers() > 0 ?
+                Config.getStorageWorkers() : Runtime.getRuntime().availableProcessors();
+        workers = new ExecutorService[workerNum];
+        for (int i = 0; i < workerNum; i++) {
+            workers[i] = Executors.newSingleThreadExecutor();
+        }
         udp = new Udp(Config.getStoragePort(idx));
     }
 
@@ -36,8 +68,65 @@ public class Storage {
         logger.debug("Storage{} instance start success", idx);
         while (true) {
             DatagramPacket pkt = udp.receivePkt();
-            String fullCmdLine = udp.pktToString(pkt);
-            response(pkt, fullCmdLine);
+            // the blocks a put carries follow the command line in binary
+            String fullCmdLine = BlockPacket.decodeCommandLine(pkt);
+            try {
+                if (dispatchBatch(pkt, fullCmdLine)) {
+                    continue;
+                }
+            } catch (RuntimeException e) {
+                logger.error("Handle request [{}] failed: {}", fullCmdLine, e.getMessage());
+                continue;
+            }
+            workerOf(hashKeyOf(fullCmdLine)).execute(() -> {
+                try {
+                    response(pkt, fullCmdLine);
+                } catch (RuntimeException e) {
+                    logger.error("Handle request [{}] failed: {}", fullCmdLine, e.getMessage());
+                }
+            });
+        }
+    }
+
+    @NotNull
+    private String hashKeyOf(@NotNull String fullCmdLine) {
+        String[] split = fullCmdLine.split("@");
+        return split.length > 2 ? split[2].split(":")[0] : "";
+    }
+
+    @NotNull
+    private ExecutorService workerOf(@NotNull String hashKey) {
+        return workers[Math.floorMod(hashKey.hashCode(), workers.length)];
+    }
+
+    /**
+     * A batch is split by key as soon as it comes, and the part of each key is
+     * queued on the worker of that key, so it is served in order with the other
+     * requests of the key, as a request of that key alone would be
+     *
+     * @return false if the request is not a batch
+     */
+    private boolean dispatchBatch(@NotNull DatagramPacket pkt, @NotNull String fullCmdLine) {
+        String[] split = fullCmdLine.split("@");
+        CmdType type = split.length > 1 ? CmdType.cmdToEnumMap.get(split[1].trim()) : null;
+        if (type == null) {
+            return false;
+        }
+        switch (type) {
+            case PUT_PUB_KEY_BATCH:
+                putBatch(pkt, KeyType.PUB_KEY);
+                return true;
+            case PUT_PRI_KEY_BATCH:
+                putBatch(pkt, KeyType.PRI_KEY);
+                return true;
+            case GET_PUB_KEY_BATCH:
+                getBatch(pkt, KeyType.PUB_KEY);
+                return true;
+            case GET_PRI_KEY_BATCH:
+                getBatch(pkt, KeyType.PRI_KEY);
+                return true;
+            default:
+                return false;
         }
     }
 
@@ -72,85 +161,170 @@ public class Storage {
         }
     }
     private void removePriKey(@NotNull DatagramPacket pkt, @NotNull String priHashKey) {
-        priKeyDataBlockMap.remove(priHashKey);
+        remove(KeyType.PRI_KEY, priHashKey);
     }
 
     private void removePubKey(@NotNull DatagramPacket pkt, @NotNull String pubHashKey) {
-        pubKeyDataBlockMap.remove(pubHashKey);
+        remove(KeyType.PUB_KEY, pubHashKey);
+    }
+
+    private void remove(@NotNull KeyType type, @NotNull String hashKey) {
+        store.remove(type, hashKey).whenComplete((v, e) -> {
+            if (e != null) {
+                logger.error("Remove the blocks of {} failed: {}", hashKey, e.getMessage());
+            }
+        });
     }
 
     public void putPriKeyBlock(@NotNull DatagramPacket pkt, @NotNull String msg) {
-        String[] split = msg.split(":");
-        String hashKey = split[0];
-        byte[] bytes = Util.stringToByteArray(split[1]);
-        DataBlock block = new DataBlock(bytes);
-        putPriKeyBlock(hashKey, block);
-        logger.debug("Store the {}th pri key block, length: {}",
-                block.getBlockId(), block.getBytes().length);
+        String hashKey = msg.split(":")[0];
+        List<DataBlock> blocks = BlockPacket.decodeCommandBlocks(pkt);
+        if (blocks == null || blocks.size() != 1) {
+            logger.error("Expect one data block for {}", hashKey);
+            udp.send(pkt, "FALSE");
+            return;
+        }
+        DataBlock block = blocks.get(0);
+        // acked once the block is on the disk, the next requests are served meanwhile
+        putPriKeyBlock(hashKey, block).whenComplete((v, e) -> ack(pkt, hashKey, block, e));
+    }
+
+    @NotNull
+    public CompletableFuture<Void> putPriKeyBlock(@NotNull String hashKey,
+                                                  @NotNull DataBlock dataBlock) {
+        return store.put(KeyType.PRI_KEY, hashKey, dataBlock);
+    }
+
+    private void ack(@NotNull DatagramPacket pkt, @NotNull String hashKey,
+                     @NotNull DataBlock block, @Nullable Throwable e) {
+        if (e != null) {
+            logger.error("Store the {}th block of {} failed: {}",
+                    new Object[]{block.getBlockId(), hashKey, e.getMessage()});
+            udp.send(pkt, "FALSE");
+            return;
+        }
+        logger.debug("Store the {}th block of {}, length: {}",
+                new Object[]{block.getBlockId(), hashKey, block.getBytes().length});
         udp.send(pkt, "TRUE");
     }
 
-    public void putPriKeyBlock(@NotNull String hashKey,
-                               @NotNull DataBlock dataBlock) {
-        priKeyDataBlockMap.putIfAbsent(hashKey, new ArrayList<>());
-        priKeyDataBlockMap.get(hashKey).add(dataBlock);
+    /**
+     * Store the blocks of many keys, each key on its own worker, and answer with
+     * whether the blocks of each key are stored once they are all on the disk,
+     * which takes one sync for all of them
+     */
+    private void putBatch(@NotNull DatagramPacket pkt, @NotNull KeyType type) {
+        Map<String, List<DataBlock>> keyedBlocks = BlockPacket.decodeCommandKeyedBlocks(pkt);
+        if (keyedBlocks == null) {
+            // the keys can not be named, the gateway counts them as failed when it gets no answer
+            return;
+        }
+        Map<String, CompletableFuture<Boolean>> stored = new LinkedHashMap<>();
+        keyedBlocks.forEach((hashKey, blocks) -> stored.put(hashKey,
+                CompletableFuture.supplyAsync(() -> putAll(type, hashKey, blocks), workerOf(hashKey))
+                        .thenCompose(Function.identity())
+                        .handle((v, e) -> {
+                            if (e != null) {
+                                logger.error("Store the blocks of {} failed: {}", hashKey, e.getMessage());
+                            }
+                            return e == null;
+                        })));
+        allOf(stored).thenApply(BlockPacket::encodeKeyStatuses)
+                .whenComplete((packets, e) -> answer(pkt, packets, e));
+    }
+
+    @NotNull
+    private CompletableFuture<Void> putAll(@NotNull KeyType type, @NotNull String hashKey,
+                                           @NotNull List<DataBlock> blocks) {
+        CompletableFuture<?>[] puts = blocks.stream()
+                .map(block -> store.put(type, hashKey, block))
+                .toArray(CompletableFuture<?>[]::new);
+        return CompletableFuture.allOf(puts);
+    }
+
+    /**
+     * Answer with the blocks of many keys, each key read on its own worker,
+     * none for the keys that are not stored
+     */
+    private void getBatch(@NotNull DatagramPacket pkt, @NotNull KeyType type) {
+        List<String> hashKeys = BlockPacket.decodeCommandKeys(pkt);
+        if (hashKeys == null) {
+            return;
+        }
+        Map<String, CompletableFuture<List<DataBlock>>> found = new LinkedHashMap<>();
+        for (String hashKey : hashKeys) {
+            found.put(hashKey, CompletableFuture.supplyAsync(() -> store.get(type, hashKey), workerOf(hashKey)));
+        }
+        allOf(found).thenApply(BlockPacket::encodeKeyedBlocks)
+                .whenComplete((packets, e) -> answer(pkt, packets, e));
+    }
+
+    /**
+     * @return completes with hash key -> result once the part of every key is done
+     */
+    @NotNull
+    private static <T> CompletableFuture<Map<String, T>> allOf(@NotNull Map<String, CompletableFuture<T>> parts) {
+        return CompletableFuture.allOf(parts.values().toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            Map<String, T> res = new LinkedHashMap<>();
+            parts.forEach((hashKey, part) -> res.put(hashKey, part.join()));
+            return res;
+        });
+    }
+
+    private void answer(@NotNull DatagramPacket pkt, @Nullable List<byte[]> packets, @Nullable Throwable e) {
+        if (e != null) {
+            logger.error("Answer a batch failed: {}", e.getMessage());
+            return;
+        }
+        for (byte[] bytes : packets) {
+            udp.send(pkt, bytes);
+        }
     }
 
     public void getPriKeyDataBlocks(@NotNull DatagramPacket pkt, @NotNull String msg) {
         List<DataBlock> priKeyDataBlocks = getPriKeyDataBlocks(msg);
-        udp.send(pkt, serialize(priKeyDataBlocks));
+        udp.send(pkt, BlockPacket.encodeBlocks(priKeyDataBlocks));
     }
 
     @NotNull
     public List<DataBlock> getPriKeyDataBlocks(@NotNull String hashKey) {
-        if (!priKeyDataBlockMap.containsKey(hashKey)) {
+        if (!store.contains(KeyType.PRI_KEY, hashKey)) {
             logger.error("Data blocks not found with hash {}", hashKey);
             return new ArrayList<>();
         }
-        return priKeyDataBlockMap.get(hashKey);
+        return store.get(KeyType.PRI_KEY, hashKey);
     }
 
     public void putPubKeyBlock(@NotNull DatagramPacket pkt, @NotNull String msg) {
-        String[] split = msg.split(":");
-        String hashKey = split[0];
-        byte[] bytes = Util.stringToByteArray(split[1]);
-        DataBlock block = new DataBlock(bytes);
-        putPubKeyBlock(hashKey, block);
-        logger.debug("Store the {}th pub key block, length: {}",
-                block.getBlockId(), block.getBytes().length);
-        udp.send(pkt, "TRUE");
+        String hashKey = msg.split(":")[0];
+        List<DataBlock> blocks = BlockPacket.decodeCommandBlocks(pkt);
+        if (blocks == null || blocks.size() != 1) {
+            logger.error("Expect one data block for {}", hashKey);
+            udp.send(pkt, "FALSE");
+            return;
+        }
+        DataBlock block = blocks.get(0);
+        // acked once the block is on the disk, the next requests are served meanwhile
+        putPubKeyBlock(hashKey, block).whenComplete((v, e) -> ack(pkt, hashKey, block, e));
     }
 
-    public void putPubKeyBlock(@NotNull String hashKey,
-                               @NotNull DataBlock dataBlock) {
-        pubKeyDataBlockMap.putIfAbsent(hashKey, new ArrayList<>());
-        pubKeyDataBlockMap.get(hashKey).add(dataBlock);
+    @NotNull
+    public CompletableFuture<Void> putPubKeyBlock(@NotNull String hashKey,
+                                                  @NotNull DataBlock dataBlock) {
+        return store.put(KeyType.PUB_KEY, hashKey, dataBlock);
     }
 
     public void getPubKeyBlocks(@NotNull DatagramPacket pkt, @NotNull String msg) {
         List<DataBlock> pubKeyBlocks = getPubKeyBlocks(msg);
-        udp.send(pkt, serialize(pubKeyBlocks));
-    }
-
-    @NotNull
-    private static String serialize(@NotNull List<DataBlock> pubKeyBlocks) {
-        if (pubKeyBlocks.isEmpty()) {
-            return "";
-        }
-        StringBuilder sb = new StringBuilder();
-        for (DataBlock data: pubKeyBlocks) {
-            sb.append(Arrays.toString(data.getBytes())).append(":");
-        }
-        sb.deleteCharAt(sb.length() - 1);
-        return sb.toString();
+        udp.send(pkt, BlockPacket.encodeBlocks(pubKeyBlocks));
     }
 
     @NotNull
     public List<DataBlock> getPubKeyBlocks(@NotNull String hashKey) {
-        if (!pubKeyDataBlockMap.containsKey(hashKey)) {
+        if (!store.contains(KeyType.PUB_KEY, hashKey)) {
             logger.error("Data block not found with hash {}", hashKey);
             return new ArrayList<>();
         }
-        return pubKeyDataBlockMap.get(hashKey);
+        return store.get(KeyType.PUB_KEY, hashKey);
     }
 }
\ No newline at end of file
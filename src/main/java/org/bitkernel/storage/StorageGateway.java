@@ -1,32 +1,54 @@
 package org.bitkernel.storage;
 
 import com.sun.istack.internal.NotNull;
+import com.sun.istack.internal.Nullable;
 import javafx.util.Pair;
 import lombok.extern.slf4j.Slf4j;
-import org.bitkernel.Util;
 import org.bitkernel.common.CmdType;
 import org.bitkernel.common.Config;
 import org.bitkernel.common.Udp;
-import org.bitkernel.reedsolomon.robinliew.dealbytesinterface.IRSErasureCorrection;
-import org.bitkernel.reedsolomon.robinliew.dealbytesinterface.RSErasureCorrectionImpl;
 import org.bitkernel.cryptography.RSAUtil;
 
+import java.net.DatagramPacket;
 import java.net.SocketException;
 import java.security.PublicKey;
 import java.util.*;
+import java.util.function.Function;
 
 @Slf4j
 public class StorageGateway {
-    private final static int SLICE_NUM = 4;
-    private final static int CHECK_NUM = 2;
-    private final static int TOTAL_BLOCK_NUM = SLICE_NUM + CHECK_NUM;
+    /** how long to wait for an answer a storage provider reads from memory */
+    private static final int RECEIVE_TIMEOUT_MS = 50;
+    /**
+     * how long to wait for the answer to a put batch, a storage provider only
+     * answers once the blocks are synced to its disk
+     */
+    private static final int PUT_BATCH_TIMEOUT_MS = 2000;
     private final Udp udp;
     private final String sysName = "gate way";
+    /** erasure code of the data blocks, must be the one they were generated with */
+    private final BlockCodec codec;
+    /** whether the blocks are stored with a checksum, see {@link DataBlock#withChecksum()} */
+    private final boolean checksum;
 
     public StorageGateway() {
+        this(BlockCodec.create(Config.getStorageCodec()));
+    }
+
+    public StorageGateway(@NotNull BlockCodec codec) {
+        this(codec, Config.isStorageChecksum());
+    }
+
+    public StorageGateway(@NotNull BlockCodec codec, boolean checksum) {
+        this.codec = codec;
+        this.checksum = checksum;
         udp = new Udp();
+        setReceiveTimeout(RECEIVE_TIMEOUT_MS);
+    }
+
+    private void setReceiveTimeout(int timeoutMs) {
         try {
-            udp.getSocket().setSoTimeout(50);
+            udp.getSocket().setSoTimeout(timeoutMs);
         } catch (SocketException e) {
             throw new RuntimeException(e);
         }
@@ -54,62 +76,68 @@ public class StorageGateway {
 
     public void storePriKeyBlock(@NotNull String hashKey,
                                  @NotNull List<DataBlock> dataBlocks) {
-        List<Integer> workingStorageIdxList = getWorkingStorageIdxs();
-        int perNum = dataBlocks.size() / workingStorageIdxList.size();
-        for (int i = 0; i < workingStorageIdxList.size(); i++) {
-            int storageIdx = workingStorageIdxList.get(i);
-            for (int j = 0; j < perNum; j++) {
-                int blockId = i * perNum + j;
-                DataBlock dataBlock = dataBlocks.get(blockId);
-                if (putPriKeyBlock(storageIdx, hashKey, dataBlock)) {
-                    logger.debug("Store the {}th pri key data block success, block length: {}",
-                            blockId, dataBlock.getBytes().length);
-                } else {
-                    logger.error("Store the {}th pri key data block failed", blockId);
-                }
-            }
-        }
+        storeBatch(CmdType.PUT_PRI_KEY_BATCH, Collections.singletonMap(hashKey, dataBlocks));
     }
 
-    private boolean putPriKeyBlock(int idx, @NotNull String hashKey,
-                                   @NotNull DataBlock dataBlock) {
-        String ip = Config.getStorageIp(idx);
-        int port = Config.getStoragePort(idx);
-        String cmd = String.format("%s@%s@%s:%s", sysName, CmdType.PUT_PRI_KEY_BLOCK.cmd,
-                hashKey, Arrays.toString(dataBlock.getBytes()));
-        udp.send(ip, port, cmd);
-        String rsp = udp.receiveString();
-        return rsp.equals("TRUE");
+    /**
+     * Store the blocks of many keys, with a round trip to each storage provider
+     * for all of them instead of one for every block
+     *
+     * @param keyedBlocks hash key -> data blocks
+     * @return hash key -> whether all its blocks are stored
+     */
+    @NotNull
+    public Map<String, Boolean> storePriKeyBlocks(@NotNull Map<String, List<DataBlock>> keyedBlocks) {
+        return storeBatch(CmdType.PUT_PRI_KEY_BATCH, keyedBlocks);
     }
 
     public void storePubKeyBlock(@NotNull String hashKey,
                                   @NotNull List<DataBlock> dataBlocks) {
+        storeBatch(CmdType.PUT_PUB_KEY_BATCH, Collections.singletonMap(hashKey, dataBlocks));
+    }
+
+    @NotNull
+    private Map<String, Boolean> storeBatch(@NotNull CmdType type,
+                                            @NotNull Map<String, List<DataBlock>> keyedBlocks) {
         List<Integer> workingStorageIdxList = getWorkingStorageIdxs();
-        int perNum = dataBlocks.size() / workingStorageIdxList.size();
-        for (int i = 0; i < workingStorageIdxList.size(); i++) {
-            int storageIdx = workingStorageIdxList.get(i);
-            for (int j = 0; j < perNum; j++) {
-                int blockId = i * perNum + j;
-                DataBlock dataBlock = dataBlocks.get(blockId);
-                if (putPubKeyBlock(storageIdx, hashKey, dataBlock)) {
-                    logger.debug("Store the {}th pub key data block success, block length: {}",
-                            blockId, dataBlock.getBytes().length);
+        boolean working = !workingStorageIdxList.isEmpty();
+        Map<String, Boolean> res = new LinkedHashMap<>();
+        keyedBlocks.keySet().forEach(hashKey -> res.put(hashKey, working));
+        if (!working) {
+            logger.error("No storage is working, the blocks of {} keys are not stored", res.size());
+            return res;
+        }
+
+        // spread the blocks of each key round robin, so that any number of blocks can be stored
+        Map<Integer, Map<String, List<DataBlock>>> storageBatches = new LinkedHashMap<>();
+        keyedBlocks.forEach((hashKey, dataBlocks) -> {
+            for (int blockId = 0; blockId < dataBlocks.size(); blockId++) {
+                int storageIdx = workingStorageIdxList.get(blockId % workingStorageIdxList.size());
+                storageBatches.computeIfAbsent(storageIdx, idx -> new LinkedHashMap<>())
+                        .computeIfAbsent(hashKey, key -> new ArrayList<>())
+                        .add(seal(dataBlocks.get(blockId)));
+            }
+        });
+
+        storageBatches.forEach((idx, batch) -> {
+            String ip = Config.getStorageIp(idx);
+            int port = Config.getStoragePort(idx);
+            for (byte[] cmd : BlockPacket.encodeKeyedBlocksCommand(sysName, type, batch)) {
+                udp.send(ip, port, cmd);
+            }
+            Map<String, Boolean> statuses = receiveBatch(batch.keySet(),
+                    BlockPacket::decodeKeyStatuses, PUT_BATCH_TIMEOUT_MS);
+            for (String hashKey : batch.keySet()) {
+                if (statuses.getOrDefault(hashKey, false)) {
+                    logger.debug("Store {} data blocks of {} in storage{} success",
+                            new Object[]{batch.get(hashKey).size(), hashKey, idx});
                 } else {
-                    logger.error("Store the {}th pub key data block failed", blockId);
+                    logger.error("Store the data blocks of {} in storage{} failed", hashKey, idx);
+                    res.put(hashKey, false);
                 }
             }
-        }
-    }
-
-    private boolean putPubKeyBlock(int idx, @NotNull String hashKey,
-                                   @NotNull DataBlock dataBlock) {
-        String ip = Config.getStorageIp(idx);
-        int port = Config.getStoragePort(idx);
-        String cmd = String.format("%s@%s@%s:%s",
-                sysName, CmdType.PUT_PUB_KEY_BLOCK.cmd, hashKey, Arrays.toString(dataBlock.getBytes()));
-        udp.send(ip, port, cmd);
-        String rsp = udp.receiveString();
-        return rsp.equals("TRUE");
+        });
+        return res;
     }
 
     @NotNull
@@ -134,6 +162,9 @@ public class StorageGateway {
         return getPubKeyBlocks(hashKey).size();
     }
 
+    /**
+     * @return the blocks of the key in block id order, whichever storage provider holds them
+     */
     @NotNull
     public List<DataBlock> getPubKeyBlocks(@NotNull String hashKey) {
         List<Integer> workingStorageIdList = getWorkingStorageIdxs();
@@ -141,16 +172,21 @@ public class StorageGateway {
         for (int idx : workingStorageIdList) {
             res.addAll(getPubKeyBlocks(idx, hashKey));
         }
-        return res;
+        return inBlockOrder(res);
+    }
+
+    /**
+     * @return hash key -> data blocks in block id order, fetched with a round trip to
+     * each storage provider for all the keys, no blocks for the keys that are not stored
+     */
+    @NotNull
+    public Map<String, List<DataBlock>> getPubKeyBlocks(@NotNull List<String> hashKeys) {
+        return getBatch(CmdType.GET_PUB_KEY_BATCH, hashKeys);
     }
 
     @NotNull
     public PublicKey getPubKey(@NotNull String hashKey) {
-        DataBlock[] dataBlocks = new DataBlock[TOTAL_BLOCK_NUM];
-        List<DataBlock> pubKeyBlocks = getPubKeyBlocks(hashKey);
-        for (DataBlock block: pubKeyBlocks) {
-            dataBlocks[block.getBlockId()] = block;
-        }
+        DataBlock[] dataBlocks = unsealAll(getPubKeyBlocks(hashKey));
         byte[] bytes = reedSolomonCheck(dataBlocks);
         return RSAUtil.getPublicKey(new String(bytes));
     }
@@ -161,10 +197,12 @@ public class StorageGateway {
         int port = Config.getStoragePort(idx);
         String cmd = String.format("%s@%s@%s", sysName, CmdType.GET_PUB_KEY_BLOCKS.cmd, hashKey);
         udp.send(ip, port, cmd);
-        String rsp = udp.receiveString();
-        return convertToDataBlocks(rsp);
+        return receiveBlocks();
     }
 
+    /**
+     * @return the blocks of the key in block id order, whichever storage provider holds them
+     */
     @NotNull
     public List<DataBlock> getSubPriKeyBlocks(@NotNull String hashKey) {
         List<Integer> workingStorageIdList = getWorkingStorageIdxs();
@@ -173,16 +211,21 @@ public class StorageGateway {
             List<DataBlock> blocks = getPriKeyDataBlocks(idx, hashKey);
             res.addAll(blocks);
         }
-        return res;
+        return inBlockOrder(res);
+    }
+
+    /**
+     * @return hash key -> data blocks in block id order, fetched with a round trip to
+     * each storage provider for all the keys, no blocks for the keys that are not stored
+     */
+    @NotNull
+    public Map<String, List<DataBlock>> getSubPriKeyBlocks(@NotNull List<String> hashKeys) {
+        return getBatch(CmdType.GET_PRI_KEY_BATCH, hashKeys);
     }
 
     @NotNull
     public Pair<Integer, byte[]> getSubPriKey(@NotNull String hashKey) {
-        DataBlock[] dataBlocks = new DataBlock[TOTAL_BLOCK_NUM];
-        List<DataBlock> subPriKeyBlocks = getSubPriKeyBlocks(hashKey);
-        for (DataBlock block : subPriKeyBlocks) {
-            dataBlocks[block.getBlockId()] = block;
-        }
+        DataBlock[] dataBlocks = unsealAll(getSubPriKeyBlocks(hashKey));
         int belongKeyId = Arrays.stream(dataBlocks).filter(Objects::nonNull)
                 .findFirst().get().getBelongKeyId();
         return new Pair<>(belongKeyId, reedSolomonCheck(dataBlocks));
@@ -195,64 +238,173 @@ public class StorageGateway {
         String cmd = String.format("%s@%s@%s", sysName,
                 CmdType.GET_PRI_KEY_BLOCKS.cmd, hashKey);
         udp.send(ip, port, cmd);
-        String rsp = udp.receiveString();
-        return convertToDataBlocks(rsp);
+        return receiveBlocks();
+    }
+
+    @NotNull
+    private Map<String, List<DataBlock>> getBatch(@NotNull CmdType type, @NotNull List<String> hashKeys) {
+        List<Integer> workingStorageIdList = getWorkingStorageIdxs();
+        Map<String, List<DataBlock>> res = new LinkedHashMap<>();
+        hashKeys.forEach(hashKey -> res.put(hashKey, new ArrayList<>()));
+        for (int idx : workingStorageIdList) {
+            String ip = Config.getStorageIp(idx);
+            int port = Config.getStoragePort(idx);
+            for (byte[] cmd : BlockPacket.encodeKeysCommand(sysName, type, hashKeys)) {
+                udp.send(ip, port, cmd);
+            }
+            receiveBatch(res.keySet(), BlockPacket::decodeKeyedBlocks, RECEIVE_TIMEOUT_MS)
+                    .forEach((hashKey, blocks) -> res.get(hashKey).addAll(blocks));
+        }
+        res.values().forEach(StorageGateway::inBlockOrder);
+        return res;
+    }
+
+    /**
+     * The blocks of a key are spread round robin, so they come back in the order
+     * of the storage providers, put them back in the order they were generated
+     */
+    @NotNull
+    private static List<DataBlock> inBlockOrder(@NotNull List<DataBlock> blocks) {
+        blocks.sort(Comparator.comparingInt(DataBlock::getBlockId));
+        return blocks;
+    }
+
+    /**
+     * Receive the answers to a batch, which may come in many packets, until every
+     * key is answered or the storage provider does not answer in time. Answers
+     * to other keys are left out, they are late ones to an earlier request.
+     *
+     * @param timeoutMs how long to wait for each packet
+     * @return hash key -> its answer, for the keys that are answered
+     */
+    @NotNull
+    private <T> Map<String, T> receiveBatch(@NotNull Set<String> hashKeys,
+                                            @NotNull Function<DatagramPacket, Map<String, T>> decoder,
+                                            int timeoutMs) {
+        Map<String, T> res = new LinkedHashMap<>();
+        setReceiveTimeout(timeoutMs);
+        try {
+            while (res.size() < hashKeys.size()) {
+                DatagramPacket pkt = udp.receivePkt();
+                if (pkt == null) {
+                    break;
+                }
+                Map<String, T> answers = decoder.apply(pkt);
+                if (answers == null) {
+                    continue;
+                }
+                answers.forEach((hashKey, answer) -> {
+                    if (hashKeys.contains(hashKey)) {
+                        res.put(hashKey, answer);
+                    }
+                });
+            }
+        } finally {
+            setReceiveTimeout(RECEIVE_TIMEOUT_MS);
+        }
+        return res;
     }
 
     /**
-     * @param rsp a string of data block list, the format is [block1]:[block2]...
-     * @return a list of data block
+     * @return the data blocks a storage provider answered with, see {@link BlockPacket},
+     * none if it did not answer in time
      */
     @NotNull
-    private static List<DataBlock> convertToDataBlocks(@NotNull String rsp) {
-        if (rsp.equals("")) {
+    private List<DataBlock> receiveBlocks() {
+        DatagramPacket pkt = udp.receivePkt();
+        if (pkt == null) {
             return new ArrayList<>();
         }
-        String[] split = rsp.split(":");
-        List<DataBlock> dataBlocks = new ArrayList<>();
-        for (String blockStr : split) {
-            byte[] bytes = Util.stringToByteArray(blockStr);
-            DataBlock block = new DataBlock(bytes);
-            dataBlocks.add(block);
+        List<DataBlock> dataBlocks = BlockPacket.decodeBlocks(pkt);
+        return dataBlocks == null ? new ArrayList<>() : dataBlocks;
+    }
+
+    @NotNull
+    private DataBlock seal(@NotNull DataBlock block) {
+        return checksum ? block.withChecksum() : block;
+    }
+
+    /**
+     * Check the blocks read from the storage providers against their
+     * checksums, which only reads each block once, so that a damaged block
+     * is rebuilt by the erasure code like a lost one instead of decoding
+     * into wrong data
+     *
+     * @param blocks blocks as stored
+     * @return an array of length {@link BlockCodec#getTotalBlockNum()} indexed by
+     * block id, null for the blocks that are lost or damaged
+     */
+    @NotNull
+    private DataBlock[] unsealAll(@NotNull List<DataBlock> blocks) {
+        DataBlock[] dataBlocks = new DataBlock[codec.getTotalBlockNum()];
+        for (DataBlock block : blocks) {
+            DataBlock unsealed = unseal(block);
+            if (unsealed != null) {
+                dataBlocks[unsealed.getBlockId()] = unsealed;
+            }
         }
         return dataBlocks;
     }
 
     /**
-     * Recover data through Reel Solomon, it can guarantee service
-     * even when a storage provider is no longer online.
+     * Strip the checksums the blocks were stored with, for callers that compare
+     * the blocks themselves instead of decoding them
      *
-     * @param blocks an array of data blocks of length {@link #TOTAL_BLOCK_NUM}
-     * @return origin data
+     * @param blocks blocks as stored
+     * @return the blocks in the same order, without the damaged ones
      */
     @NotNull
-    private byte[] reedSolomonCheck(@NotNull DataBlock[] blocks) {
-        int len = Arrays.stream(blocks).filter(Objects::nonNull)
-                .map(d -> d.getBytes().length).reduce(0, Integer::max);
-        byte[] dataBytesWithCheck = new byte[len * TOTAL_BLOCK_NUM];
-        boolean[] eraserFlag = new boolean[TOTAL_BLOCK_NUM];
-        Arrays.fill(eraserFlag, true);
-
-        for (int i = 0; i < TOTAL_BLOCK_NUM; i++) {
-            DataBlock block = blocks[i];
-            if (block == null) {
-                eraserFlag[i] = false;
-                continue;
+    public List<DataBlock> unsealBlocks(@NotNull List<DataBlock> blocks) {
+        List<DataBlock> res = new ArrayList<>();
+        for (DataBlock block : blocks) {
+            DataBlock unsealed = unseal(block);
+            if (unsealed != null) {
+                res.add(unsealed);
             }
-            System.arraycopy(block.getBytes(), 0, dataBytesWithCheck, i * len, len);
         }
+        return res;
+    }
 
-        // ensure the services can guarantee even a storage provider is broken
-        IRSErasureCorrection rsProcessor = new RSErasureCorrectionImpl();
-        int code = rsProcessor.decoder(dataBytesWithCheck, len, SLICE_NUM, CHECK_NUM, eraserFlag);
-        List<DataBlock> dataBlocks = DataBlock.convertToBlockList(dataBytesWithCheck, 6);
+    @Nullable
+    private DataBlock unseal(@NotNull DataBlock block) {
+        if (!checksum) {
+            return block;
+        }
+        DataBlock unsealed = block.withoutChecksum();
+        if (unsealed == null) {
+            logger.error("A data block does not match its checksum, treat it as lost");
+        }
+        return unsealed;
+    }
 
-        // remove check data blocks
-        dataBlocks.remove(dataBlocks.size() - 1);
-        dataBlocks.remove(dataBlocks.size() - 1);
+    /**
+     * Recover data through the erasure code, it can guarantee service
+     * even when a storage provider is no longer online.
+     *
+     * @param blocks an array of data blocks of length {@link BlockCodec#getTotalBlockNum()}
+     * @return origin data
+     */
+    @NotNull
+    private byte[] reedSolomonCheck(@NotNull DataBlock[] blocks) {
+        // ensure the services can guarantee even a storage provider is broken
+        List<DataBlock> dataBlocks = codec.decode(blocks);
         return parse(dataBlocks);
     }
 
+    /**
+     * Rebuild a data block lost by a storage provider, using only the blocks
+     * the erasure code needs for it, for example the rest of its local group
+     *
+     * @param blocks      an array of data blocks of length {@link BlockCodec#getTotalBlockNum()},
+     *                    null for the blocks that are not available
+     * @param lostBlockId id of the block to rebuild
+     * @return the rebuilt block
+     */
+    @NotNull
+    public DataBlock repairBlock(@NotNull DataBlock[] blocks, int lostBlockId) {
+        return codec.repair(blocks, lostBlockId);
+    }
+
     /**
      * parsing out origin data based on data blocks
      */
@@ -0,0 +1,46 @@
+/**
+ * Finds the SIMD coding loop, when the JVM has one.
+ */
+
+package org.bitkernel.reedsolomon;
+
+/**
+ * Finds the SIMD coding loop, when the JVM has one.
+ *
+ * This is the Java 17 version of the class, packaged under
+ * META-INF/versions/17.  The Vector API is still an incubator module,
+ * so it is only there when the JVM is started with
+ * "--add-modules jdk.incubator.vector".  Without it, loading
+ * VectorNibbleCodingLoop would fail, so it is loaded by name only
+ * after checking for the module.
+ */
+final class VectorCodingLoops {
+
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+
+    private static final CodingLoop VECTOR_CODING_LOOP = loadVectorCodingLoop();
+
+    private VectorCodingLoops() {}
+
+    /**
+     * Returns the SIMD coding loop, or null if there isn't one.
+     */
+    static CodingLoop vectorCodingLoop() {
+        return VECTOR_CODING_LOOP;
+    }
+
+    private static CodingLoop loadVectorCodingLoop() {
+        if (!ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent()) {
+            return null;
+        }
+        try {
+            Class<?> loopClass = Class.forName("org.bitkernel.reedsolomon.VectorNibbleCodingLoop");
+            if (!(Boolean) loopClass.getMethod("isSupported").invoke(null)) {
+                return null;
+            }
+            return (CodingLoop) loopClass.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+}
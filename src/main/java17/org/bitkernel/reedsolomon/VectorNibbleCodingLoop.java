@@ -0,0 +1,171 @@
+/**
+ * A coding loop that uses SIMD byte shuffles for the multiplication.
+ */
+
+package org.bitkernel.reedsolomon;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * A coding loop that uses SIMD byte shuffles for the multiplication.
+ *
+ * This needs Java 17 and the jdk.incubator.vector module, so it lives
+ * in the Java 17 part of the multi-release jar, and is only created by
+ * VectorCodingLoops when the module is there.
+ *
+ * Multiplying by a constant is linear, so c * x is c * (x & 0x0F) XOR
+ * c * (x & 0xF0).  For each coefficient we keep two 16-entry tables,
+ * the products with each low nibble and with each high nibble.  A
+ * vector of input bytes is split into its low and high nibbles, and
+ * each nibble vector picks entries out of its table with one shuffle
+ * (PSHUFB on x86, TBL on ARM), multiplying a whole vector of bytes with
+ * two shuffles and an XOR.
+ *
+ * The loops are nested like ByteOutputInputTableCodingLoop: for each
+ * vector of bytes, for each output, the products from all of the inputs
+ * are added up in a register and stored once.
+ *
+ * Bytes at the end of the range that don't fill a whole vector are done
+ * one at a time with the multiplication table.  The ByteBuffer methods
+ * are the ones from CodingLoopBase.
+ */
+public class VectorNibbleCodingLoop extends CodingLoopBase {
+
+    /**
+     * The preferred vector size, but no more than 256 bits.  Shuffling
+     * bytes across a whole 512-bit vector is much slower than within
+     * 256 bits, so on AVX-512 processors 256-bit vectors are faster.
+     */
+    private static final VectorSpecies<Byte> SPECIES =
+            ByteVector.SPECIES_PREFERRED.vectorBitSize() <= 256
+                    ? ByteVector.SPECIES_PREFERRED
+                    : ByteVector.SPECIES_256;
+
+    private static final int NIBBLE_VALUES = 16;
+
+    /**
+     * Returns true if the vectors on this processor are big enough to
+     * hold a whole nibble table.
+     */
+    public static boolean isSupported() {
+        return NIBBLE_VALUES <= SPECIES.length();
+    }
+
+    @Override
+    public void codeSomeShards(
+            byte[][] matrixRows,
+            byte[][] inputs, int inputCount,
+            byte[][] outputs, int outputCount,
+            int offset, int byteCount) {
+
+        final ByteVector [] [] lowTables = new ByteVector [outputCount] [inputCount];
+        final ByteVector [] [] highTables = new ByteVector [outputCount] [inputCount];
+        buildTables(matrixRows, inputCount, outputCount, lowTables, highTables);
+
+        final int vectorEnd = offset + SPECIES.loopBound(byteCount);
+        for (int iByte = offset; iByte < vectorEnd; iByte += SPECIES.length()) {
+            for (int iOutput = 0; iOutput < outputCount; iOutput++) {
+                final ByteVector [] lowRow = lowTables[iOutput];
+                final ByteVector [] highRow = highTables[iOutput];
+                ByteVector value = ByteVector.zero(SPECIES);
+                for (int iInput = 0; iInput < inputCount; iInput++) {
+                    ByteVector input = ByteVector.fromArray(SPECIES, inputs[iInput], iByte);
+                    value = value.lanewise(VectorOperators.XOR, multiply(lowRow[iInput], highRow[iInput], input));
+                }
+                value.intoArray(outputs[iOutput], iByte);
+            }
+        }
+
+        final byte [] [] table = Galois.MULTIPLICATION_TABLE;
+        for (int iByte = vectorEnd; iByte < offset + byteCount; iByte++) {
+            for (int iOutput = 0; iOutput < outputCount; iOutput++) {
+                final byte [] matrixRow = matrixRows[iOutput];
+                int value = 0;
+                for (int iInput = 0; iInput < inputCount; iInput++) {
+                    value ^= table[matrixRow[iInput] & 0xFF][inputs[iInput][iByte] & 0xFF];
+                }
+                outputs[iOutput][iByte] = (byte) value;
+            }
+        }
+    }
+
+    @Override
+    public boolean checkSomeShards(
+            byte[][] matrixRows,
+            byte[][] inputs, int inputCount,
+            byte[][] toCheck, int checkCount,
+            int offset, int byteCount,
+            byte[] tempBuffer) {
+
+        final ByteVector [] [] lowTables = new ByteVector [checkCount] [inputCount];
+        final ByteVector [] [] highTables = new ByteVector [checkCount] [inputCount];
+        buildTables(matrixRows, inputCount, checkCount, lowTables, highTables);
+
+        final int vectorEnd = offset + SPECIES.loopBound(byteCount);
+        for (int iByte = offset; iByte < vectorEnd; iByte += SPECIES.length()) {
+            for (int iOutput = 0; iOutput < checkCount; iOutput++) {
+                final ByteVector [] lowRow = lowTables[iOutput];
+                final ByteVector [] highRow = highTables[iOutput];
+                ByteVector value = ByteVector.zero(SPECIES);
+                for (int iInput = 0; iInput < inputCount; iInput++) {
+                    ByteVector input = ByteVector.fromArray(SPECIES, inputs[iInput], iByte);
+                    value = value.lanewise(VectorOperators.XOR, multiply(lowRow[iInput], highRow[iInput], input));
+                }
+                ByteVector expected = ByteVector.fromArray(SPECIES, toCheck[iOutput], iByte);
+                if (value.compare(VectorOperators.NE, expected).anyTrue()) {
+                    return false;
+                }
+            }
+        }
+
+        final byte [] [] table = Galois.MULTIPLICATION_TABLE;
+        for (int iByte = vectorEnd; iByte < offset + byteCount; iByte++) {
+            for (int iOutput = 0; iOutput < checkCount; iOutput++) {
+                final byte [] matrixRow = matrixRows[iOutput];
+                int value = 0;
+                for (int iInput = 0; iInput < inputCount; iInput++) {
+                    value ^= table[matrixRow[iInput] & 0xFF][inputs[iInput][iByte] & 0xFF];
+                }
+                if (toCheck[iOutput][iByte] != (byte) value) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Multiplies each byte of the input by the coefficient whose nibble
+     * tables are given.
+     */
+    private static ByteVector multiply(ByteVector lowTable, ByteVector highTable, ByteVector input) {
+        ByteVector lowNibbles = input.lanewise(VectorOperators.AND, (byte) 0x0F);
+        ByteVector highNibbles = input.lanewise(VectorOperators.LSHR, 4);
+        return lowTable.rearrange(lowNibbles.toShuffle())
+                .lanewise(VectorOperators.XOR, highTable.rearrange(highNibbles.toShuffle()));
+    }
+
+    /**
+     * Fills in the low and high nibble tables for each coefficient in
+     * the matrix rows.  Only the first 16 lanes of each table are used.
+     */
+    private static void buildTables(byte [] [] matrixRows, int inputCount, int outputCount,
+                                    ByteVector [] [] lowTables, ByteVector [] [] highTables) {
+        final byte [] [] table = Galois.MULTIPLICATION_TABLE;
+        final byte [] low = new byte [SPECIES.length()];
+        final byte [] high = new byte [SPECIES.length()];
+        for (int iOutput = 0; iOutput < outputCount; iOutput++) {
+            for (int iInput = 0; iInput < inputCount; iInput++) {
+                final byte [] multTableRow = table[matrixRows[iOutput][iInput] & 0xFF];
+                for (int nibble = 0; nibble < NIBBLE_VALUES; nibble++) {
+                    low[nibble] = multTableRow[nibble];
+                    high[nibble] = multTableRow[nibble << 4];
+                }
+                lowTables[iOutput][iInput] = ByteVector.fromArray(SPECIES, low, 0);
+                highTables[iOutput][iInput] = ByteVector.fromArray(SPECIES, high, 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Unit tests for CauchyReedSolomon.
+ */
+
+package org.bitkernel.reedsolomon;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CauchyReedSolomonTest {
+
+    private static final int DATA_COUNT = 4;
+    private static final int PARITY_COUNT = 2;
+    private static final int PACKET_SIZE = 8;
+
+    /**
+     * Two whole blocks of 64 bytes and a tail of 5 bytes.
+     */
+    private static final int SHARD_SIZE = 133;
+
+    @Test
+    public void testDecodeEveryPairOfMissingShards() {
+        CauchyReedSolomon codec = new CauchyReedSolomon(DATA_COUNT, PARITY_COUNT, PACKET_SIZE);
+        byte [] [] original = encodedShards(codec, new Random(1));
+        int total = DATA_COUNT + PARITY_COUNT;
+        for (int a = 0; a < total; a++) {
+            for (int b = a + 1; b < total; b++) {
+                byte [] [] shards = copy(original);
+                boolean [] present = new boolean [total];
+                for (int i = 0; i < total; i++) {
+                    present[i] = i != a && i != b;
+                }
+                shards[a] = new byte [SHARD_SIZE];
+                shards[b] = new byte [SHARD_SIZE];
+                codec.decodeMissing(shards, present, 0, SHARD_SIZE);
+                for (int i = 0; i < total; i++) {
+                    assertArrayEquals(original[i], shards[i]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testEncodeBlockByBlock() {
+        // The blocks are coded with XOR and the tail with the
+        // multiplication table; both must give the same parity as
+        // encoding the whole shard at once.
+        CauchyReedSolomon codec = new CauchyReedSolomon(DATA_COUNT, PARITY_COUNT, PACKET_SIZE);
+        byte [] [] whole = encodedShards(codec, new Random(2));
+        byte [] [] piecewise = copy(whole);
+        for (int i = DATA_COUNT; i < DATA_COUNT + PARITY_COUNT; i++) {
+            piecewise[i] = new byte [SHARD_SIZE];
+        }
+        int blockSize = codec.getBlockSize();
+        int offset = 0;
+        for (; offset + blockSize <= SHARD_SIZE; offset += blockSize) {
+            codec.encodeParity(piecewise, offset, blockSize);
+        }
+        codec.encodeParity(piecewise, offset, SHARD_SIZE - offset);
+        for (int i = 0; i < DATA_COUNT + PARITY_COUNT; i++) {
+            assertArrayEquals(whole[i], piecewise[i]);
+        }
+    }
+
+    @Test
+    public void testIsParityCorrect() {
+        CauchyReedSolomon codec = new CauchyReedSolomon(DATA_COUNT, PARITY_COUNT, PACKET_SIZE);
+        byte [] [] shards = encodedShards(codec, new Random(3));
+        assertTrue(codec.isParityCorrect(shards, 0, SHARD_SIZE));
+
+        // A change in a whole block, and one in the tail.
+        shards[DATA_COUNT][70] ^= 1;
+        assertFalse(codec.isParityCorrect(shards, 0, SHARD_SIZE));
+        shards[DATA_COUNT][70] ^= 1;
+        shards[DATA_COUNT + 1][SHARD_SIZE - 1] ^= 1;
+        assertFalse(codec.isParityCorrect(shards, 0, SHARD_SIZE));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOffsetMustStartABlock() {
+        CauchyReedSolomon codec = new CauchyReedSolomon(DATA_COUNT, PARITY_COUNT, PACKET_SIZE);
+        codec.encodeParity(new byte [DATA_COUNT + PARITY_COUNT] [SHARD_SIZE], 1, SHARD_SIZE - 1);
+    }
+
+    private static byte [] [] encodedShards(CauchyReedSolomon codec, Random random) {
+        byte [] [] shards = new byte [DATA_COUNT + PARITY_COUNT] [SHARD_SIZE];
+        for (int i = 0; i < DATA_COUNT; i++) {
+            random.nextBytes(shards[i]);
+        }
+        codec.encodeParity(shards, 0, SHARD_SIZE);
+        return shards;
+    }
+
+    private static byte [] [] copy(byte [] [] shards) {
+        byte [] [] result = new byte [shards.length] [];
+        for (int i = 0; i < shards.length; i++) {
+            result[i] = shards[i].clone();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Unit tests for InputOutputLongSwarCodingLoop.
+ */
+
+package org.bitkernel.reedsolomon;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the SWAR loop codes the same bytes as the table loop it
+ * was derived from, for whole words, partial words at the end, and
+ * ranges that don't start on a word.
+ */
+public class InputOutputLongSwarCodingLoopTest {
+
+    private static final int INPUT_COUNT = 5;
+    private static final int OUTPUT_COUNT = 3;
+    private static final int SHARD_SIZE = 101;
+
+    private static final int [] [] RANGES = {
+            {0, SHARD_SIZE}, {0, 64}, {0, 7}, {3, 50}, {8, 93}, {SHARD_SIZE, 0}
+    };
+
+    private final CodingLoop swarLoop = new InputOutputLongSwarCodingLoop();
+    private final CodingLoop tableLoop = new InputOutputByteTableCodingLoop();
+
+    @Test
+    public void testByteArraysMatchTableLoop() {
+        Random random = new Random(1);
+        for (int [] range : RANGES) {
+            byte [] [] matrixRows = randomShards(random, OUTPUT_COUNT, INPUT_COUNT);
+            byte [] [] inputs = randomShards(random, INPUT_COUNT, SHARD_SIZE);
+            byte [] [] expected = new byte [OUTPUT_COUNT] [SHARD_SIZE];
+            byte [] [] actual = new byte [OUTPUT_COUNT] [SHARD_SIZE];
+
+            tableLoop.codeSomeShards(matrixRows, inputs, INPUT_COUNT, expected, OUTPUT_COUNT, range[0], range[1]);
+            swarLoop.codeSomeShards(matrixRows, inputs, INPUT_COUNT, actual, OUTPUT_COUNT, range[0], range[1]);
+
+            for (int i = 0; i < OUTPUT_COUNT; i++) {
+                assertArrayEquals(expected[i], actual[i]);
+            }
+            assertTrue(swarLoop.checkSomeShards(matrixRows, inputs, INPUT_COUNT, actual, OUTPUT_COUNT,
+                    range[0], range[1], null));
+        }
+    }
+
+    @Test
+    public void testEveryCoefficient() {
+        byte [] [] matrixRows = new byte [1] [1];
+        byte [] [] inputs = new byte [1] [256];
+        for (int i = 0; i < 256; i++) {
+            inputs[0][i] = (byte) i;
+        }
+        for (int c = 0; c < 256; c++) {
+            matrixRows[0][0] = (byte) c;
+            byte [] [] actual = new byte [1] [256];
+            swarLoop.codeSomeShards(matrixRows, inputs, 1, actual, 1, 0, 256);
+            for (int i = 0; i < 256; i++) {
+                assertEquals(Galois.multiply((byte) c, (byte) i), actual[0][i]);
+            }
+        }
+    }
+
+    @Test
+    public void testByteBuffersMatchTableLoop() {
+        Random random = new Random(2);
+        ByteOrder [] orders = {ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN};
+        for (boolean direct : new boolean [] {false, true}) {
+            for (ByteOrder order : orders) {
+                for (int [] range : RANGES) {
+                    byte [] [] matrixRows = randomShards(random, OUTPUT_COUNT, INPUT_COUNT);
+                    byte [] [] inputs = randomShards(random, INPUT_COUNT, SHARD_SIZE);
+                    byte [] [] expected = new byte [OUTPUT_COUNT] [SHARD_SIZE];
+                    tableLoop.codeSomeShards(matrixRows, inputs, INPUT_COUNT, expected, OUTPUT_COUNT,
+                            range[0], range[1]);
+
+                    ByteBuffer [] inputBuffers = new ByteBuffer [INPUT_COUNT];
+                    for (int i = 0; i < INPUT_COUNT; i++) {
+                        inputBuffers[i] = allocate(direct, order);
+                        inputBuffers[i].put(inputs[i]).clear();
+                    }
+                    ByteBuffer [] outputBuffers = new ByteBuffer [OUTPUT_COUNT];
+                    for (int i = 0; i < OUTPUT_COUNT; i++) {
+                        outputBuffers[i] = allocate(direct, order);
+                    }
+                    swarLoop.codeSomeShards(matrixRows, inputBuffers, INPUT_COUNT, outputBuffers, OUTPUT_COUNT,
+                            range[0], range[1]);
+
+                    for (int i = 0; i < OUTPUT_COUNT; i++) {
+                        assertEquals(order, outputBuffers[i].order());
+                        byte [] actual = new byte [SHARD_SIZE];
+                        outputBuffers[i].get(actual);
+                        assertArrayEquals(expected[i], actual);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCheckFindsChangedByte() {
+        Random random = new Random(3);
+        byte [] [] matrixRows = randomShards(random, OUTPUT_COUNT, INPUT_COUNT);
+        byte [] [] inputs = randomShards(random, INPUT_COUNT, SHARD_SIZE);
+        byte [] [] outputs = new byte [OUTPUT_COUNT] [SHARD_SIZE];
+        swarLoop.codeSomeShards(matrixRows, inputs, INPUT_COUNT, outputs, OUTPUT_COUNT, 0, SHARD_SIZE);
+        outputs[OUTPUT_COUNT - 1][SHARD_SIZE - 1] ^= 1;
+        assertFalse(swarLoop.checkSomeShards(matrixRows, inputs, INPUT_COUNT, outputs, OUTPUT_COUNT,
+                0, SHARD_SIZE, null));
+    }
+
+    private static ByteBuffer allocate(boolean direct, ByteOrder order) {
+        ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(SHARD_SIZE) : ByteBuffer.allocate(SHARD_SIZE);
+        return buffer.order(order);
+    }
+
+    private static byte [] [] randomShards(Random random, int count, int size) {
+        byte [] [] result = new byte [count] [size];
+        for (byte [] shard : result) {
+            random.nextBytes(shard);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * Unit tests for LocallyRepairableCode.
+ */
+
+package org.bitkernel.reedsolomon;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Uses 6 data shards in two groups of three, so shards 6 and 7 are the
+ * local parity shards and shards 8 and 9 the global ones.
+ */
+public class LocallyRepairableCodeTest {
+
+    private static final int DATA_COUNT = 6;
+    private static final int GROUP_COUNT = 2;
+    private static final int GLOBAL_COUNT = 2;
+    private static final int TOTAL_COUNT = DATA_COUNT + GROUP_COUNT + GLOBAL_COUNT;
+    private static final int SHARD_SIZE = 37;
+
+    private final LocallyRepairableCode codec = new LocallyRepairableCode(DATA_COUNT, GROUP_COUNT, GLOBAL_COUNT);
+
+    @Test
+    public void testParity() {
+        byte [] [] shards = encodedShards(new Random(1));
+        assertTrue(codec.isParityCorrect(shards, 0, SHARD_SIZE));
+
+        // Local parity is the XOR of the group.
+        for (int i = 0; i < SHARD_SIZE; i++) {
+            assertEquals(shards[0][i] ^ shards[1][i] ^ shards[2][i], shards[DATA_COUNT][i]);
+            assertEquals(shards[3][i] ^ shards[4][i] ^ shards[5][i], shards[DATA_COUNT + 1][i]);
+        }
+
+        // Global parity is the same as ReedSolomon's.
+        byte [] [] rsShards = new byte [DATA_COUNT + GLOBAL_COUNT] [SHARD_SIZE];
+        for (int i = 0; i < DATA_COUNT; i++) {
+            rsShards[i] = shards[i].clone();
+        }
+        ReedSolomon.create(DATA_COUNT, GLOBAL_COUNT).encodeParity(rsShards, 0, SHARD_SIZE);
+        for (int p = 0; p < GLOBAL_COUNT; p++) {
+            assertArrayEquals(rsShards[DATA_COUNT + p], shards[DATA_COUNT + GROUP_COUNT + p]);
+        }
+
+        shards[DATA_COUNT + 1][SHARD_SIZE - 1] ^= 1;
+        assertFalse(codec.isParityCorrect(shards, 0, SHARD_SIZE));
+    }
+
+    @Test
+    public void testLocalRepairReadsOnlyTheGroup() {
+        byte [] [] original = encodedShards(new Random(2));
+        for (int lost = 0; lost < DATA_COUNT + GROUP_COUNT; lost++) {
+            boolean [] present = allPresentBut(lost);
+            int [] sources = codec.repairSources(lost, present);
+            int [] group = codec.getLocalGroup(lost);
+            assertEquals(group.length - 1, sources.length);
+
+            // Every shard outside the sources is garbage, so a repair
+            // that read any of them would come out wrong.
+            byte [] [] shards = new byte [TOTAL_COUNT] [];
+            Random random = new Random(lost);
+            for (int i = 0; i < TOTAL_COUNT; i++) {
+                shards[i] = new byte [SHARD_SIZE];
+                random.nextBytes(shards[i]);
+            }
+            for (int source : sources) {
+                shards[source] = original[source].clone();
+            }
+            codec.repairShard(shards, present, lost, 0, SHARD_SIZE);
+            assertArrayEquals(original[lost], shards[lost]);
+        }
+    }
+
+    @Test
+    public void testGlobalRepairWhenGroupLostTwo() {
+        byte [] [] original = encodedShards(new Random(3));
+        boolean [] present = allPresentBut(0, 1);
+        int [] sources = codec.repairSources(0, present);
+        assertEquals(DATA_COUNT, sources.length);
+
+        byte [] [] shards = copy(original);
+        shards[0] = new byte [SHARD_SIZE];
+        shards[1] = new byte [SHARD_SIZE];
+        codec.repairShard(shards, present, 0, 0, SHARD_SIZE);
+        assertArrayEquals(original[0], shards[0]);
+        assertArrayEquals(new byte [SHARD_SIZE], shards[1]);
+    }
+
+    @Test
+    public void testDecodeMissing() {
+        byte [] [] original = encodedShards(new Random(4));
+        int [] [] lostSets = {
+                {0},
+                {0, 4},
+                {0, 1, DATA_COUNT + GROUP_COUNT},
+                {2, DATA_COUNT, 5, TOTAL_COUNT - 1},
+        };
+        for (int [] lost : lostSets) {
+            byte [] [] shards = copy(original);
+            for (int i : lost) {
+                shards[i] = new byte [SHARD_SIZE];
+            }
+            codec.decodeMissing(shards, allPresentBut(lost), 0, SHARD_SIZE);
+            for (int i = 0; i < TOTAL_COUNT; i++) {
+                assertArrayEquals(Arrays.toString(lost), original[i], shards[i]);
+            }
+        }
+    }
+
+    private byte [] [] encodedShards(Random random) {
+        byte [] [] shards = new byte [TOTAL_COUNT] [SHARD_SIZE];
+        for (int i = 0; i < DATA_COUNT; i++) {
+            random.nextBytes(shards[i]);
+        }
+        codec.encodeParity(shards, 0, SHARD_SIZE);
+        return shards;
+    }
+
+    private static boolean [] allPresentBut(int... lost) {
+        boolean [] present = new boolean [TOTAL_COUNT];
+        Arrays.fill(present, true);
+        for (int i : lost) {
+            present[i] = false;
+        }
+        return present;
+    }
+
+    private static byte [] [] copy(byte [] [] shards) {
+        byte [] [] result = new byte [shards.length] [];
+        for (int i = 0; i < shards.length; i++) {
+            result[i] = shards[i].clone();
+        }
+        return result;
+    }
+}
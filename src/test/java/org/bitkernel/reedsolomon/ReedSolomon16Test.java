@@ -0,0 +1,86 @@
+/**
+ * Unit tests for ReedSolomon16.
+ */
+
+package org.bitkernel.reedsolomon;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReedSolomon16Test {
+
+    /**
+     * More shards than the 8-bit field allows.
+     */
+    private static final int DATA_COUNT = 300;
+    private static final int PARITY_COUNT = 4;
+    private static final int TOTAL_COUNT = DATA_COUNT + PARITY_COUNT;
+    private static final int SHARD_SIZE = 32;
+
+    @Test
+    public void testFieldInverses() {
+        Random random = new Random(1);
+        for (int i = 0; i < 1000; i++) {
+            int a = random.nextInt(Galois16.FIELD_SIZE - 1) + 1;
+            int b = random.nextInt(Galois16.FIELD_SIZE - 1) + 1;
+            assertEquals(a, Galois16.divide(Galois16.multiply(a, b), b));
+            assertEquals(Galois16.multiply(a, b), Galois16.multiply(b, a));
+        }
+    }
+
+    @Test
+    public void testDecodeWideStripe() {
+        ReedSolomon16 codec = ReedSolomon16.create(DATA_COUNT, PARITY_COUNT);
+        byte [] [] original = encodedShards(codec, new Random(2));
+        assertTrue(codec.isParityCorrect(original, 0, SHARD_SIZE));
+
+        // Lose as many shards as there are parity shards: data shards
+        // on both sides of 256, and a parity shard.
+        int [] lost = {0, 255, 299, DATA_COUNT + 2};
+        byte [] [] shards = new byte [TOTAL_COUNT] [];
+        boolean [] present = new boolean [TOTAL_COUNT];
+        for (int i = 0; i < TOTAL_COUNT; i++) {
+            shards[i] = original[i].clone();
+            present[i] = true;
+        }
+        for (int i : lost) {
+            shards[i] = new byte [SHARD_SIZE];
+            present[i] = false;
+        }
+        codec.decodeMissing(shards, present, 0, SHARD_SIZE);
+        for (int i = 0; i < TOTAL_COUNT; i++) {
+            assertArrayEquals(original[i], shards[i]);
+        }
+    }
+
+    @Test
+    public void testCodingLoopsAgree() {
+        ReedSolomon16 table = new ReedSolomon16(DATA_COUNT, PARITY_COUNT, new InputOutputWordTableCodingLoop16());
+        ReedSolomon16 exp = new ReedSolomon16(DATA_COUNT, PARITY_COUNT, new InputOutputWordExpCodingLoop16());
+        byte [] [] shards = encodedShards(table, new Random(3));
+        assertTrue(exp.isParityCorrect(shards, 0, SHARD_SIZE));
+        shards[DATA_COUNT][SHARD_SIZE - 1] ^= 1;
+        assertFalse(exp.isParityCorrect(shards, 0, SHARD_SIZE));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOffsetMustBeEven() {
+        ReedSolomon16 codec = ReedSolomon16.create(DATA_COUNT, PARITY_COUNT);
+        codec.encodeParity(new byte [TOTAL_COUNT] [SHARD_SIZE], 1, 2);
+    }
+
+    private static byte [] [] encodedShards(ReedSolomon16 codec, Random random) {
+        byte [] [] shards = new byte [TOTAL_COUNT] [SHARD_SIZE];
+        for (int i = 0; i < DATA_COUNT; i++) {
+            random.nextBytes(shards[i]);
+        }
+        codec.encodeParity(shards, 0, SHARD_SIZE);
+        return shards;
+    }
+}
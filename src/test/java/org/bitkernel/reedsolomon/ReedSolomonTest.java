@@ -0,0 +1,269 @@
+/**
+ * Unit tests for ReedSolomon.
+ */
+
+package org.bitkernel.reedsolomon;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ReedSolomonTest {
+
+    private static final int DATA_COUNT = 4;
+    private static final int PARITY_COUNT = 2;
+    private static final int TOTAL_COUNT = DATA_COUNT + PARITY_COUNT;
+    private static final int SHARD_SIZE = 61;
+
+    @Test
+    public void testUpdateParityMatchesReencode() {
+        ReedSolomon codec = ReedSolomon.create(DATA_COUNT, PARITY_COUNT);
+        Random random = new Random(1);
+        for (int changed = 0; changed < DATA_COUNT; changed++) {
+            byte [] [] shards = encodedShards(codec, random);
+            byte [] oldData = shards[changed].clone();
+            byte [] newData = oldData.clone();
+            random.nextBytes(newData);
+
+            // Update only part of the shard, so the bytes around it must
+            // be left alone.
+            byte [] [] parityShards = new byte [PARITY_COUNT] [];
+            for (int i = 0; i < PARITY_COUNT; i++) {
+                parityShards[i] = shards[DATA_COUNT + i].clone();
+            }
+            System.arraycopy(oldData, 0, newData, 0, 5);
+            System.arraycopy(oldData, 50, newData, 50, SHARD_SIZE - 50);
+            codec.updateParity(changed, oldData, newData, parityShards, 5, 45);
+
+            shards[changed] = newData;
+            codec.encodeParity(shards, 0, SHARD_SIZE);
+            for (int i = 0; i < PARITY_COUNT; i++) {
+                assertArrayEquals(shards[DATA_COUNT + i], parityShards[i]);
+            }
+            assertTrue(codec.isParityCorrect(shards, 0, SHARD_SIZE));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUpdateParityChecksIndex() {
+        ReedSolomon codec = ReedSolomon.create(DATA_COUNT, PARITY_COUNT);
+        byte [] data = new byte [SHARD_SIZE];
+        codec.updateParity(DATA_COUNT, data, data, new byte [PARITY_COUNT] [SHARD_SIZE], 0, SHARD_SIZE);
+    }
+
+    @Test
+    public void testDecodeSomeDataOnly() {
+        ReedSolomon codec = ReedSolomon.create(DATA_COUNT, PARITY_COUNT);
+        byte [] [] original = encodedShards(codec, new Random(2));
+
+        // Data shard 1 and parity shard 0 are missing; only the data is
+        // wanted, so the missing parity shard can be null.
+        byte [] [] shards = copy(original);
+        shards[1] = new byte [SHARD_SIZE];
+        shards[DATA_COUNT] = null;
+        boolean [] present = {true, false, true, true, false, true};
+        boolean [] wanted = {true, true, true, true, false, false};
+        codec.decodeSome(shards, present, wanted, 0, SHARD_SIZE);
+
+        for (int i = 0; i < DATA_COUNT; i++) {
+            assertArrayEquals(original[i], shards[i]);
+        }
+        assertNull(shards[DATA_COUNT]);
+    }
+
+    @Test
+    public void testDecodeSomeSingleShard() {
+        ReedSolomon codec = ReedSolomon.create(DATA_COUNT, PARITY_COUNT);
+        byte [] [] original = encodedShards(codec, new Random(3));
+
+        // Two shards missing, and each one wanted on its own.  The other
+        // missing shard is left alone.
+        for (int a = 0; a < TOTAL_COUNT; a++) {
+            for (int b = 0; b < TOTAL_COUNT; b++) {
+                if (a == b) {
+                    continue;
+                }
+                byte [] [] shards = copy(original);
+                shards[a] = new byte [SHARD_SIZE];
+                shards[b] = new byte [SHARD_SIZE];
+                boolean [] present = new boolean [TOTAL_COUNT];
+                boolean [] wanted = new boolean [TOTAL_COUNT];
+                for (int i = 0; i < TOTAL_COUNT; i++) {
+                    present[i] = i != a && i != b;
+                }
+                wanted[a] = true;
+                codec.decodeSome(shards, present, wanted, 0, SHARD_SIZE);
+
+                assertArrayEquals(original[a], shards[a]);
+                assertArrayEquals(new byte [SHARD_SIZE], shards[b]);
+            }
+        }
+    }
+
+    @Test
+    public void testDecodeSomeMatchesDecodeMissing() {
+        ReedSolomon codec = ReedSolomon.create(DATA_COUNT, PARITY_COUNT);
+        byte [] [] original = encodedShards(codec, new Random(4));
+        boolean [] present = {false, true, true, false, true, true};
+        boolean [] wanted = new boolean [TOTAL_COUNT];
+        Arrays.fill(wanted, true);
+
+        byte [] [] some = copy(original);
+        byte [] [] missing = copy(original);
+        for (int i = 0; i < TOTAL_COUNT; i++) {
+            if (!present[i]) {
+                some[i] = new byte [SHARD_SIZE];
+                missing[i] = new byte [SHARD_SIZE];
+            }
+        }
+        codec.decodeSome(some, present, wanted, 3, SHARD_SIZE - 3);
+        codec.decodeMissing(missing, present, 3, SHARD_SIZE - 3);
+        for (int i = 0; i < TOTAL_COUNT; i++) {
+            assertArrayEquals(missing[i], some[i]);
+        }
+    }
+
+    @Test
+    public void testEncodeParityBatch() {
+        ReedSolomon codec = ReedSolomon.create(DATA_COUNT, PARITY_COUNT);
+        Random random = new Random(5);
+        int [] sizes = {10, 0, 1, 33};
+        byte [] [] [] dataShards = new byte [sizes.length] [DATA_COUNT] [];
+        for (int k = 0; k < sizes.length; k++) {
+            for (int i = 0; i < DATA_COUNT; i++) {
+                dataShards[k][i] = new byte [sizes[k]];
+                random.nextBytes(dataShards[k][i]);
+            }
+        }
+        int [] stripeOffsets = new int [sizes.length + 1];
+        byte [] [] packed = codec.encodeParityBatch(dataShards, stripeOffsets);
+
+        assertArrayEquals(new int [] {0, 10, 10, 11, 44}, stripeOffsets);
+        for (int k = 0; k < sizes.length; k++) {
+            // Each stripe, encoded on its own, matches its slice of the
+            // packed shards.
+            byte [] [] stripe = new byte [TOTAL_COUNT] [sizes[k]];
+            for (int i = 0; i < DATA_COUNT; i++) {
+                stripe[i] = dataShards[k][i];
+            }
+            codec.encodeParity(stripe, 0, sizes[k]);
+            for (int i = 0; i < TOTAL_COUNT; i++) {
+                assertArrayEquals(stripe[i],
+                        Arrays.copyOfRange(packed[i], stripeOffsets[k], stripeOffsets[k + 1]));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEncodeParityBatchChecksOffsets() {
+        ReedSolomon codec = ReedSolomon.create(DATA_COUNT, PARITY_COUNT);
+        codec.encodeParityBatch(new byte [2] [DATA_COUNT] [10], new int [2]);
+    }
+
+    @Test
+    public void testDecodeErrorsNone() {
+        ReedSolomon codec = ReedSolomon.create(DATA_COUNT, PARITY_COUNT);
+        byte [] [] shards = encodedShards(codec, new Random(6));
+        assertArrayEquals(new int [0], codec.decodeErrors(shards, allPresent(TOTAL_COUNT), 0, SHARD_SIZE));
+    }
+
+    @Test
+    public void testDecodeErrorsOneBadShard() {
+        ReedSolomon codec = ReedSolomon.create(DATA_COUNT, PARITY_COUNT);
+        byte [] [] original = encodedShards(codec, new Random(7));
+        for (int bad = 0; bad < TOTAL_COUNT; bad++) {
+            byte [] [] shards = copy(original);
+            shards[bad][SHARD_SIZE / 2] ^= 0x55;
+            int [] found = codec.decodeErrors(shards, allPresent(TOTAL_COUNT), 0, SHARD_SIZE);
+            assertArrayEquals(new int [] {bad}, found);
+            for (int i = 0; i < TOTAL_COUNT; i++) {
+                assertArrayEquals(original[i], shards[i]);
+            }
+        }
+    }
+
+    @Test
+    public void testDecodeErrorsTwoBadShards() {
+        // Two bad shards need four parity shards to find.
+        ReedSolomon codec = ReedSolomon.create(DATA_COUNT, 4);
+        int total = DATA_COUNT + 4;
+        byte [] [] original = new byte [total] [SHARD_SIZE];
+        Random random = new Random(8);
+        for (int i = 0; i < DATA_COUNT; i++) {
+            random.nextBytes(original[i]);
+        }
+        codec.encodeParity(original, 0, SHARD_SIZE);
+        for (int a = 0; a < total; a++) {
+            for (int b = a + 1; b < total; b++) {
+                byte [] [] shards = copy(original);
+                shards[a][0] ^= 1;
+                shards[b][SHARD_SIZE - 1] ^= 0x80;
+                int [] found = codec.decodeErrors(shards, allPresent(total), 0, SHARD_SIZE);
+                assertArrayEquals(new int [] {a, b}, found);
+                for (int i = 0; i < total; i++) {
+                    assertArrayEquals(original[i], shards[i]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDecodeErrorsWithMissingShard() {
+        ReedSolomon codec = ReedSolomon.create(DATA_COUNT, 4);
+        int total = DATA_COUNT + 4;
+        byte [] [] original = new byte [total] [SHARD_SIZE];
+        Random random = new Random(9);
+        for (int i = 0; i < DATA_COUNT; i++) {
+            random.nextBytes(original[i]);
+        }
+        codec.encodeParity(original, 0, SHARD_SIZE);
+
+        // With one shard missing, one bad shard can still be found.
+        byte [] [] shards = copy(original);
+        boolean [] present = allPresent(total);
+        present[1] = false;
+        shards[1] = new byte [SHARD_SIZE];
+        shards[DATA_COUNT + 2][3] ^= 1;
+        assertArrayEquals(new int [] {DATA_COUNT + 2}, codec.decodeErrors(shards, present, 0, SHARD_SIZE));
+        for (int i = 0; i < total; i++) {
+            assertArrayEquals(original[i], shards[i]);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecodeErrorsTooManyBadShards() {
+        ReedSolomon codec = ReedSolomon.create(DATA_COUNT, PARITY_COUNT);
+        byte [] [] shards = encodedShards(codec, new Random(10));
+        shards[0][0] ^= 1;
+        shards[DATA_COUNT][0] ^= 1;
+        codec.decodeErrors(shards, allPresent(TOTAL_COUNT), 0, SHARD_SIZE);
+    }
+
+    private static boolean [] allPresent(int count) {
+        boolean [] present = new boolean [count];
+        Arrays.fill(present, true);
+        return present;
+    }
+
+    private static byte [] [] copy(byte [] [] shards) {
+        byte [] [] result = new byte [shards.length] [];
+        for (int i = 0; i < shards.length; i++) {
+            result[i] = shards[i].clone();
+        }
+        return result;
+    }
+
+    private static byte [] [] encodedShards(ReedSolomon codec, Random random) {
+        byte [] [] shards = new byte [TOTAL_COUNT] [SHARD_SIZE];
+        for (int i = 0; i < DATA_COUNT; i++) {
+            random.nextBytes(shards[i]);
+        }
+        codec.encodeParity(shards, 0, SHARD_SIZE);
+        return shards;
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * Unit tests for ShardChecksums and Crc32c.
+ */
+
+package org.bitkernel.reedsolomon;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ShardChecksumsTest {
+
+    @Test
+    public void testKnownValues() {
+        byte [] check = "123456789".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(0xE3069283, ShardChecksums.checksum(check, 0, check.length));
+        assertEquals(0, ShardChecksums.checksum(check, 0, 0));
+
+        // The examples from RFC 3720, appendix B.4.
+        byte [] buffer = new byte [32];
+        assertEquals(0x8A9136AA, ShardChecksums.checksum(buffer, 0, 32));
+        Arrays.fill(buffer, (byte) 0xFF);
+        assertEquals(0x62A8AB43, ShardChecksums.checksum(buffer, 0, 32));
+        for (int i = 0; i < 32; i++) {
+            buffer[i] = (byte) i;
+        }
+        assertEquals(0x46DD794E, ShardChecksums.checksum(buffer, 0, 32));
+        for (int i = 0; i < 32; i++) {
+            buffer[i] = (byte) (31 - i);
+        }
+        assertEquals(0x113FDB5C, ShardChecksums.checksum(buffer, 0, 32));
+    }
+
+    @Test
+    public void testMatchesBitwiseCrc() {
+        // Every length up to a few words, at every alignment, so both the
+        // eight-byte loop and the loop for the leftover bytes are used.
+        Random random = new Random(1);
+        byte [] buffer = new byte [64];
+        random.nextBytes(buffer);
+        for (int offset = 0; offset < 8; offset++) {
+            for (int byteCount = 0; offset + byteCount <= buffer.length; byteCount++) {
+                assertEquals(bitwiseCrc(buffer, offset, byteCount),
+                        ShardChecksums.checksum(buffer, offset, byteCount));
+            }
+        }
+    }
+
+    @Test
+    public void testVerifyShards() {
+        ReedSolomon codec = ReedSolomon.create(4, 2);
+        byte [] [] shards = new byte [6] [50];
+        Random random = new Random(2);
+        for (int i = 0; i < 4; i++) {
+            random.nextBytes(shards[i]);
+        }
+        codec.encodeParity(shards, 0, 50);
+        int [] checksums = ShardChecksums.checksums(shards, 0, 50);
+        boolean [] corrupt = new boolean [6];
+        assertTrue(codec.verifyShards(shards, checksums, 0, 50, corrupt));
+
+        // A damaged checksum, with good shards, still verifies.
+        checksums[1] ^= 1;
+        assertTrue(codec.verifyShards(shards, checksums, 0, 50, corrupt));
+        assertArrayEquals(new boolean [6], corrupt);
+        checksums[1] ^= 1;
+
+        // A damaged shard is found by its checksum.
+        shards[2][7] ^= 1;
+        assertFalse(codec.verifyShards(shards, checksums, 0, 50, corrupt));
+        assertArrayEquals(new boolean [] {false, false, true, false, false, false}, corrupt);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRangeChecked() {
+        ShardChecksums.checksum(new byte [10], 5, 6);
+    }
+
+    private static int bitwiseCrc(byte [] buffer, int offset, int byteCount) {
+        int crc = 0xFFFFFFFF;
+        for (int i = offset; i < offset + byteCount; i++) {
+            crc ^= buffer[i] & 0xFF;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ 0x82F63B78 : crc >>> 1;
+            }
+        }
+        return ~crc;
+    }
+}
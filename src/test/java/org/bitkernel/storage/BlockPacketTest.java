@@ -0,0 +1,175 @@
+package org.bitkernel.storage;
+
+import org.bitkernel.common.CmdType;
+import org.bitkernel.common.Udp;
+import org.junit.Test;
+
+import java.net.DatagramPacket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BlockPacketTest {
+    private final Random random = new Random(1);
+
+    @Test
+    public void testBlocks() {
+        List<DataBlock> blocks = blocks(3, 40);
+        List<DataBlock> decoded = BlockPacket.decodeBlocks(packet(BlockPacket.encodeBlocks(blocks)));
+        assertBlocks(blocks, decoded);
+        assertBlocks(Collections.emptyList(),
+                BlockPacket.decodeBlocks(packet(BlockPacket.encodeBlocks(Collections.emptyList()))));
+    }
+
+    @Test
+    public void testCommandWithBlocks() {
+        // block bytes that look like the separators of the command line
+        List<DataBlock> blocks = blocks(2, 30);
+        Arrays.fill(blocks.get(0).getBytes(), 4, 30, (byte) '@');
+        Arrays.fill(blocks.get(1).getBytes(), 4, 30, (byte) ':');
+        String cmdLine = "gateway@-ppkb1@hashKey:";
+        byte[] cmd = concat(cmdLine.getBytes(StandardCharsets.UTF_8), BlockPacket.encodeBlocks(blocks));
+
+        DatagramPacket pkt = packet(cmd);
+        assertEquals(cmdLine, BlockPacket.decodeCommandLine(pkt));
+        assertBlocks(blocks, BlockPacket.decodeCommandBlocks(pkt));
+    }
+
+    @Test
+    public void testCommandWithoutBlocks() {
+        String cmdLine = "gateway@-gpkb1@hashKey";
+        assertEquals(cmdLine, BlockPacket.decodeCommandLine(packet(cmdLine.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    public void testPacketAtOffset() {
+        List<DataBlock> blocks = blocks(2, 20);
+        byte[] encoded = BlockPacket.encodeBlocks(blocks);
+        byte[] data = concat(new byte[7], encoded);
+        DatagramPacket pkt = new DatagramPacket(data, 7, encoded.length);
+        assertBlocks(blocks, BlockPacket.decodeBlocks(pkt));
+    }
+
+    @Test
+    public void testTruncated() {
+        byte[] encoded = BlockPacket.encodeBlocks(blocks(2, 20));
+        assertNull(BlockPacket.decodeBlocks(packet(Arrays.copyOf(encoded, encoded.length - 1))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOversizeBlock() {
+        BlockPacket.encodeBlocks(blocks(1, 0x10000));
+    }
+
+    @Test
+    public void testBatchPutSplitsIntoPackets() {
+        // about 20 keys fit in a packet, so these need several
+        Map<String, List<DataBlock>> keyedBlocks = new LinkedHashMap<>();
+        for (int i = 0; i < 50; i++) {
+            keyedBlocks.put("hashKey" + i, blocks(3, 60));
+        }
+        List<byte[]> cmds = BlockPacket.encodeKeyedBlocksCommand("gateway", CmdType.PUT_PUB_KEY_BATCH, keyedBlocks);
+        assertTrue(cmds.size() > 1);
+
+        Map<String, List<DataBlock>> decoded = new LinkedHashMap<>();
+        for (byte[] cmd : cmds) {
+            assertTrue(cmd.length <= Udp.BUFF_LEN);
+            DatagramPacket pkt = packet(cmd);
+            assertEquals("gateway@-ppkbb1@ :", BlockPacket.decodeCommandLine(pkt));
+            decoded.putAll(BlockPacket.decodeCommandKeyedBlocks(pkt));
+        }
+        assertEquals(new ArrayList<>(keyedBlocks.keySet()), new ArrayList<>(decoded.keySet()));
+        for (String hashKey : keyedBlocks.keySet()) {
+            assertBlocks(keyedBlocks.get(hashKey), decoded.get(hashKey));
+        }
+    }
+
+    @Test
+    public void testBatchGet() {
+        List<String> hashKeys = Arrays.asList("a", "b", "c");
+        List<byte[]> cmds = BlockPacket.encodeKeysCommand("gateway", CmdType.GET_PRI_KEY_BATCH, hashKeys);
+        assertEquals(1, cmds.size());
+        assertEquals(hashKeys, BlockPacket.decodeCommandKeys(packet(cmds.get(0))));
+
+        Map<String, List<DataBlock>> keyedBlocks = new LinkedHashMap<>();
+        keyedBlocks.put("a", blocks(2, 10));
+        keyedBlocks.put("b", Collections.emptyList());
+        List<byte[]> rsps = BlockPacket.encodeKeyedBlocks(keyedBlocks);
+        assertEquals(1, rsps.size());
+        Map<String, List<DataBlock>> decoded = BlockPacket.decodeKeyedBlocks(packet(rsps.get(0)));
+        assertEquals(new ArrayList<>(keyedBlocks.keySet()), new ArrayList<>(decoded.keySet()));
+        assertBlocks(keyedBlocks.get("a"), decoded.get("a"));
+        assertBlocks(keyedBlocks.get("b"), decoded.get("b"));
+    }
+
+    @Test
+    public void testBatchStatuses() {
+        Map<String, Boolean> statuses = new LinkedHashMap<>();
+        statuses.put("a", true);
+        statuses.put("b", false);
+        List<byte[]> rsps = BlockPacket.encodeKeyStatuses(statuses);
+        assertEquals(1, rsps.size());
+        assertEquals(statuses, BlockPacket.decodeKeyStatuses(packet(rsps.get(0))));
+    }
+
+    @Test
+    public void testEmptyBatch() {
+        List<byte[]> rsps = BlockPacket.encodeKeyedBlocks(Collections.emptyMap());
+        assertEquals(1, rsps.size());
+        assertTrue(BlockPacket.decodeKeyedBlocks(packet(rsps.get(0))).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOversizeBatchItem() {
+        // each block fits the format, but the key's item does not fit in a packet
+        Map<String, List<DataBlock>> keyedBlocks = new LinkedHashMap<>();
+        keyedBlocks.put("small", blocks(1, 10));
+        keyedBlocks.put("large", blocks(2, Udp.BUFF_LEN / 2));
+        BlockPacket.encodeKeyedBlocksCommand("gateway", CmdType.PUT_PUB_KEY_BATCH, keyedBlocks);
+    }
+
+    @Test
+    public void testTruncatedBatch() {
+        Map<String, List<DataBlock>> keyedBlocks = new LinkedHashMap<>();
+        keyedBlocks.put("a", blocks(2, 10));
+        byte[] rsp = BlockPacket.encodeKeyedBlocks(keyedBlocks).get(0);
+        assertNull(BlockPacket.decodeKeyedBlocks(packet(Arrays.copyOf(rsp, rsp.length - 1))));
+    }
+
+    private List<DataBlock> blocks(int count, int len) {
+        List<DataBlock> blocks = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] bytes = new byte[len];
+            random.nextBytes(bytes);
+            blocks.add(new DataBlock(bytes));
+        }
+        return blocks;
+    }
+
+    private static DatagramPacket packet(byte[] data) {
+        return new DatagramPacket(data, data.length);
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] all = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, all, a.length, b.length);
+        return all;
+    }
+
+    private static void assertBlocks(List<DataBlock> expected, List<DataBlock> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(expected.get(i).getBytes(), actual.get(i).getBytes());
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package org.bitkernel.storage;
+
+import org.bitkernel.storage.BlockStore.KeyType;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BlockStoreTest {
+    /** small segments, so a few blocks fill one */
+    private static final long SEGMENT_SIZE = 1024;
+    private static final int BLOCK_LEN = 100;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Random random = new Random(1);
+
+    @Test
+    public void testGetAfterReopen() throws Exception {
+        File dir = folder.newFolder();
+        List<DataBlock> pubBlocks = blocks(3);
+        List<DataBlock> priBlocks = blocks(2);
+        try (BlockStore store = open(dir)) {
+            putAll(store, KeyType.PUB_KEY, "a", pubBlocks);
+            putAll(store, KeyType.PRI_KEY, "a", priBlocks);
+            assertBlocks(pubBlocks, store.get(KeyType.PUB_KEY, "a"));
+        }
+        try (BlockStore store = open(dir)) {
+            assertBlocks(pubBlocks, store.get(KeyType.PUB_KEY, "a"));
+            assertBlocks(priBlocks, store.get(KeyType.PRI_KEY, "a"));
+            assertFalse(store.contains(KeyType.PUB_KEY, "b"));
+        }
+    }
+
+    @Test
+    public void testReplayWithoutIndex() throws Exception {
+        File dir = folder.newFolder();
+        List<DataBlock> kept = blocks(12);
+        try (BlockStore store = open(dir)) {
+            putAll(store, KeyType.PUB_KEY, "kept", kept);
+            putAll(store, KeyType.PUB_KEY, "removed", blocks(3));
+            store.remove(KeyType.PUB_KEY, "removed").get();
+        }
+        Files.delete(new File(dir, "index").toPath());
+        try (BlockStore store = open(dir)) {
+            assertBlocks(kept, store.get(KeyType.PUB_KEY, "kept"));
+            assertFalse(store.contains(KeyType.PUB_KEY, "removed"));
+        }
+    }
+
+    @Test
+    public void testReplayAfterCrash() throws Exception {
+        File dir = folder.newFolder();
+        List<DataBlock> before = blocks(12);
+        List<DataBlock> after = blocks(2);
+        // not closed, so only the index written when a segment was full is on disk
+        BlockStore crashed = open(dir);
+        try {
+            putAll(crashed, KeyType.PUB_KEY, "before", before);
+            putAll(crashed, KeyType.PRI_KEY, "after", after);
+            crashed.remove(KeyType.PUB_KEY, "before").get();
+            putAll(crashed, KeyType.PUB_KEY, "before", before.subList(0, 1));
+            try (BlockStore store = open(dir)) {
+                assertBlocks(before.subList(0, 1), store.get(KeyType.PUB_KEY, "before"));
+                assertBlocks(after, store.get(KeyType.PRI_KEY, "after"));
+            }
+        } finally {
+            crashed.close();
+        }
+    }
+
+    @Test
+    public void testTornRecordIsCut() throws Exception {
+        File dir = folder.newFolder();
+        List<DataBlock> kept = blocks(1);
+        try (BlockStore store = open(dir)) {
+            putAll(store, KeyType.PUB_KEY, "kept", kept);
+            putAll(store, KeyType.PUB_KEY, "torn", blocks(1));
+        }
+        Files.delete(new File(dir, "index").toPath());
+        File segment = new File(dir, "00000001.seg");
+        byte[] bytes = Files.readAllBytes(segment.toPath());
+        Files.write(segment.toPath(), Arrays.copyOf(bytes, bytes.length - 10));
+        try (BlockStore store = open(dir)) {
+            assertBlocks(kept, store.get(KeyType.PUB_KEY, "kept"));
+            assertFalse(store.contains(KeyType.PUB_KEY, "torn"));
+            // the store goes on appending after the cut
+            putAll(store, KeyType.PUB_KEY, "new", kept);
+        }
+        try (BlockStore store = open(dir)) {
+            assertBlocks(kept, store.get(KeyType.PUB_KEY, "new"));
+        }
+    }
+
+    @Test
+    public void testCompact() throws Exception {
+        File dir = folder.newFolder();
+        List<DataBlock> kept = blocks(4);
+        try (BlockStore store = open(dir)) {
+            for (int i = 0; i < 20; i++) {
+                putAll(store, KeyType.PUB_KEY, "removed" + i, blocks(2));
+                if (i % 5 == 0) {
+                    putAll(store, KeyType.PUB_KEY, "kept", kept.subList(i / 5, i / 5 + 1));
+                }
+            }
+            for (int i = 0; i < 20; i++) {
+                store.remove(KeyType.PUB_KEY, "removed" + i).get();
+            }
+            long before = segmentBytes(dir);
+            store.compact();
+            assertTrue(segmentBytes(dir) < before / 2);
+            assertBlocks(kept, store.get(KeyType.PUB_KEY, "kept"));
+        }
+        try (BlockStore store = open(dir)) {
+            assertBlocks(kept, store.get(KeyType.PUB_KEY, "kept"));
+            assertFalse(store.contains(KeyType.PUB_KEY, "removed3"));
+        }
+        Files.delete(new File(dir, "index").toPath());
+        try (BlockStore store = open(dir)) {
+            assertBlocks(kept, store.get(KeyType.PUB_KEY, "kept"));
+            for (int i = 0; i < 20; i++) {
+                assertFalse(store.contains(KeyType.PUB_KEY, "removed" + i));
+            }
+        }
+    }
+
+    private static BlockStore open(File dir) throws Exception {
+        return new BlockStore(dir, SEGMENT_SIZE, 1, 16);
+    }
+
+    private static void putAll(BlockStore store, KeyType type, String hashKey,
+                               List<DataBlock> blocks) throws Exception {
+        for (DataBlock block : blocks) {
+            store.put(type, hashKey, block).get();
+        }
+    }
+
+    private List<DataBlock> blocks(int count) {
+        List<DataBlock> blocks = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] bytes = new byte[BLOCK_LEN];
+            random.nextBytes(bytes);
+            bytes[1] = (byte) i;
+            blocks.add(new DataBlock(bytes));
+        }
+        return blocks;
+    }
+
+    private static void assertBlocks(List<DataBlock> expected, List<DataBlock> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(expected.get(i).getBytes(), actual.get(i).getBytes());
+        }
+    }
+
+    private static long segmentBytes(File dir) {
+        long total = 0;
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".seg"));
+        for (File file : files == null ? new File[0] : files) {
+            total += file.length();
+        }
+        return total;
+    }
+}